@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
@@ -20,6 +21,7 @@ import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -43,16 +45,21 @@ import zipkin2.Callback;
 public class ThrottledCallBenchmarks {
   ExecutorService fakeCallExecutor = Executors.newSingleThreadExecutor();
   ExecutorService executor = Executors.newSingleThreadExecutor();
-  ThrottledCall call;
+  ThrottledCall<Void> call;
+
+  /** Compares the resized pool with virtual threads limited by a semaphore. Needs JDK 21+. */
+  @Param({"pool", "virtual"}) String threads;
 
   @Setup public void setup() {
-    executor = Executors.newSingleThreadExecutor();
+    executor = "virtual".equals(threads)
+      ? new VirtualThreadExecutor(FixedLimit.of(1), new LinkedBlockingQueue<>(), "virtual")
+      : Executors.newSingleThreadExecutor();
     fakeCallExecutor = Executors.newSingleThreadExecutor();
     SimpleLimiter<Void> limiter = SimpleLimiter.newBuilder().limit(FixedLimit.of(1)).build();
     LimiterMetrics metrics = new LimiterMetrics(NoopMeterRegistry.get());
     Predicate<Throwable> isOverCapacity = RejectedExecutionException.class::isInstance;
-    call =
-      new ThrottledCall(new FakeCall(fakeCallExecutor), executor, limiter, metrics, isOverCapacity);
+    call = new ThrottledCall<>(
+      new FakeCall(fakeCallExecutor), executor, limiter, metrics, isOverCapacity);
   }
 
   @TearDown public void tearDown() {
@@ -65,7 +72,7 @@ public class ThrottledCallBenchmarks {
   }
 
   @Benchmark public void execute_overCapacity() throws IOException {
-    ThrottledCall overCapacity = (ThrottledCall) call.clone();
+    ThrottledCall<Void> overCapacity = (ThrottledCall<Void>) call.clone();
     ((FakeCall) overCapacity.delegate).overCapacity = true;
 
     try {
@@ -28,6 +28,7 @@ public final class ActiveMQCollector extends CollectorComponent {
     ActiveMQConnectionFactory connectionFactory;
     String queue = "zipkin";
     int concurrency = 1;
+    int batchSize = 0, batchTimeoutMillis = 100, prefetch = 0;
 
     @Override public Builder storage(StorageComponent storage) {
       this.delegate.storage(storage);
@@ -66,6 +67,42 @@ public final class ActiveMQCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, each consumer reads messages in a transacted session, up to this count at a
+     * time. Spans of a batch are stored in one request, and the transaction is committed once they
+     * are. On storage failure, the transaction is rolled back, so the broker redelivers the
+     * messages.
+     *
+     * <p>Defaults to 0, which acknowledges each message when read, even if its spans are never
+     * stored.
+     */
+    public Builder batchSize(int batchSize) {
+      if (batchSize < 0) throw new IllegalArgumentException("batchSize < 0");
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Maximum time to wait for more messages once a batch has started. Only applies when {@link
+     * #batchSize(int)} is set. Defaults to 100.
+     */
+    public Builder batchTimeoutMillis(int batchTimeoutMillis) {
+      if (batchTimeoutMillis < 0) throw new IllegalArgumentException("batchTimeoutMillis < 0");
+      this.batchTimeoutMillis = batchTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Count of messages the broker sends to each consumer ahead of it reading them. When batching,
+     * this should be at least {@link #batchSize(int)}. Defaults to 0, which uses the queue prefetch
+     * of the {@link #connectionFactory(ActiveMQConnectionFactory) connection factory}.
+     */
+    public Builder prefetch(int prefetch) {
+      if (prefetch < 0) throw new IllegalArgumentException("prefetch < 0");
+      this.prefetch = prefetch;
+      return this;
+    }
+
     @Override public ActiveMQCollector build() {
       if (connectionFactory == null) throw new NullPointerException("connectionFactory == null");
       return new ActiveMQCollector(this);
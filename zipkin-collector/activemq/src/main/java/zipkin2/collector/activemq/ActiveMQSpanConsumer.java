@@ -6,8 +6,11 @@ package zipkin2.collector.activemq;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -19,18 +22,28 @@ import javax.jms.Session;
 import javax.jms.TextMessage;
 import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.transport.TransportListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import zipkin2.Callback;
 import zipkin2.CheckResult;
+import zipkin2.Span;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
+import zipkin2.internal.Nullable;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * Consumes spans from messages on a ActiveMQ queue. Malformed messages will be discarded. Errors in
- * the storage component will similarly be ignored, with no retry of the message.
+ * the storage component will similarly be ignored, with no retry of the message, unless batching.
+ * When batching, messages are read in transacted sessions, committed only once their spans are
+ * stored.
  */
 final class ActiveMQSpanConsumer implements TransportListener, MessageListener, Closeable {
+  static final Logger LOG = LoggerFactory.getLogger(ActiveMQSpanConsumer.class);
+  static final long INITIAL_BACKOFF_MILLIS = 100, MAX_BACKOFF_MILLIS = 10_000;
   static final Callback<Void> NOOP = new Callback<Void>() {
     @Override public void onSuccess(Void value) {
     }
@@ -48,25 +61,42 @@ final class ActiveMQSpanConsumer implements TransportListener, MessageListener,
 
   final ActiveMQConnection connection;
   final Map<QueueSession, QueueReceiver> sessionToReceiver = new LinkedHashMap<>();
+  final int batchSize, batchTimeoutMillis, prefetch;
 
   volatile CheckResult checkResult = CheckResult.OK;
 
-  ActiveMQSpanConsumer(Collector collector, CollectorMetrics metrics, ActiveMQConnection conn) {
+  ActiveMQSpanConsumer(Collector collector, CollectorMetrics metrics, ActiveMQConnection conn,
+    int batchSize, int batchTimeoutMillis, int prefetch) {
     this.collector = collector;
     this.metrics = metrics;
     this.connection = conn;
+    this.batchSize = batchSize;
+    this.batchTimeoutMillis = batchTimeoutMillis;
+    this.prefetch = prefetch;
     connection.addTransportListener(this);
   }
 
   /** JMS contract is one session per thread: we need a new session up to our concurrency level. */
   void registerInNewSession(ActiveMQConnection connection, String queue) throws JMSException {
+    boolean transacted = batchSize > 0;
     // Pass redundant info as we can't use default method in activeMQ
-    QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+    QueueSession session = connection.createQueueSession(transacted,
+      transacted ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE);
+    // Destination options apply to this consumer, without changing the connection factory.
+    if (prefetch > 0) queue += "?consumer.prefetchSize=" + prefetch;
     // No need to do anything on ActiveMQ side as physical queues are created on demand
     Queue destination = session.createQueue(queue);
     QueueReceiver receiver = session.createReceiver(destination);
-    receiver.setMessageListener(this);
     sessionToReceiver.put(session, receiver);
+    if (!transacted) {
+      receiver.setMessageListener(this);
+      return;
+    }
+
+    Thread thread = new Thread(new BatchReceiveLoop(session, receiver),
+      "zipkin-activemq-" + sessionToReceiver.size());
+    thread.setDaemon(true);
+    thread.start();
   }
 
   @Override public void onCommand(Object o) {
@@ -87,25 +117,159 @@ final class ActiveMQSpanConsumer implements TransportListener, MessageListener,
   @Override public void onMessage(Message message) {
     metrics.incrementMessages();
     byte[] serialized; // TODO: consider how to reuse buffers here
+    String contentEncoding; // JMS property names can't include hyphens
     try {
-      if (message instanceof BytesMessage bytesMessage) {
-        serialized = new byte[(int) bytesMessage.getBodyLength()];
-        bytesMessage.readBytes(serialized);
-      } else if (message instanceof TextMessage textMessage) {
-        String text = textMessage.getText();
-        serialized = text.getBytes(UTF_8);
-      } else {
-        metrics.incrementMessagesDropped();
-        return;
-      }
+      contentEncoding = message.getStringProperty("contentEncoding");
+      serialized = readBody(message);
     } catch (Exception e) {
       metrics.incrementMessagesDropped();
       return;
     }
+    if (serialized == null) {
+      metrics.incrementMessagesDropped();
+      return;
+    }
 
     metrics.incrementBytes(serialized.length);
     if (serialized.length == 0) return; // lenient on empty messages
-    collector.acceptSpans(serialized, NOOP);
+    collector.acceptSpans(serialized, contentEncoding, NOOP);
+  }
+
+  /** Returns null when the message type isn't supported. */
+  @Nullable static byte[] readBody(Message message) throws JMSException {
+    if (message instanceof BytesMessage bytesMessage) {
+      byte[] serialized = new byte[(int) bytesMessage.getBodyLength()];
+      bytesMessage.readBytes(serialized);
+      return serialized;
+    } else if (message instanceof TextMessage textMessage) {
+      return textMessage.getText().getBytes(UTF_8);
+    }
+    return null;
+  }
+
+  /**
+   * Receives up to {@link #batchSize} messages in a transacted session, storing their spans in one
+   * request. The transaction is committed once the spans are stored, or rolled back on failure, so
+   * that the broker redelivers the messages. As sessions are single-threaded, this waits for
+   * storage before receiving the next batch. Messages already prefetched keep the wait short.
+   *
+   * <p>When receiving fails, the next attempt is delayed, twice as long as the last time, up to
+   * {@link #MAX_BACKOFF_MILLIS}.
+   */
+  final class BatchReceiveLoop implements Runnable {
+    final QueueSession session;
+    final QueueReceiver receiver;
+    final List<Message> batch;
+    long backoffMillis; // zero unless the last attempt failed
+
+    BatchReceiveLoop(QueueSession session, QueueReceiver receiver) {
+      this.session = session;
+      this.receiver = receiver;
+      this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override public void run() {
+      try {
+        while (checkResult != CLOSED) {
+          try {
+            receiveAndStore();
+            backoffMillis = 0;
+          } catch (javax.jms.IllegalStateException e) {
+            return; // the session closed
+          } catch (JMSException e) {
+            if (checkResult == CLOSED) return;
+            backoffMillis = backoffMillis == 0
+              ? INITIAL_BACKOFF_MILLIS
+              : Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+            LOG.warn("ActiveMQ span consumer failed to receive messages. Retrying in {}ms",
+              backoffMillis, e);
+            Thread.sleep(backoffMillis);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /** Receives a batch, then commits it if its spans were stored, or rolls it back if not. */
+    void receiveAndStore() throws JMSException, InterruptedException {
+      try {
+        receiveBatch();
+        if (batch.isEmpty()) return; // the session closed
+
+        if (store()) {
+          session.commit();
+        } else {
+          session.rollback();
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+
+    void receiveBatch() throws JMSException {
+      Message message = receiver.receive(); // null when the session closes
+      if (message == null) return;
+      batch.add(message);
+
+      long deadline = System.nanoTime() + MILLISECONDS.toNanos(batchTimeoutMillis);
+      while (batch.size() < batchSize) {
+        long remaining = NANOSECONDS.toMillis(deadline - System.nanoTime());
+        message = remaining > 0 ? receiver.receive(remaining) : receiver.receiveNoWait();
+        if (message == null) return;
+        batch.add(message);
+      }
+    }
+
+    /** Returns true when spans in the batch were stored, or there were none to store. */
+    boolean store() throws InterruptedException {
+      long decodeStart = System.nanoTime();
+      List<Span> spans = new ArrayList<>();
+      for (Message message : batch) {
+        metrics.incrementMessages();
+        byte[] serialized;
+        String contentEncoding;
+        try {
+          contentEncoding = message.getStringProperty("contentEncoding");
+          serialized = readBody(message);
+        } catch (Exception e) {
+          metrics.incrementMessagesDropped();
+          continue;
+        }
+        if (serialized == null) {
+          metrics.incrementMessagesDropped();
+          continue;
+        }
+
+        metrics.incrementBytes(serialized.length);
+        if (serialized.length == 0) continue; // lenient on empty messages
+        serialized = collector.decompressOrDrop(serialized, contentEncoding);
+        if (serialized != null) spans.addAll(collector.decodeSpans(serialized));
+      }
+      metrics.recordBatchDecode(System.nanoTime() - decodeStart);
+
+      AwaitStored callback = new AwaitStored();
+      collector.acceptAndStore(spans, callback, Runnable::run);
+      callback.done.await();
+      return callback.stored;
+    }
+  }
+
+  final class AwaitStored implements Callback<Void> {
+    final long startNanos = System.nanoTime();
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile boolean stored;
+
+    @Override public void onSuccess(Void value) {
+      metrics.recordBatchStore(System.nanoTime() - startNanos);
+      stored = true;
+      done.countDown();
+    }
+
+    @Override public void onError(Throwable t) { // already logged and counted as dropped
+      metrics.recordBatchStore(System.nanoTime() - startNanos);
+      done.countDown();
+    }
   }
 
   @Override public void close() {
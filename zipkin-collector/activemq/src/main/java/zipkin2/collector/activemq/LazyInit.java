@@ -21,7 +21,7 @@ final class LazyInit {
   final CollectorMetrics metrics;
   final ActiveMQConnectionFactory connectionFactory;
   final String queue;
-  final int concurrency;
+  final int concurrency, batchSize, batchTimeoutMillis, prefetch;
 
   volatile ActiveMQSpanConsumer result;
 
@@ -31,6 +31,9 @@ final class LazyInit {
     connectionFactory = builder.connectionFactory;
     queue = builder.queue;
     concurrency = builder.concurrency;
+    batchSize = builder.batchSize;
+    batchTimeoutMillis = builder.batchTimeoutMillis;
+    prefetch = builder.prefetch;
   }
 
   ActiveMQSpanConsumer init() {
@@ -59,7 +62,8 @@ final class LazyInit {
     }
 
     try {
-      ActiveMQSpanConsumer result = new ActiveMQSpanConsumer(collector, metrics, connection);
+      ActiveMQSpanConsumer result = new ActiveMQSpanConsumer(collector, metrics, connection,
+        batchSize, batchTimeoutMillis, prefetch);
 
       for (int i = 0; i < concurrency; i++) {
         result.registerInNewSession(connection, queue);
@@ -0,0 +1,89 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.activemq;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.jms.JMSException;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSession;
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.collector.Collector;
+import zipkin2.collector.InMemoryCollectorMetrics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+import static zipkin2.codec.SpanBytesEncoder.JSON_V2;
+
+class ActiveMQSpanConsumerTest {
+  List<Span> spans = List.of(LOTS_OF_SPANS[0], LOTS_OF_SPANS[1]);
+  LinkedBlockingQueue<List<Span>> stored = new LinkedBlockingQueue<>();
+  boolean storageFails;
+  Collector collector = Collector.newBuilder(ActiveMQCollector.class)
+    .storage(ITActiveMQCollector.buildStorage(input -> {
+      if (storageFails) {
+        return Call.<Void>create(null).map(v -> {
+          throw new RuntimeException("storage fell over");
+        });
+      }
+      stored.add(input);
+      return Call.create(null);
+    })).build();
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  QueueSession session = mock(QueueSession.class);
+  QueueReceiver receiver = mock(QueueReceiver.class);
+  ActiveMQSpanConsumer consumer = new ActiveMQSpanConsumer(collector, metrics,
+    mock(ActiveMQConnection.class), 2, 10, 0);
+  ActiveMQSpanConsumer.BatchReceiveLoop loop = consumer.new BatchReceiveLoop(session, receiver);
+
+  @Test void commitsStoredBatch() throws Exception {
+    when(receiver.receive()).thenReturn(message());
+    when(receiver.receive(anyLong())).thenReturn(message());
+
+    loop.receiveAndStore();
+
+    assertThat(stored.poll()).hasSize(4); // spans of both messages in one request
+    verify(session).commit();
+    verify(session, never()).rollback();
+    assertThat(metrics.messages()).isEqualTo(2);
+  }
+
+  @Test void rollsBackBatchWhenStorageFails() throws Exception {
+    storageFails = true;
+    when(receiver.receive()).thenReturn(message());
+    when(receiver.receive(anyLong())).thenReturn(message());
+
+    loop.receiveAndStore();
+
+    assertThat(stored).isEmpty();
+    verify(session).rollback();
+    verify(session, never()).commit();
+  }
+
+  @Test void storesPartialBatchAfterTimeout() throws Exception {
+    when(receiver.receive()).thenReturn(message());
+
+    loop.receiveAndStore();
+
+    assertThat(stored.poll()).isEqualTo(spans);
+    verify(session).commit();
+  }
+
+  ActiveMQTextMessage message() throws JMSException {
+    ActiveMQTextMessage message = new ActiveMQTextMessage();
+    message.setText(new String(JSON_V2.encodeList(spans), UTF_8));
+    return message;
+  }
+}
@@ -16,7 +16,6 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.jms.BytesMessage;
-import javax.jms.Connection;
 import javax.jms.Queue;
 import javax.jms.QueueReceiver;
 import javax.jms.QueueSender;
@@ -41,6 +40,7 @@ import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static javax.jms.Session.AUTO_ACKNOWLEDGE;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static zipkin2.TestObjects.LOTS_OF_SPANS;
 import static zipkin2.TestObjects.UTF_8;
@@ -232,6 +232,46 @@ class ITActiveMQCollector {
     assertThat(activemqMetrics.spansDropped()).isZero();
   }
 
+  @Test void batchSize_storesMessagesTogether() throws Exception {
+    collector.close();
+
+    collector = builder().batchSize(3).batchTimeoutMillis(5000).prefetch(10).build().start();
+
+    pushMessage(collector.queue, PROTO3.encodeList(spans));
+    pushMessage(collector.queue, new byte[] {}); // empty bodies count towards the batch
+    pushMessage(collector.queue, PROTO3.encodeList(spans));
+
+    assertThat(receivedSpans.take()).hasSize(spans.size() * 2);
+
+    assertThat(activemqMetrics.messages()).isEqualTo(3);
+    assertThat(activemqMetrics.messagesDropped()).isZero();
+    assertThat(activemqMetrics.spans()).isEqualTo(spans.size() * 2);
+    assertThat(activemqMetrics.batchesStored()).isEqualTo(1);
+  }
+
+  /** Unlike the default mode, a batch isn't dropped when storage fails. */
+  @Test void batchSize_redeliversOnSpanStorageException() throws Exception {
+    collector.close();
+
+    AtomicInteger counter = new AtomicInteger();
+    collector = builder().batchSize(10).batchTimeoutMillis(10).storage(buildStorage((input) -> {
+      if (counter.getAndIncrement() == 0) {
+        return Call.<Void>create(null).map(v -> {
+          throw new RuntimeException("storage fell over");
+        });
+      }
+      return consumer.accept(input);
+    })).build().start();
+
+    pushMessage(collector.queue, PROTO3.encodeList(spans));
+
+    // the rolled back message is redelivered
+    assertThat(receivedSpans.take()).containsExactlyElementsOf(spans);
+
+    assertThat(activemqMetrics.messages()).isEqualTo(2);
+    assertThat(activemqMetrics.spansDropped()).isEqualTo(spans.size()); // only the failed attempt
+  }
+
   ActiveMQCollector.Builder builder() {
     // prevent test flakes by having each run in an individual queue
     return activemq.newCollectorBuilder(testName)
@@ -269,7 +309,10 @@ class ITActiveMQCollector {
       throw new NoSuchElementException("couldn't find session for queue " + queueName);
     }
 
-    Connection conn = collector.lazyInit.result.connection;
+    // Messages sent in a transacted session are only visible once committed.
+    if (session.getTransacted()) {
+      session = collector.lazyInit.result.connection.createQueueSession(false, AUTO_ACKNOWLEDGE);
+    }
 
     try (QueueSender sender = session.createSender(queue)) {
       BytesMessage bytesMessage = session.createBytesMessage();
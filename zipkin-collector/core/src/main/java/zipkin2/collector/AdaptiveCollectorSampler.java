@@ -0,0 +1,217 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import zipkin2.Span;
+
+/**
+ * Samples traces to keep the rate of spans stored near a budget, as opposed to at a fixed
+ * probability. Like {@link CollectorSampler#create(float)}, decisions are made by trace ID, so
+ * traces stay whole. Only the boundary changes.
+ *
+ * <h3>Implementation</h3>
+ *
+ * <p>Spans offered are counted per second, and the rate of the last {@link
+ * Builder#windowSeconds(int) few seconds} determines the sample rate for the next second: {@code
+ * min(maxRate, spansPerSecond / observedSpansPerSecond)}. As trace IDs are random, this keeps
+ * roughly the budgeted rate of spans.
+ *
+ * <p>Optionally, services below a {@link Builder#minSpansPerSecondPerService(int) minimum rate}
+ * are always sampled, so that spikes from a busy service don't drop all data of quiet ones. This
+ * retains the spans of the quiet service even when their trace ID isn't sampled.
+ *
+ * <p>This is a trade-off against whole traces: when the trace ID of a protected span isn't
+ * sampled, the spans of busier services in the same trace are still dropped, so the trace is
+ * partial. No decision is recorded per trace, as spans of the other services may have arrived, and
+ * been dropped, before the protected one. Leave the minimum at zero when only whole traces are
+ * useful.
+ */
+public final class AdaptiveCollectorSampler extends CollectorSampler {
+  /** Services beyond this count are not protected by the per-service minimum. */
+  static final int MAX_SERVICES = 1000;
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    int spansPerSecond, windowSeconds = 10, minSpansPerSecondPerService;
+    float maxRate = 1.0f;
+    LongSupplier nanoTime = System::nanoTime;
+
+    /** The budget of spans per second to store. Required and must be positive. */
+    public Builder spansPerSecond(int spansPerSecond) {
+      if (spansPerSecond <= 0) throw new IllegalArgumentException("spansPerSecond <= 0");
+      this.spansPerSecond = spansPerSecond;
+      return this;
+    }
+
+    /** The count of seconds to average the observed rate over. Defaults to 10. */
+    public Builder windowSeconds(int windowSeconds) {
+      if (windowSeconds <= 0) throw new IllegalArgumentException("windowSeconds <= 0");
+      this.windowSeconds = windowSeconds;
+      return this;
+    }
+
+    /**
+     * When positive, services reporting fewer spans per second than this are always sampled.
+     * Defaults to zero, which disables this.
+     *
+     * <p>Spans kept this way can belong to traces whose other spans were dropped, so traces
+     * including a quiet service may be partial.
+     */
+    public Builder minSpansPerSecondPerService(int minSpansPerSecondPerService) {
+      if (minSpansPerSecondPerService < 0) {
+        throw new IllegalArgumentException("minSpansPerSecondPerService < 0");
+      }
+      this.minSpansPerSecondPerService = minSpansPerSecondPerService;
+      return this;
+    }
+
+    /**
+     * The highest sample rate, for example {@code COLLECTOR_SAMPLE_RATE}, used when the observed
+     * rate is under budget. Defaults to 1.0.
+     */
+    public Builder maxRate(float maxRate) {
+      if (maxRate < 0 || maxRate > 1) {
+        throw new IllegalArgumentException("maxRate should be between 0 and 1: was " + maxRate);
+      }
+      this.maxRate = maxRate;
+      return this;
+    }
+
+    Builder nanoTime(LongSupplier nanoTime) {
+      this.nanoTime = nanoTime;
+      return this;
+    }
+
+    public AdaptiveCollectorSampler build() {
+      if (spansPerSecond == 0) throw new IllegalStateException("spansPerSecond was not set");
+      return new AdaptiveCollectorSampler(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  /** Counts spans of one service or all services per second, in a ring of buckets. */
+  static final class Window {
+    final LongAdder current = new LongAdder();
+    final long[] buckets;
+    int index, filled;
+    long sum;
+
+    Window(int seconds) {
+      buckets = new long[seconds];
+    }
+
+    /** Moves the current count into the window, and adds a zero bucket per idle second. */
+    void advance(long seconds) {
+      long count = current.sumThenReset();
+      for (long i = 0; i < Math.min(seconds, buckets.length); i++) {
+        index = (index + 1) % buckets.length;
+        sum -= buckets[index];
+        buckets[index] = i == 0 ? count : 0L;
+        sum += buckets[index];
+        if (filled < buckets.length) filled++;
+      }
+    }
+
+    /** Spans per second over the seconds observed so far. */
+    double rate() {
+      return filled == 0 ? 0.0 : (double) sum / filled;
+    }
+  }
+
+  final int spansPerSecond, windowSeconds, minSpansPerSecondPerService;
+  final long maxBoundary;
+  final LongSupplier nanoTime;
+  final Window all;
+  final Map<String, Window> services = new ConcurrentHashMap<>();
+  /** Services whose rate over the window is under the minimum. Replaced each second. */
+  volatile Map<String, Boolean> protectedServices = Map.of();
+  volatile long boundary;
+  volatile long second;
+
+  AdaptiveCollectorSampler(Builder builder) {
+    spansPerSecond = builder.spansPerSecond;
+    windowSeconds = builder.windowSeconds;
+    minSpansPerSecondPerService = builder.minSpansPerSecondPerService;
+    maxBoundary = (long) (Long.MAX_VALUE * builder.maxRate); // safe cast as less <= 1
+    nanoTime = builder.nanoTime;
+    all = new Window(windowSeconds);
+    boundary = maxBoundary; // until something is observed
+    second = currentSecond();
+  }
+
+  @Override protected long boundary() {
+    return boundary;
+  }
+
+  /** Returns the current sample rate, for metrics. */
+  public float rate() {
+    return (float) ((double) boundary / Long.MAX_VALUE);
+  }
+
+  /** Counts the span towards the observed rate, then samples by trace ID or service. */
+  @Override public boolean isSampled(Span span) {
+    long now = currentSecond();
+    if (now != second) advance(now);
+    all.current.increment();
+
+    String serviceName = span.localServiceName();
+    if (minSpansPerSecondPerService > 0 && serviceName != null) {
+      Window service = services.get(serviceName);
+      if (service == null && services.size() < MAX_SERVICES) {
+        service = services.computeIfAbsent(serviceName, k -> new Window(windowSeconds));
+      }
+      if (service != null) service.current.increment();
+      if (super.isSampled(span)) return true;
+      // Unknown services haven't been measured yet, so are protected until they are.
+      return service != null && !Boolean.FALSE.equals(protectedServices.get(serviceName));
+    }
+    return super.isSampled(span);
+  }
+
+  long currentSecond() {
+    return TimeUnit.NANOSECONDS.toSeconds(nanoTime.getAsLong());
+  }
+
+  /** Updates the boundary from the observed rates. Only one thread advances a given second. */
+  synchronized void advance(long now) {
+    long elapsed = now - second;
+    if (elapsed <= 0) return; // another thread advanced already
+    all.advance(elapsed);
+
+    double rate = all.rate();
+    boundary = rate <= spansPerSecond
+      ? maxBoundary
+      : Math.min(maxBoundary, (long) (Long.MAX_VALUE * (spansPerSecond / rate)));
+
+    if (minSpansPerSecondPerService > 0) {
+      Map<String, Boolean> protectedServices = new HashMap<>();
+      for (Iterator<Window> i = services.values().iterator(); i.hasNext(); ) {
+        Window service = i.next();
+        service.advance(elapsed);
+        if (service.sum == 0L && service.filled == windowSeconds) i.remove(); // idle
+      }
+      services.forEach((name, service) ->
+        protectedServices.put(name, service.rate() < minSpansPerSecondPerService));
+      this.protectedServices = protectedServices;
+    }
+    second = now;
+  }
+
+  @Override public String toString() {
+    return "AdaptiveCollectorSampler{spansPerSecond=" + spansPerSecond + ", rate=" + rate() + "}";
+  }
+}
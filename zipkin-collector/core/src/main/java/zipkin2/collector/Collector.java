@@ -17,6 +17,7 @@ import zipkin2.Span;
 import zipkin2.SpanBytesDecoderDetector;
 import zipkin2.codec.BytesDecoder;
 import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.internal.Nullable;
 import zipkin2.storage.StorageComponent;
 
 import static zipkin2.Call.propagateIfFatal;
@@ -27,9 +28,11 @@ import static zipkin2.Call.propagateIfFatal;
  *
  * <p>Callbacks passed do not propagate to the storage layer. They only return success or failures
  * before storage is attempted. This ensures that calling threads are disconnected from storage
- * threads.
+ * threads. The exceptions are {@link #acceptAndStore(List, Callback, Executor)} and methods that
+ * delegate to it, for transports that need to know when storage completes.
  */
 public class Collector { // not final for mock
+  static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 50 * 1024 * 1024;
   static final Callback<Void> NOOP_CALLBACK = new Callback<Void>() {
     @Override public void onSuccess(Void value) {
     }
@@ -49,6 +52,7 @@ public class Collector { // not final for mock
     StorageComponent storage;
     CollectorSampler sampler;
     CollectorMetrics metrics;
+    int maxDecompressedSize = DEFAULT_MAX_DECOMPRESSED_SIZE;
 
     Builder(Logger logger) {
       this.logger = logger;
@@ -75,6 +79,19 @@ public class Collector { // not final for mock
       return this;
     }
 
+    /**
+     * Compressed messages larger than this when {@link #decompress(byte[], String) decompressed}
+     * are dropped. This prevents a small message from expanding until it exhausts the heap.
+     * Defaults to 50 MiB.
+     */
+    public Builder maxDecompressedSize(int maxDecompressedSize) {
+      if (maxDecompressedSize <= 0) {
+        throw new IllegalArgumentException("maxDecompressedSize <= 0");
+      }
+      this.maxDecompressedSize = maxDecompressedSize;
+      return this;
+    }
+
     public Collector build() {
       return new Collector(this);
     }
@@ -84,6 +101,7 @@ public class Collector { // not final for mock
   final CollectorMetrics metrics;
   final CollectorSampler sampler;
   final StorageComponent storage;
+  final int maxDecompressedSize;
 
   Collector(Builder builder) {
     if (builder.logger == null) throw new NullPointerException("logger == null");
@@ -92,6 +110,7 @@ public class Collector { // not final for mock
     if (builder.storage == null) throw new NullPointerException("storage == null");
     this.storage = builder.storage;
     this.sampler = builder.sampler == null ? CollectorSampler.ALWAYS_SAMPLE : builder.sampler;
+    this.maxDecompressedSize = builder.maxDecompressedSize;
   }
 
   public void accept(List<Span> spans, Callback<Void> callback) {
@@ -105,6 +124,22 @@ public class Collector { // not final for mock
    * @param executor the executor used to enqueue the storage request.
    */
   public void accept(List<Span> spans, Callback<Void> callback, Executor executor) {
+    accept(spans, callback, executor, false);
+  }
+
+  /**
+   * Like {@link #accept(List, Callback, Executor)}, except the callback completes when storage
+   * does, as opposed to when the spans are scheduled for storage. Transports use this to
+   * acknowledge messages only once stored, or to stop reading while storage is behind.
+   *
+   * <p>Spans dropped by sampling complete immediately. Storage errors, including rejection by the
+   * executor, are passed to the callback.
+   */
+  public void acceptAndStore(List<Span> spans, Callback<Void> callback, Executor executor) {
+    accept(spans, callback, executor, true);
+  }
+
+  void accept(List<Span> spans, Callback<Void> callback, Executor executor, boolean awaitStorage) {
     if (spans.isEmpty()) {
       callback.onSuccess(null);
       return;
@@ -121,6 +156,15 @@ public class Collector { // not final for mock
     // phase of this process. Here, we create a callback whose sole purpose is classifying later
     // errors on this bundle of spans in the same log category. This allows people to only turn on
     // debug logging in one place.
+    if (awaitStorage) {
+      try {
+        executor.execute(new StoreSpans(sampledSpans, callback));
+      } catch (RuntimeException | Error e) {
+        handleStorageError(sampledSpans, e, callback);
+      }
+      return;
+    }
+
     try {
       executor.execute(new StoreSpans(sampledSpans));
       callback.onSuccess(null);
@@ -143,6 +187,22 @@ public class Collector { // not final for mock
     accept(spans, callback, executor);
   }
 
+  /**
+   * Like {@link #acceptSpans(ByteBuffer, SpanBytesDecoder, Callback, Executor)}, except the
+   * callback completes when storage does. See {@link #acceptAndStore(List, Callback, Executor)}.
+   */
+  public void acceptSpansAndStore(ByteBuffer encoded, SpanBytesDecoder decoder,
+    Callback<Void> callback, Executor executor) {
+    List<Span> spans;
+    try {
+      spans = decoder.decodeList(encoded);
+    } catch (RuntimeException | Error e) {
+      handleDecodeError(e, callback);
+      return;
+    }
+    acceptAndStore(spans, callback, executor);
+  }
+
   /**
    * Before calling this, call {@link CollectorMetrics#incrementMessages()}, and {@link
    * CollectorMetrics#incrementBytes(int)}. Do not call any other metrics callbacks as those are
@@ -151,8 +211,20 @@ public class Collector { // not final for mock
    * @param serialized not empty message
    */
   public void acceptSpans(byte[] serialized, Callback<Void> callback) {
+    acceptSpans(serialized, (String) null, callback);
+  }
+
+  /**
+   * Like {@link #acceptSpans(byte[], Callback)}, except the message is {@link #decompress(byte[],
+   * String) decompressed} first.
+   *
+   * @param contentEncoding the transport's header describing the message, if present.
+   */
+  public void acceptSpans(
+    byte[] serialized, @Nullable String contentEncoding, Callback<Void> callback) {
     BytesDecoder<Span> decoder;
     try {
+      serialized = decompress(serialized, contentEncoding);
       decoder = SpanBytesDecoderDetector.decoderForListMessage(serialized);
     } catch (RuntimeException | Error e) {
       handleDecodeError(e, callback);
@@ -180,6 +252,61 @@ public class Collector { // not final for mock
     accept(spans, callback);
   }
 
+  /**
+   * Decodes a message without storing it, so that transports can combine messages read together
+   * into fewer storage requests. Pass the result to {@link #accept(List, Callback, Executor)} or
+   * {@link #acceptAndStore(List, Callback, Executor)}.
+   *
+   * <p>Like {@link #acceptSpans(byte[], Callback)}, call {@link CollectorMetrics#incrementMessages()}
+   * and {@link CollectorMetrics#incrementBytes(int)} first. A malformed message is logged and
+   * counted as dropped, returning an empty list.
+   *
+   * @param serialized not empty, decompressed message
+   */
+  public List<Span> decodeSpans(byte[] serialized) {
+    try {
+      return decodeList(SpanBytesDecoderDetector.decoderForListMessage(serialized), serialized);
+    } catch (RuntimeException | Error e) {
+      handleDecodeError(e, NOOP_CALLBACK);
+      return List.of();
+    }
+  }
+
+  /**
+   * Decompresses a message according to its content encoding. When there's no header, the encoding
+   * is {@link ContentEncoding#detect(byte[]) detected} by magic bytes. Uncompressed messages are
+   * returned as-is.
+   *
+   * @param contentEncoding the transport's header describing the message, if present.
+   * @throws IllegalArgumentException if the encoding is unsupported, the message is malformed, or
+   * it is larger than {@link Builder#maxDecompressedSize(int)} when decompressed.
+   */
+  public byte[] decompress(byte[] message, @Nullable String contentEncoding) {
+    ContentEncoding encoding = contentEncoding != null
+      ? ContentEncoding.forValue(contentEncoding)
+      : ContentEncoding.detect(message);
+    if (encoding == null) return message;
+
+    byte[] result = encoding.decompress(message, maxDecompressedSize);
+    metrics.incrementCompressedBytes(encoding.value(), message.length, result.length);
+    return result;
+  }
+
+  /**
+   * Like {@link #decompress(byte[], String)}, except failures are logged and counted as a dropped
+   * message, the same as {@link #decodeSpans(byte[])}.
+   *
+   * @return the decompressed message, or null if it was dropped.
+   */
+  @Nullable public byte[] decompressOrDrop(byte[] message, @Nullable String contentEncoding) {
+    try {
+      return decompress(message, contentEncoding);
+    } catch (RuntimeException | Error e) {
+      handleDecodeError(e, NOOP_CALLBACK);
+      return null;
+    }
+  }
+
   List<Span> decodeList(BytesDecoder<Span> decoder, byte[] serialized) {
     List<Span> out = new ArrayList<>();
     decoder.decodeList(serialized, out);
@@ -198,7 +325,7 @@ public class Collector { // not final for mock
     List<Span> sampled = new ArrayList<>(input.size());
     for (int i = 0, length = input.size(); i < length; i++) {
       Span s = input.get(i);
-      if (sampler.isSampled(s.traceId(), Boolean.TRUE.equals(s.debug()))) {
+      if (sampler.isSampled(s)) {
         sampled.add(s);
       }
     }
@@ -209,9 +336,15 @@ public class Collector { // not final for mock
 
   class StoreSpans implements Callback<Void>, Runnable {
     final List<Span> spans;
+    final Callback<Void> callback;
 
     StoreSpans(List<Span> spans) {
+      this(spans, NOOP_CALLBACK);
+    }
+
+    StoreSpans(List<Span> spans, Callback<Void> callback) {
       this.spans = spans;
+      this.callback = callback;
     }
 
     @Override public void run() {
@@ -226,10 +359,11 @@ public class Collector { // not final for mock
     }
 
     @Override public void onSuccess(Void value) {
+      callback.onSuccess(null);
     }
 
     @Override public void onError(Throwable t) {
-      handleStorageError(spans, t, NOOP_CALLBACK);
+      handleStorageError(spans, t, callback);
     }
 
     @Override public String toString() {
@@ -89,6 +89,32 @@ public interface CollectorMetrics {
    */
   void incrementSpansDropped(int quantity);
 
+  /**
+   * Increments the bytes of a message compressed with the given {@link ContentEncoding}, before and
+   * after decompression. The ratio between these indicates how effective the encoding is.
+   *
+   * <p>This is in addition to {@link #incrementBytes(int)}, and defaults to doing nothing.
+   *
+   * @param contentEncoding ex "gzip", "zstd"
+   */
+  default void incrementCompressedBytes(String contentEncoding, int compressed, int decompressed) {
+  }
+
+  /**
+   * Records the time taken to decode messages read together, such as the records of a Kafka poll.
+   * Only transports that combine messages into fewer storage requests call this, and it defaults
+   * to doing nothing.
+   */
+  default void recordBatchDecode(long nanos) {
+  }
+
+  /**
+   * Records the time from handing a batch of decoded spans to storage until storage completed,
+   * regardless of success. This defaults to doing nothing.
+   */
+  default void recordBatchStore(long nanos) {
+  }
+
   CollectorMetrics NOOP_METRICS =
       new CollectorMetrics() {
 
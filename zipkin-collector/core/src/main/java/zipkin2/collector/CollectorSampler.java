@@ -64,6 +64,15 @@ public abstract class CollectorSampler {
     return t <= boundary();
   }
 
+  /**
+   * Returns true if this span should be recorded to storage. This is called once per span
+   * received, and defaults to {@link #isSampled(String, boolean)}. Override to also consider other
+   * fields, or to observe the rate of spans, as {@link AdaptiveCollectorSampler} does.
+   */
+  public boolean isSampled(Span span) {
+    return isSampled(span.traceId(), Boolean.TRUE.equals(span.debug()));
+  }
+
   @Override
   public String toString() {
     return "CollectorSampler(" + boundary() + ")";
@@ -0,0 +1,423 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.BrotliInputStream;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.xerial.snappy.SnappyFramedInputStream;
+import zipkin2.internal.Nullable;
+
+/**
+ * Compression formats a transport may wrap encoded spans in. Transports that cannot carry a header
+ * can rely on {@link #detect(byte[])}, which identifies all formats except brotli by their magic
+ * bytes. None of these overlap with the first bytes of an encoded list of spans.
+ *
+ * <p>Formats other than gzip and deflate are only available when their library is present:
+ * <ul>
+ *   <li>zstd: com.github.luben:zstd-jni</li>
+ *   <li>snappy: org.xerial.snappy:snappy-java (framed format)</li>
+ *   <li>br: com.aayushatharva.brotli4j:brotli4j</li>
+ * </ul>
+ */
+public enum ContentEncoding {
+  GZIP("gzip") {
+    @Override boolean matches(byte[] bytes) {
+      return bytes.length >= 2 && bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b;
+    }
+
+    @Override byte[] doDecompress(byte[] compressed, int maxLength) throws IOException {
+      return Gzip.decompress(compressed, maxLength);
+    }
+  },
+  DEFLATE("deflate") {
+    @Override boolean matches(byte[] bytes) {
+      return false; // zlib headers are too short to distinguish from span encodings.
+    }
+
+    @Override byte[] doDecompress(byte[] compressed, int maxLength) throws IOException {
+      Output output = new Output(compressed.length, maxLength);
+      Gzip.inflate(compressed, 0, false, output);
+      return output.toByteArray();
+    }
+  },
+  ZSTD("zstd") {
+    @Override boolean matches(byte[] bytes) {
+      return bytes.length >= 4 && bytes[0] == (byte) 0x28 && bytes[1] == (byte) 0xb5
+        && bytes[2] == (byte) 0x2f && bytes[3] == (byte) 0xfd;
+    }
+
+    @Override public boolean isAvailable() {
+      return Zstd.AVAILABLE;
+    }
+
+    @Override byte[] doDecompress(byte[] compressed, int maxLength) throws IOException {
+      return Zstd.decompress(compressed, maxLength);
+    }
+  },
+  SNAPPY("snappy") {
+    @Override boolean matches(byte[] bytes) {
+      if (bytes.length < SNAPPY_STREAM_IDENTIFIER.length) return false;
+      for (int i = 0; i < SNAPPY_STREAM_IDENTIFIER.length; i++) {
+        if (bytes[i] != SNAPPY_STREAM_IDENTIFIER[i]) return false;
+      }
+      return true;
+    }
+
+    @Override public boolean isAvailable() {
+      return Snappy.AVAILABLE;
+    }
+
+    @Override byte[] doDecompress(byte[] compressed, int maxLength) throws IOException {
+      return Snappy.decompress(compressed, maxLength);
+    }
+  },
+  BROTLI("br") {
+    @Override boolean matches(byte[] bytes) {
+      return false; // brotli has no magic bytes, so it needs to be signaled in a header.
+    }
+
+    @Override public boolean isAvailable() {
+      return Brotli.AVAILABLE;
+    }
+
+    @Override byte[] doDecompress(byte[] compressed, int maxLength) throws IOException {
+      return Brotli.decompress(compressed, maxLength);
+    }
+  };
+
+  final String value;
+
+  ContentEncoding(String value) {
+    this.value = value;
+  }
+
+  /** The value of this encoding in a "Content-Encoding" header, ex "zstd" */
+  public String value() {
+    return value;
+  }
+
+  /**
+   * Returns the encoding of a header value, or null if the value is empty or "identity".
+   *
+   * @throws IllegalArgumentException if the encoding isn't supported
+   */
+  @Nullable public static ContentEncoding forValue(@Nullable String value) {
+    if (value == null) return null;
+    String normalized = value.trim().toLowerCase(Locale.ROOT);
+    if (normalized.isEmpty() || normalized.equals("identity")) return null;
+    if (normalized.equals("x-gzip")) return GZIP;
+    for (ContentEncoding encoding : values()) {
+      if (encoding.value.equals(normalized)) return encoding;
+    }
+    throw new IllegalArgumentException("Unsupported Content-Encoding: " + value);
+  }
+
+  /** Returns the encoding whose magic bytes prefix the message, or null if there are none. */
+  @Nullable public static ContentEncoding detect(byte[] message) {
+    for (ContentEncoding encoding : values()) {
+      if (encoding.matches(message)) return encoding;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the decompressed message. Decompression stops once the output exceeds {@code
+   * maxLength}, so that a small message can't expand to exhaust the heap.
+   *
+   * @throws IllegalArgumentException if the message is malformed, larger than {@code maxLength}
+   * when decompressed, or the library for this encoding isn't available.
+   */
+  public byte[] decompress(byte[] compressed, int maxLength) {
+    if (maxLength <= 0) throw new IllegalArgumentException("maxLength <= 0");
+    if (!isAvailable()) {
+      throw new IllegalArgumentException(
+        "Unsupported Content-Encoding: " + value + " (library not found)");
+    }
+    try {
+      return doDecompress(compressed, maxLength);
+    } catch (TooLargeException e) {
+      throw new IllegalArgumentException(
+        value + " message is larger than " + maxLength + " bytes when decompressed");
+    } catch (IOException | RuntimeException e) {
+      throw new IllegalArgumentException("Malformed reading " + value + " message", e);
+    }
+  }
+
+  /** Returns false when the library needed for this encoding isn't present. */
+  public boolean isAvailable() {
+    return true;
+  }
+
+  abstract boolean matches(byte[] bytes);
+
+  abstract byte[] doDecompress(byte[] compressed, int maxLength) throws IOException;
+
+  // The stream identifier chunk which starts every framed snappy stream. This isn't in Snappy, as
+  // loading that requires snappy-java.
+  static final byte[] SNAPPY_STREAM_IDENTIFIER =
+    {(byte) 0xff, 0x06, 0x00, 0x00, 's', 'N', 'a', 'P', 'p', 'Y'};
+
+  static boolean isPresent(String className) {
+    try {
+      Class.forName(className, false, ContentEncoding.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Decompressors hold native memory which is costly to allocate per message. This keeps up to one
+   * per core between messages.
+   */
+  static final class Pool<T> {
+    final ArrayBlockingQueue<T> idle =
+      new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    final Supplier<T> factory;
+    final Consumer<T> reset, close;
+
+    Pool(Supplier<T> factory, Consumer<T> reset, Consumer<T> close) {
+      this.factory = factory;
+      this.reset = reset;
+      this.close = close;
+    }
+
+    T acquire() {
+      T result = idle.poll();
+      return result != null ? result : factory.get();
+    }
+
+    void release(T decompressor) {
+      reset.accept(decompressor);
+      if (!idle.offer(decompressor)) close.accept(decompressor);
+    }
+  }
+
+  /**
+   * Uses pooled inflaters instead of {@link java.util.zip.GZIPInputStream}, which can't. Like
+   * {@link java.util.zip.GZIPInputStream}, this reads concatenated members as one message.
+   */
+  static final class Gzip {
+    static final Pool<Inflater> ZLIB = new Pool<>(() -> new Inflater(false), Inflater::reset,
+      Inflater::end);
+    static final Pool<Inflater> RAW = new Pool<>(() -> new Inflater(true), Inflater::reset,
+      Inflater::end);
+    static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+    static byte[] decompress(byte[] gzip, int maxLength) throws IOException {
+      Output output = new Output(gzip.length, maxLength);
+      int pos = 0;
+      do {
+        pos = skipHeader(gzip, pos);
+        int memberStart = output.length;
+        pos = inflate(gzip, pos, true, output);
+        if (pos > gzip.length - 8) throw new IOException("Truncated gzip trailer");
+        CRC32 crc = new CRC32();
+        crc.update(output.buf, memberStart, output.length - memberStart);
+        if ((int) crc.getValue() != readIntLe(gzip, pos)
+          || output.length - memberStart != readIntLe(gzip, pos + 4)) {
+          throw new IOException("Corrupt gzip trailer");
+        }
+        pos += 8;
+      } while (pos < gzip.length);
+      return output.toByteArray();
+    }
+
+    /** Returns the position after the member header at {@code pos}. */
+    static int skipHeader(byte[] gzip, int pos) throws IOException {
+      if (gzip.length - pos < 18 || gzip[pos] != (byte) 0x1f || gzip[pos + 1] != (byte) 0x8b
+        || gzip[pos + 2] != 8 /* deflate */) {
+        throw new IOException("Not gzip");
+      }
+      int flags = gzip[pos + 3];
+      pos += 10;
+      if ((flags & FEXTRA) != 0) pos += 2 + ((gzip[pos] & 0xff) | (gzip[pos + 1] & 0xff) << 8);
+      if ((flags & FNAME) != 0) pos = skipZeroTerminated(gzip, pos);
+      if ((flags & FCOMMENT) != 0) pos = skipZeroTerminated(gzip, pos);
+      if ((flags & FHCRC) != 0) pos += 2;
+      if (pos > gzip.length - 8) throw new IOException("Truncated gzip header");
+      return pos;
+    }
+
+    /** Inflates one deflate stream into the output, returning the position after it. */
+    static int inflate(byte[] compressed, int offset, boolean raw, Output output)
+      throws IOException {
+      Pool<Inflater> pool = raw ? RAW : ZLIB;
+      Inflater inflater = pool.acquire();
+      try {
+        inflater.setInput(compressed, offset, compressed.length - offset);
+        while (!inflater.finished()) {
+          int writable = output.writable(); // before reading buf, as this can grow it
+          int count = inflater.inflate(output.buf, output.length, writable);
+          if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            throw new IOException("Truncated deflate stream");
+          }
+          output.advance(count);
+        }
+        return compressed.length - inflater.getRemaining();
+      } catch (DataFormatException e) {
+        throw new IOException(e);
+      } finally {
+        pool.release(inflater);
+      }
+    }
+
+    static int skipZeroTerminated(byte[] bytes, int pos) throws IOException {
+      while (pos < bytes.length) {
+        if (bytes[pos++] == 0) return pos;
+      }
+      throw new IOException("Truncated gzip header");
+    }
+
+    static int readIntLe(byte[] bytes, int pos) {
+      return (bytes[pos] & 0xff) | (bytes[pos + 1] & 0xff) << 8 | (bytes[pos + 2] & 0xff) << 16
+        | (bytes[pos + 3] & 0xff) << 24;
+    }
+  }
+
+  static final class Zstd {
+    static final boolean AVAILABLE = isPresent("com.github.luben.zstd.ZstdDecompressCtx");
+
+    static byte[] decompress(byte[] compressed, int maxLength) throws IOException {
+      long size = com.github.luben.zstd.Zstd.getFrameContentSize(compressed);
+      if (size > maxLength) throw new TooLargeException(); // before allocating the result
+      if (size < 0) { // unknown size, so stream it.
+        return readAll(new ZstdInputStream(new ByteArrayInputStream(compressed)), compressed.length,
+          maxLength);
+      }
+      ZstdDecompressCtx ctx = ZstdContexts.acquire();
+      try {
+        return ctx.decompress(compressed, (int) size);
+      } finally {
+        ZstdContexts.release(ctx);
+      }
+    }
+  }
+
+  /**
+   * zstd decompression contexts hold native memory, which is costly to allocate per message. This
+   * keeps up to one per core, shared by all transports, including those that decompress streams.
+   *
+   * <p>Only use this when {@link #ZSTD} {@link #isAvailable() is available}.
+   */
+  public static final class ZstdContexts {
+    // Deferred until first use, so that ContentEncoding can load without zstd-jni.
+    static final Pool<ZstdDecompressCtx> POOL =
+      new Pool<>(ZstdDecompressCtx::new, ZstdDecompressCtx::reset, ZstdDecompressCtx::close);
+
+    /** Returns an idle context or a new one. */
+    public static ZstdDecompressCtx acquire() {
+      return POOL.acquire();
+    }
+
+    /** Resets the context and returns it to the pool, or closes it if the pool is full. */
+    public static void release(ZstdDecompressCtx ctx) {
+      POOL.release(ctx);
+    }
+
+    ZstdContexts() {
+    }
+  }
+
+  static final class Snappy {
+    static final boolean AVAILABLE = isPresent("org.xerial.snappy.SnappyFramedInputStream");
+
+    // SnappyFramedInputStream pools its buffers by default
+    static byte[] decompress(byte[] compressed, int maxLength) throws IOException {
+      return readAll(new SnappyFramedInputStream(new ByteArrayInputStream(compressed)),
+        compressed.length, maxLength);
+    }
+  }
+
+  static final class Brotli {
+    static final boolean AVAILABLE = isPresent("com.aayushatharva.brotli4j.Brotli4jLoader")
+      && isLoaded();
+
+    static boolean isLoaded() {
+      try {
+        return Brotli4jLoader.isAvailable();
+      } catch (LinkageError e) {
+        return false;
+      }
+    }
+
+    static byte[] decompress(byte[] compressed, int maxLength) throws IOException {
+      return readAll(new BrotliInputStream(new ByteArrayInputStream(compressed)),
+        compressed.length, maxLength);
+    }
+  }
+
+  /** Reads and closes the stream, failing once more than {@code maxLength} bytes are read. */
+  static byte[] readAll(InputStream in, int compressedLength, int maxLength) throws IOException {
+    try (in) {
+      Output output = new Output(compressedLength, maxLength);
+      while (true) {
+        int writable = output.writable(); // before reading buf, as this can grow it
+        int count = in.read(output.buf, output.length, writable);
+        if (count == -1) break;
+        output.advance(count);
+      }
+      return output.toByteArray();
+    }
+  }
+
+  /** Raised when decompressed output would exceed its maximum length. */
+  static final class TooLargeException extends IOException {
+    @Override public synchronized Throwable fillInStackTrace() {
+      return this; // no stack trace, as this is an expected condition
+    }
+  }
+
+  /**
+   * Like {@link java.io.ByteArrayOutputStream}, except allowing direct writes to its buffer, and
+   * failing once the length exceeds a maximum. The buffer grows to at most one byte more than the
+   * maximum, which is enough to notice it was exceeded.
+   */
+  static final class Output {
+    final int maxLength;
+    byte[] buf;
+    int length;
+
+    Output(int compressedLength, int maxLength) {
+      this.maxLength = maxLength;
+      long initialCapacity = Math.min(compressedLength * 4L, 1 << 20);
+      buf = new byte[(int) Math.min(Math.max(64, initialCapacity), capacityLimit())];
+    }
+
+    /** Returns how many bytes can be written at {@link #length}, growing the buffer if full. */
+    int writable() {
+      if (length == buf.length) {
+        buf = Arrays.copyOf(buf, (int) Math.min(buf.length * 2L, capacityLimit()));
+      }
+      return buf.length - length;
+    }
+
+    void advance(int count) throws TooLargeException {
+      length += count;
+      if (length > maxLength) throw new TooLargeException();
+    }
+
+    long capacityLimit() {
+      return Math.min(maxLength + 1L, Integer.MAX_VALUE - 8);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, length);
+    }
+  }
+}
@@ -15,6 +15,7 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
   private final String bytes;
   private final String spans;
   private final String spansDropped;
+  private final String transport;
 
   public InMemoryCollectorMetrics() {
     this(new ConcurrentHashMap<>(), null);
@@ -27,6 +28,7 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     this.bytes = scope("bytes", transport);
     this.spans = scope("spans", transport);
     this.spansDropped = scope("spansDropped", transport);
+    this.transport = transport;
   }
 
   @Override
@@ -80,6 +82,40 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     return get(spansDropped);
   }
 
+  @Override
+  public void incrementCompressedBytes(String contentEncoding, int compressed, int decompressed) {
+    increment(scope("compressedBytes." + contentEncoding, transport), compressed);
+    increment(scope("decompressedBytes." + contentEncoding, transport), decompressed);
+  }
+
+  public int compressedBytes(String contentEncoding) {
+    return get(scope("compressedBytes." + contentEncoding, transport));
+  }
+
+  public int decompressedBytes(String contentEncoding) {
+    return get(scope("decompressedBytes." + contentEncoding, transport));
+  }
+
+  /** Counts batches decoded, as opposed to recording their duration. */
+  @Override
+  public void recordBatchDecode(long nanos) {
+    increment(scope("batchesDecoded", transport), 1);
+  }
+
+  public int batchesDecoded() {
+    return get(scope("batchesDecoded", transport));
+  }
+
+  /** Counts batches stored, as opposed to recording their duration. */
+  @Override
+  public void recordBatchStore(long nanos) {
+    increment(scope("batchesStored", transport), 1);
+  }
+
+  public int batchesStored() {
+    return get(scope("batchesStored", transport));
+  }
+
   public void clear() {
     metrics.clear();
   }
@@ -0,0 +1,204 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+import zipkin2.Span;
+import zipkin2.internal.HexCodec;
+import zipkin2.internal.Nullable;
+
+/**
+ * Samples spans at a rate chosen by their local service name and span name, for example to drop
+ * health checks or to reduce chatty internal services, falling back to another sampler for spans
+ * that match no rule. The first matching rule wins.
+ *
+ * <h3>Consistency</h3>
+ *
+ * <p>Spans of one trace can match different rules, so this remembers the decision made for the
+ * first span of a trace, keyed on its trace ID, and applies it to the rest of the trace. Decisions
+ * are kept in a fixed-size table of {@link Builder#maxTraces(int) max traces}, where each trace ID
+ * maps to one slot. Concurrent first spans of a trace agree, as only one of them records its
+ * decision.
+ *
+ * <p>This is best effort, not a guarantee: a trace's decision is lost when another trace takes its
+ * slot, and its later spans are then decided again by their own rule. This is more likely with
+ * more traces in flight than slots, or traces whose spans arrive over a long time. Even then,
+ * decisions are by trace ID against a boundary like {@link CollectorSampler#create}, so a trace
+ * sampled at a rate is also sampled at any higher rate: only spans matching a lower rate than the
+ * first are dropped from a sampled trace.
+ *
+ * <p>{@link Span#debug() Debug} spans are always stored.
+ */
+public final class RuleBasedCollectorSampler extends CollectorSampler {
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    final List<Rule> rules = new ArrayList<>();
+    CollectorSampler fallback = CollectorSampler.ALWAYS_SAMPLE;
+    int maxTraces = 65536;
+
+    /**
+     * Adds a rule that samples spans matching the service and span name at the given rate. Names
+     * match case-insensitively and can include {@code *} wildcards. A {@code null} span name
+     * matches any span name.
+     */
+    public Builder addRule(String serviceName, String spanName, float rate) {
+      if (serviceName == null) throw new NullPointerException("serviceName == null");
+      rules.add(new Rule(serviceName, spanName != null ? spanName : "*", rate));
+      return this;
+    }
+
+    /**
+     * Adds rules from a comma-separated list of {@code service[:spanName]=rate}, for example
+     * {@code "*:get /health=0.0,chatty=0.01"}.
+     */
+    public Builder addRules(String rules) {
+      if (rules == null) throw new NullPointerException("rules == null");
+      for (String rule : rules.split(",", -1)) {
+        rule = rule.trim();
+        if (rule.isEmpty()) continue;
+        int equals = rule.lastIndexOf('=');
+        if (equals == -1) {
+          throw new IllegalArgumentException("Expected service[:spanName]=rate, but was " + rule);
+        }
+        String names = rule.substring(0, equals).trim();
+        float rate;
+        try {
+          rate = Float.parseFloat(rule.substring(equals + 1).trim());
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid rate in sampling rule " + rule);
+        }
+        int colon = names.indexOf(':');
+        if (colon == -1) {
+          addRule(names, null, rate);
+        } else {
+          addRule(names.substring(0, colon).trim(), names.substring(colon + 1).trim(), rate);
+        }
+      }
+      return this;
+    }
+
+    /** Decides spans that match no rule. Defaults to {@link CollectorSampler#ALWAYS_SAMPLE}. */
+    public Builder fallback(CollectorSampler fallback) {
+      if (fallback == null) throw new NullPointerException("fallback == null");
+      this.fallback = fallback;
+      return this;
+    }
+
+    /**
+     * Count of trace decisions to remember, for example {@code COLLECTOR_SAMPLE_RULES_MAX_TRACES}.
+     * Defaults to 65536.
+     */
+    public Builder maxTraces(int maxTraces) {
+      if (maxTraces <= 0) throw new IllegalArgumentException("maxTraces <= 0");
+      this.maxTraces = maxTraces;
+      return this;
+    }
+
+    public RuleBasedCollectorSampler build() {
+      return new RuleBasedCollectorSampler(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  static final class Rule {
+    final Pattern serviceName, spanName;
+    final CollectorSampler sampler;
+    final String toString;
+
+    Rule(String serviceName, String spanName, float rate) {
+      this.serviceName = glob(serviceName);
+      this.spanName = glob(spanName);
+      this.sampler = CollectorSampler.create(rate);
+      this.toString = serviceName + ":" + spanName + "=" + rate;
+    }
+
+    boolean matches(Span span) {
+      return matches(serviceName, span.localServiceName()) && matches(spanName, span.name());
+    }
+
+    static boolean matches(Pattern pattern, String name) {
+      return pattern.matcher(name != null ? name : "").matches();
+    }
+
+    static Pattern glob(String glob) {
+      StringBuilder regex = new StringBuilder();
+      String[] parts = glob.toLowerCase(Locale.ROOT).split("\\*", -1);
+      for (int i = 0; i < parts.length; i++) {
+        if (i > 0) regex.append(".*");
+        if (!parts[i].isEmpty()) regex.append(Pattern.quote(parts[i]));
+      }
+      return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    @Override public String toString() {
+      return toString;
+    }
+  }
+
+  /** The decision made for a trace. */
+  static final class Decision {
+    final long traceId;
+    final boolean sampled;
+
+    Decision(long traceId, boolean sampled) {
+      this.traceId = traceId;
+      this.sampled = sampled;
+    }
+  }
+
+  final List<Rule> rules;
+  final CollectorSampler fallback;
+  /** Direct-mapped by trace ID: a new trace replaces whatever shared its slot. */
+  final AtomicReferenceArray<Decision> decisions;
+
+  RuleBasedCollectorSampler(Builder builder) {
+    rules = List.copyOf(builder.rules);
+    fallback = builder.fallback;
+    decisions = new AtomicReferenceArray<>(builder.maxTraces);
+  }
+
+  /** Only used by {@link #isSampled(String, boolean)}, which doesn't see names. */
+  @Override protected long boundary() {
+    return fallback.boundary();
+  }
+
+  @Override public boolean isSampled(Span span) {
+    if (Boolean.TRUE.equals(span.debug())) return true;
+
+    Rule rule = match(span);
+    // Consult the fallback even when the trace was decided, as it may observe the rate of spans.
+    boolean sampled = rule != null ? rule.sampler.isSampled(span) : fallback.isSampled(span);
+
+    long traceId = HexCodec.lowerHexToUnsignedLong(span.traceId());
+    int slot = (int) ((traceId ^ (traceId >>> 32)) & 0x7fffffff) % decisions.length();
+    Decision decided = new Decision(traceId, sampled);
+    while (true) {
+      Decision decision = decisions.get(slot);
+      if (decision != null && decision.traceId == traceId) return decision.sampled;
+      // Fails when another span decided first, possibly of the same trace, so check again.
+      if (decisions.compareAndSet(slot, decision, decided)) return sampled;
+    }
+  }
+
+  @Nullable Rule match(Span span) {
+    for (Rule rule : rules) {
+      if (rule.matches(span)) return rule;
+    }
+    return null;
+  }
+
+  @Override public String toString() {
+    return "RuleBasedCollectorSampler{rules=" + rules + ", fallback=" + fallback + "}";
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Percentage.withPercentage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+
+class AdaptiveCollectorSamplerTest {
+  long nanoTime;
+  AdaptiveCollectorSampler.Builder builder = AdaptiveCollectorSampler.newBuilder()
+    .spansPerSecond(1000)
+    .windowSeconds(2)
+    .nanoTime(() -> nanoTime);
+
+  @Test void samplesAllUntilObserved() {
+    AdaptiveCollectorSampler sampler = builder.build();
+
+    assertThat(lotsOfSpans().filter(sampler::isSampled)).hasSize(LOTS_OF_SPANS.length);
+  }
+
+  @Test void targetsSpansPerSecond() {
+    AdaptiveCollectorSampler sampler = builder.build();
+    lotsOfSpans().limit(10_000).forEach(sampler::isSampled); // 10x the budget
+    nextSecond(sampler);
+
+    assertThat(sampler.rate()).isCloseTo(0.1f, withPercentage(1));
+    assertThat(lotsOfSpans().limit(10_000).filter(sampler::isSampled).count())
+      .isCloseTo(1000L, withPercentage(15)); // trace IDs are random
+  }
+
+  @Test void keepsWholeTraces() {
+    AdaptiveCollectorSampler sampler = builder.build();
+    lotsOfSpans().limit(10_000).forEach(sampler::isSampled);
+    nextSecond(sampler);
+
+    CollectorSampler fixed = new CollectorSampler() {
+      @Override protected long boundary() {
+        return sampler.boundary();
+      }
+    };
+    assertThat(lotsOfSpans().filter(sampler::isSampled).toArray())
+      .containsExactly(lotsOfSpans().filter(fixed::isSampled).toArray());
+  }
+
+  @Test void averagesOverWindow() {
+    AdaptiveCollectorSampler sampler = builder.build();
+    lotsOfSpans().limit(4000).forEach(sampler::isSampled);
+    nextSecond(sampler);
+    assertThat(sampler.rate()).isCloseTo(0.25f, withPercentage(1));
+
+    nextSecond(sampler); // idle second
+    assertThat(sampler.rate()).isCloseTo(0.5f, withPercentage(1));
+  }
+
+  @Test void recoversAfterSpike() {
+    AdaptiveCollectorSampler sampler = builder.build();
+    lotsOfSpans().limit(10_000).forEach(sampler::isSampled);
+    nextSecond(sampler);
+    assertThat(sampler.rate()).isLessThan(1.0f);
+
+    nanoTime += TimeUnit.SECONDS.toNanos(1);
+    nextSecond(sampler); // the spike left the window
+    assertThat(sampler.rate()).isEqualTo(1.0f);
+  }
+
+  @Test void maxRate() {
+    AdaptiveCollectorSampler sampler = builder.maxRate(0.1f).build();
+    lotsOfSpans().limit(100).forEach(sampler::isSampled); // under budget
+    nextSecond(sampler);
+
+    assertThat(sampler.rate()).isCloseTo(0.1f, withPercentage(1));
+  }
+
+  @Test void debugWins() {
+    AdaptiveCollectorSampler sampler = builder.build();
+    lotsOfSpans().limit(10_000).forEach(sampler::isSampled);
+    nextSecond(sampler);
+
+    Stream<Span> debugSpans = lotsOfSpans().map(s -> s.toBuilder().debug(true).build());
+    assertThat(debugSpans.filter(sampler::isSampled)).hasSize(LOTS_OF_SPANS.length);
+  }
+
+  @Test void minSpansPerSecondPerService_protectsQuietServices() {
+    AdaptiveCollectorSampler sampler = builder.minSpansPerSecondPerService(20).build();
+    lotsOfSpans().limit(10_000).forEach(sampler::isSampled); // a busy service
+    Span[] quiet = lotsOfSpans().limit(10).map(s -> s.toBuilder()
+      .localEndpoint(Endpoint.newBuilder().serviceName("quiet").build())
+      .build()).toArray(Span[]::new);
+    for (Span span : quiet) sampler.isSampled(span);
+    nextSecond(sampler);
+
+    assertThat(Stream.of(quiet).filter(sampler::isSampled)).hasSize(quiet.length);
+    assertThat(lotsOfSpans().limit(10_000).filter(sampler::isSampled).count())
+      .isCloseTo(1000L, withPercentage(15)); // trace IDs are random
+  }
+
+  @Test void spansPerSecondRequired() {
+    assertThrows(IllegalStateException.class, () -> AdaptiveCollectorSampler.newBuilder().build());
+  }
+
+  @Test void maxRateCantBeNegative() {
+    assertThrows(IllegalArgumentException.class, () -> builder.maxRate(-1.0f));
+  }
+
+  /** Advances the clock, and the window, as the next span would. */
+  void nextSecond(AdaptiveCollectorSampler sampler) {
+    nanoTime += TimeUnit.SECONDS.toNanos(1);
+    sampler.advance(sampler.currentSecond());
+  }
+
+  static Stream<Span> lotsOfSpans() {
+    return Stream.of(LOTS_OF_SPANS).parallel();
+  }
+}
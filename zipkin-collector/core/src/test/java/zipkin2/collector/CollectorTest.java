@@ -4,8 +4,12 @@
  */
 package zipkin2.collector;
 
+import com.github.luben.zstd.Zstd;
 import com.github.valfirst.slf4jtest.TestLoggerFactoryExtension;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.DeflaterOutputStream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -142,6 +146,107 @@ class CollectorTest {
     assertThat(storage.getTraces()).isEmpty();
   }
 
+  @Test void acceptSpans_detectsCompression() {
+    byte[] json = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    byte[] zstd = Zstd.compress(json);
+    collector.acceptSpans(zstd, callback);
+
+    verify(collector).acceptSpans(json, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementCompressedBytes("zstd", zstd.length, json.length);
+    verify(metrics).incrementSpans(4);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test void acceptSpans_contentEncoding() throws IOException {
+    byte[] json = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(deflate)) {
+      out.write(json);
+    }
+    collector.acceptSpans(deflate.toByteArray(), "deflate", callback);
+
+    verify(collector).acceptSpans(json, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementCompressedBytes("deflate", deflate.size(), json.length);
+    verify(metrics).incrementSpans(4);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test void acceptSpans_unsupportedContentEncoding() {
+    byte[] json = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    collector.acceptSpans(json, "lz4", callback);
+
+    verify(callback).onError(any(IllegalArgumentException.class));
+    assertDebugLogIs(
+      "Cannot decode spans due to IllegalArgumentException(Unsupported Content-Encoding: lz4)");
+    verify(metrics).incrementMessagesDropped();
+  }
+
+  @Test void acceptSpans_tooLargeWhenDecompressed() {
+    collector = spy(new Collector.Builder(testLogger).metrics(metrics).storage(storage)
+      .maxDecompressedSize(100).build());
+
+    collector.acceptSpans(Zstd.compress(SpanBytesEncoder.JSON_V2.encodeList(TRACE)), callback);
+
+    verify(callback).onError(any(IllegalArgumentException.class));
+    assertDebugLogIs("Cannot decode spans due to IllegalArgumentException("
+      + "zstd message is larger than 100 bytes when decompressed)");
+    verify(metrics).incrementMessagesDropped();
+    assertThat(storage.getTraces()).isEmpty();
+  }
+
+  @Test void decompressOrDrop() {
+    byte[] json = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    byte[] zstd = Zstd.compress(json);
+
+    assertThat(collector.decompressOrDrop(zstd, null)).isEqualTo(json);
+    assertThat(collector.decompressOrDrop(json, null)).isSameAs(json);
+
+    verify(metrics).incrementCompressedBytes("zstd", zstd.length, json.length);
+  }
+
+  @Test void decompressOrDrop_malformed() {
+    assertThat(collector.decompressOrDrop(new byte[] {'f', 'o', 'o'}, "gzip")).isNull();
+
+    assertDebugLogIs("Malformed reading gzip message");
+    verify(metrics).incrementMessagesDropped();
+  }
+
+  @Test void decodeSpans() {
+    assertThat(collector.decodeSpans(SpanBytesEncoder.PROTO3.encodeList(TRACE)))
+      .isEqualTo(TRACE);
+  }
+
+  @Test void decodeSpans_malformed() {
+    assertThat(collector.decodeSpans(new byte[] {'f', 'o', 'o'})).isEmpty();
+
+    verify(metrics).incrementMessagesDropped();
+  }
+
+  @Test void acceptAndStore_callsBackAfterStorage() {
+    collector.acceptAndStore(TRACE, callback, Runnable::run);
+
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementSpans(4);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test void acceptAndStore_rejectedExecution() {
+    RuntimeException error = new RejectedExecutionException("slow down");
+    collector.acceptAndStore(TRACE, callback, r -> {
+      throw error;
+    });
+
+    verify(callback).onError(error);
+    assertDebugLogIs(
+      "Cannot store spans [1, 1, 2, ...] due to RejectedExecutionException(slow down)");
+    verify(metrics).incrementSpans(4);
+    verify(metrics).incrementSpansDropped(4);
+  }
+
   @Test void storeSpansCallback_toStringIncludesSpanIds() {
     Span span2 = CLIENT_SPAN.toBuilder().id("3").build();
     when(collector.idString(span2)).thenReturn("3");
@@ -0,0 +1,198 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.xerial.snappy.SnappyFramedOutputStream;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.TRACE;
+
+class ContentEncodingTest {
+  byte[] json = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+  int maxLength = 1 << 20;
+
+  @Test void forValue() {
+    assertThat(ContentEncoding.forValue(null)).isNull();
+    assertThat(ContentEncoding.forValue("identity")).isNull();
+    assertThat(ContentEncoding.forValue(" ZSTD ")).isEqualTo(ContentEncoding.ZSTD);
+    assertThat(ContentEncoding.forValue("x-gzip")).isEqualTo(ContentEncoding.GZIP);
+    assertThat(ContentEncoding.forValue("br")).isEqualTo(ContentEncoding.BROTLI);
+  }
+
+  @Test void forValue_unsupported() {
+    assertThatThrownBy(() -> ContentEncoding.forValue("lz4"))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Unsupported Content-Encoding: lz4");
+  }
+
+  @Test void detect_uncompressed() {
+    for (SpanBytesEncoder encoder : SpanBytesEncoder.values()) {
+      assertThat(ContentEncoding.detect(encoder.encodeList(TRACE))).isNull();
+    }
+  }
+
+  @Test void gzip() throws IOException {
+    byte[] gzip = compress(GZIPOutputStream::new);
+
+    assertThat(ContentEncoding.detect(gzip)).isEqualTo(ContentEncoding.GZIP);
+    assertThat(ContentEncoding.GZIP.decompress(gzip, maxLength)).isEqualTo(json);
+    // again, to make sure the pooled inflater was reset
+    assertThat(ContentEncoding.GZIP.decompress(gzip, maxLength)).isEqualTo(json);
+  }
+
+  /** Like GZIPInputStream, multiple members are read as one message. */
+  @Test void gzip_concatenated() throws IOException {
+    byte[] gzip = compress(GZIPOutputStream::new);
+    byte[] twoMembers = Arrays.copyOf(gzip, gzip.length * 2);
+    System.arraycopy(gzip, 0, twoMembers, gzip.length, gzip.length);
+
+    byte[] expected = Arrays.copyOf(json, json.length * 2);
+    System.arraycopy(json, 0, expected, json.length, json.length);
+    assertThat(ContentEncoding.GZIP.decompress(twoMembers, maxLength)).isEqualTo(expected);
+  }
+
+  @Test void gzip_trailingGarbage() throws IOException {
+    byte[] gzip = compress(GZIPOutputStream::new);
+
+    assertThatThrownBy(
+      () -> ContentEncoding.GZIP.decompress(Arrays.copyOf(gzip, gzip.length + 1), maxLength))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Malformed reading gzip message");
+  }
+
+  @Test void gzip_maxLength() throws IOException {
+    byte[] gzip = compress(GZIPOutputStream::new);
+
+    assertThat(ContentEncoding.GZIP.decompress(gzip, json.length)).isEqualTo(json);
+    assertThatThrownBy(() -> ContentEncoding.GZIP.decompress(gzip, json.length - 1))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("gzip message is larger than " + (json.length - 1)
+        + " bytes when decompressed");
+  }
+
+  /** A small message can expand to many times its size. This must stop before exhausting heap. */
+  @Test void gzip_bomb() throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (OutputStream out = new GZIPOutputStream(result)) {
+      out.write(new byte[10 << 20]);
+    }
+    byte[] gzip = result.toByteArray();
+
+    assertThat(gzip.length).isLessThan(maxLength / 10);
+    assertThatThrownBy(() -> ContentEncoding.GZIP.decompress(gzip, maxLength))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("gzip message is larger than " + maxLength + " bytes when decompressed");
+  }
+
+  @Test void gzip_corrupt() throws IOException {
+    byte[] gzip = compress(GZIPOutputStream::new);
+    gzip[gzip.length - 5]++; // corrupt the CRC
+
+    assertThatThrownBy(() -> ContentEncoding.GZIP.decompress(gzip, maxLength))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Malformed reading gzip message");
+  }
+
+  @Test void deflate() throws IOException {
+    byte[] deflate = compress(DeflaterOutputStream::new);
+
+    assertThat(ContentEncoding.detect(deflate)).isNull(); // needs a header
+    assertThat(ContentEncoding.DEFLATE.decompress(deflate, maxLength)).isEqualTo(json);
+  }
+
+  @Test void deflate_maxLength() throws IOException {
+    byte[] deflate = compress(DeflaterOutputStream::new);
+
+    assertThatThrownBy(() -> ContentEncoding.DEFLATE.decompress(deflate, json.length - 1))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("deflate message is larger than " + (json.length - 1)
+        + " bytes when decompressed");
+  }
+
+  @Test void deflate_truncated() throws IOException {
+    byte[] deflate = compress(DeflaterOutputStream::new);
+
+    byte[] truncated = Arrays.copyOf(deflate, deflate.length / 2);
+
+    assertThatThrownBy(() -> ContentEncoding.DEFLATE.decompress(truncated, maxLength))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Malformed reading deflate message");
+  }
+
+  @Test void zstd() {
+    byte[] zstd = Zstd.compress(json);
+
+    assertThat(ContentEncoding.detect(zstd)).isEqualTo(ContentEncoding.ZSTD);
+    assertThat(ContentEncoding.ZSTD.decompress(zstd, maxLength)).isEqualTo(json);
+  }
+
+  /** The content size in the frame header is checked before allocating the result. */
+  @Test void zstd_maxLength() {
+    byte[] zstd = Zstd.compress(json);
+
+    assertThat(ContentEncoding.ZSTD.decompress(zstd, json.length)).isEqualTo(json);
+    assertThatThrownBy(() -> ContentEncoding.ZSTD.decompress(zstd, json.length - 1))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("zstd message is larger than " + (json.length - 1)
+        + " bytes when decompressed");
+  }
+
+  @Test void zstd_unknownSize_maxLength() throws IOException {
+    byte[] zstd = compress(ZstdOutputStream::new);
+
+    assertThatThrownBy(() -> ContentEncoding.ZSTD.decompress(zstd, json.length - 1))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("zstd message is larger than " + (json.length - 1)
+        + " bytes when decompressed");
+  }
+
+  /** Streaming encoders don't write the content size in the frame header. */
+  @Test void zstd_unknownSize() throws IOException {
+    byte[] zstd = compress(ZstdOutputStream::new);
+
+    assertThat(ContentEncoding.detect(zstd)).isEqualTo(ContentEncoding.ZSTD);
+    assertThat(ContentEncoding.ZSTD.decompress(zstd, maxLength)).isEqualTo(json);
+  }
+
+  @Test void snappy() throws IOException {
+    byte[] snappy = compress(SnappyFramedOutputStream::new);
+
+    assertThat(ContentEncoding.detect(snappy)).isEqualTo(ContentEncoding.SNAPPY);
+    assertThat(ContentEncoding.SNAPPY.decompress(snappy, maxLength)).isEqualTo(json);
+  }
+
+  @Test void snappy_maxLength() throws IOException {
+    byte[] snappy = compress(SnappyFramedOutputStream::new);
+
+    assertThat(ContentEncoding.SNAPPY.decompress(snappy, json.length)).isEqualTo(json);
+    assertThatThrownBy(() -> ContentEncoding.SNAPPY.decompress(snappy, json.length - 1))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("snappy message is larger than " + (json.length - 1)
+        + " bytes when decompressed");
+  }
+
+  interface Compressor {
+    OutputStream wrap(OutputStream out) throws IOException;
+  }
+
+  byte[] compress(Compressor compressor) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (OutputStream out = compressor.wrap(result)) {
+      out.write(json);
+    }
+    return result.toByteArray();
+  }
+}
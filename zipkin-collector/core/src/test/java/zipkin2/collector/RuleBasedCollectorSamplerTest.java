@@ -0,0 +1,147 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Percentage.withPercentage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+
+class RuleBasedCollectorSamplerTest {
+  Span health = span("frontend", "get /health", "0000000000000001");
+  Span chatty = span("chatty", "poll", "0000000000000002");
+  Span other = span("backend", "get /api", "0000000000000003");
+
+  @Test void firstMatchingRuleWins() {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("*", "get /health", 0.0f)
+      .addRule("frontend", null, 1.0f)
+      .build();
+
+    assertThat(sampler.isSampled(health)).isFalse();
+    assertThat(sampler.isSampled(span("frontend", "get /api", "0000000000000004"))).isTrue();
+  }
+
+  @Test void unmatchedSpansUseFallback() {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("chatty", null, 1.0f)
+      .fallback(CollectorSampler.create(0.0f))
+      .build();
+
+    assertThat(sampler.isSampled(chatty)).isTrue();
+    assertThat(sampler.isSampled(other)).isFalse();
+  }
+
+  @Test void samplesAtRuleRate() {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("chatty", null, 0.1f)
+      .build();
+
+    assertThat(Stream.of(LOTS_OF_SPANS)
+      .map(s -> s.toBuilder().localEndpoint(chatty.localEndpoint()).build())
+      .filter(sampler::isSampled).count())
+      .isCloseTo((long) (LOTS_OF_SPANS.length * 0.1f), withPercentage(3));
+  }
+
+  @Test void decisionIsConsistentPerTrace() {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("chatty", null, 0.0f)
+      .build();
+
+    // The first span of the trace is dropped by rule, so the rest of the trace is, too.
+    assertThat(sampler.isSampled(chatty)).isFalse();
+    assertThat(sampler.isSampled(other.toBuilder().traceId(chatty.traceId()).build())).isFalse();
+  }
+
+  @Test void decisionIsForgottenWhenReplaced() {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("chatty", null, 0.0f)
+      .maxTraces(1)
+      .build();
+
+    assertThat(sampler.isSampled(chatty)).isFalse();
+    assertThat(sampler.isSampled(other)).isTrue(); // replaces the decision of chatty's trace
+    assertThat(sampler.isSampled(other.toBuilder().traceId(chatty.traceId()).build())).isTrue();
+  }
+
+  @Test void concurrentFirstSpansOfTraceAgree() throws Exception {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("chatty", null, 0.0f)
+      .addRule("backend", null, 1.0f)
+      .build();
+
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    for (int i = 1; i <= 1000; i++) {
+      String traceId = Long.toHexString(i);
+      CompletableFuture<Boolean> chattyDecision = CompletableFuture.supplyAsync(() -> {
+        await(barrier);
+        return sampler.isSampled(chatty.toBuilder().traceId(traceId).build());
+      });
+      await(barrier);
+      boolean otherDecision = sampler.isSampled(other.toBuilder().traceId(traceId).build());
+
+      assertThat(chattyDecision.get()).isEqualTo(otherDecision);
+    }
+  }
+
+  @Test void debugWins() {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("*", null, 0.0f)
+      .build();
+
+    assertThat(sampler.isSampled(other.toBuilder().debug(true).build())).isTrue();
+  }
+
+  @Test void namesMatchWithWildcards() {
+    CollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRule("front*", "*/HEALTH", 0.0f)
+      .build();
+
+    assertThat(sampler.isSampled(health)).isFalse();
+    assertThat(sampler.isSampled(other)).isTrue();
+  }
+
+  @Test void addRules() {
+    RuleBasedCollectorSampler sampler = RuleBasedCollectorSampler.newBuilder()
+      .addRules(" *:get /health=0.0, chatty=0.5 ,")
+      .build();
+
+    assertThat(sampler.rules).extracting(Object::toString)
+      .containsExactly("*:get /health=0.0", "chatty:*=0.5");
+  }
+
+  @Test void addRules_invalid() {
+    assertThrows(IllegalArgumentException.class,
+      () -> RuleBasedCollectorSampler.newBuilder().addRules("chatty"));
+    assertThrows(IllegalArgumentException.class,
+      () -> RuleBasedCollectorSampler.newBuilder().addRules("chatty=all"));
+    assertThrows(IllegalArgumentException.class,
+      () -> RuleBasedCollectorSampler.newBuilder().addRules("chatty=1.5"));
+  }
+
+  static Span span(String serviceName, String spanName, String traceId) {
+    return Span.newBuilder()
+      .traceId(traceId)
+      .id("1")
+      .name(spanName)
+      .localEndpoint(Endpoint.newBuilder().serviceName(serviceName).build())
+      .build();
+  }
+
+  static void await(CyclicBarrier barrier) {
+    try {
+      barrier.await();
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+}
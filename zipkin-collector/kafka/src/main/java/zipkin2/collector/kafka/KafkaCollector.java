@@ -7,9 +7,11 @@ package zipkin2.collector.kafka;
 import java.time.Duration;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.clients.admin.AdminClient;
@@ -54,8 +56,13 @@ public final class KafkaCollector extends CollectorComponent {
     final Properties properties = new Properties();
     final Collector.Builder delegate = Collector.newBuilder(KafkaCollector.class);
     CollectorMetrics metrics = CollectorMetrics.NOOP_METRICS;
+    KafkaCollectorMetrics kafkaMetrics = KafkaCollectorMetrics.NOOP_METRICS;
     String topic = "zipkin";
     int streams = 1;
+    int maxBatchSize = 500;
+    int decodeThreads;
+    boolean commitAfterStorage;
+    int maxPendingSpans = 10_000;
 
     @Override
     public Builder storage(StorageComponent storage) {
@@ -77,6 +84,13 @@ public final class KafkaCollector extends CollectorComponent {
       return this;
     }
 
+    /** Records consumer lag and throughput, in addition to {@link #metrics(CollectorMetrics)}. */
+    public Builder kafkaMetrics(KafkaCollectorMetrics kafkaMetrics) {
+      if (kafkaMetrics == null) throw new NullPointerException("kafkaMetrics == null");
+      this.kafkaMetrics = kafkaMetrics;
+      return this;
+    }
+
     /**
      * Topic zipkin spans will be consumed from. Defaults to "zipkin". Multiple topics may be
      * specified if comma delimited.
@@ -107,6 +121,51 @@ public final class KafkaCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * Count of threads that decode and store polled records, shared by all {@link #streams(int)
+     * streams}. This allows using more cores than there are partitions to consume. When all are
+     * busy, the polling thread decodes, which slows polling to what can be decoded. Zero decodes on
+     * the polling thread. Defaults to 0.
+     */
+    public Builder decodeThreads(int decodeThreads) {
+      if (decodeThreads < 0) throw new IllegalArgumentException("decodeThreads < 0");
+      this.decodeThreads = decodeThreads;
+      return this;
+    }
+
+    /**
+     * Maximum count of spans in one storage request. Spans from all records returned by a poll are
+     * combined into as few requests as this allows. Defaults to 500.
+     */
+    public Builder maxBatchSize(int maxBatchSize) {
+      if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize <= 0");
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * Maximum count of spans waiting for storage before consumption is paused. Partitions resume
+     * when half of these are stored, so that Kafka buffers spans when storage is slow, as opposed
+     * to memory. Zero disables pausing. Defaults to 10000.
+     */
+    public Builder maxPendingSpans(int maxPendingSpans) {
+      if (maxPendingSpans < 0) throw new IllegalArgumentException("maxPendingSpans < 0");
+      this.maxPendingSpans = maxPendingSpans;
+      return this;
+    }
+
+    /**
+     * When true, offsets are committed only after the spans of all records up to them are stored,
+     * as opposed to periodically by the consumer ("enable.auto.commit"). When storage fails, the
+     * records are consumed again, with exponential backoff, up to 10 times before they are counted
+     * as dropped messages. This trades duplicate spans for not losing them when storage is
+     * unavailable. Defaults to false.
+     */
+    public Builder commitAfterStorage(boolean commitAfterStorage) {
+      this.commitAfterStorage = commitAfterStorage;
+      return this;
+    }
+
     /**
      * By default, a consumer will be built from properties derived from builder defaults, as well
      * as "auto.offset.reset" -> "earliest". Any properties set here will override the consumer
@@ -202,6 +261,7 @@ public final class KafkaCollector extends CollectorComponent {
     final AtomicReference<CheckResult> failure = new AtomicReference<>();
     final CopyOnWriteArrayList<KafkaCollectorWorker> workers = new CopyOnWriteArrayList<>();
     volatile ExecutorService pool;
+    ExecutorService decodePool; // guarded by this, null unless builder.decodeThreads > 0
 
     LazyKafkaWorkers(Builder builder) {
       this.streams = builder.streams;
@@ -224,11 +284,19 @@ public final class KafkaCollector extends CollectorComponent {
       for (KafkaCollectorWorker worker : workers) {
         worker.stop();
       }
-      maybePool.shutdown();
+      shutdown(maybePool);
+      synchronized (this) {
+        // after polling stopped, so that records already polled are decoded
+        if (decodePool != null) shutdown(decodePool);
+      }
+    }
+
+    static void shutdown(ExecutorService pool) {
+      pool.shutdown();
       try {
-        if (!maybePool.awaitTermination(2, TimeUnit.SECONDS)) {
+        if (!pool.awaitTermination(2, TimeUnit.SECONDS)) {
           // Timeout exceeded: force shutdown
-          maybePool.shutdownNow();
+          pool.shutdownNow();
         }
       } catch (InterruptedException e) {
         // at least we tried
@@ -238,11 +306,17 @@ public final class KafkaCollector extends CollectorComponent {
     ExecutorService compute() {
       ExecutorService pool =
         streams == 1 ? Executors.newSingleThreadExecutor() : Executors.newFixedThreadPool(streams);
+      int decodeThreads = builder.decodeThreads;
+      if (decodeThreads > 0) {
+        // A short queue keeps records in Kafka, as opposed to memory, when decoding falls behind.
+        decodePool = new ThreadPoolExecutor(decodeThreads, decodeThreads, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(decodeThreads), new ThreadPoolExecutor.CallerRunsPolicy());
+      }
 
       for (int i = 0; i < streams; i++) {
         // TODO: bad idea to lazy reference properties from a mutable builder
         // copy them here and then pass this to the KafkaCollectorWorker constructor instead
-        KafkaCollectorWorker worker = new KafkaCollectorWorker(builder);
+        KafkaCollectorWorker worker = new KafkaCollectorWorker(builder, decodePool);
         workers.add(worker);
         pool.execute(guardFailures(worker));
       }
@@ -0,0 +1,61 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.kafka;
+
+import org.apache.kafka.common.TopicPartition;
+import zipkin2.collector.CollectorMetrics;
+
+/**
+ * Consumer-level metrics of the Kafka collector, in addition to {@link CollectorMetrics}. These
+ * help tell whether the collector keeps up with the topic, and if not, whether Kafka or storage is
+ * the bottleneck.
+ *
+ * <p>Methods are called from polling threads, except {@link #recordPollToStored(long)}, which is
+ * called when storage completes. Implementations must be thread-safe.
+ */
+public interface KafkaCollectorMetrics {
+
+  /**
+   * Records a poll that returned records.
+   *
+   * @param records count of records returned
+   * @param bytes sum of the record value sizes, before decompression
+   * @param nanos time spent in the poll
+   */
+  void recordPoll(int records, long bytes, long nanos);
+
+  /**
+   * Records how many records of an assigned partition are yet to be consumed, as last known by the
+   * consumer. This is called after each poll.
+   */
+  void recordLag(TopicPartition partition, long lag);
+
+  /**
+   * Called when a partition is no longer assigned to this consumer, so that its lag is no longer
+   * reported from here.
+   */
+  void removeLag(TopicPartition partition);
+
+  /**
+   * Records the time from when a poll returned until storage completed for all spans in its
+   * records, regardless of success.
+   */
+  void recordPollToStored(long nanos);
+
+  KafkaCollectorMetrics NOOP_METRICS =
+    new KafkaCollectorMetrics() {
+      @Override public void recordPoll(int records, long bytes, long nanos) {}
+
+      @Override public void recordLag(TopicPartition partition, long lag) {}
+
+      @Override public void removeLag(TopicPartition partition) {}
+
+      @Override public void recordPollToStored(long nanos) {}
+
+      @Override public String toString() {
+        return "NoOpKafkaCollectorMetrics";
+      }
+    };
+}
@@ -4,19 +4,26 @@
  */
 package zipkin2.collector.kafka;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.OptionalLong;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import zipkin2.Callback;
@@ -24,33 +31,46 @@ import zipkin2.Span;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
+import zipkin2.internal.Nullable;
+
+import static org.apache.kafka.clients.consumer.ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG;
 
 /** Consumes spans from Kafka messages, ignoring malformed input */
 final class KafkaCollectorWorker implements Runnable {
   static final Logger LOG = LoggerFactory.getLogger(KafkaCollectorWorker.class);
-  static final Callback<Void> NOOP =
-      new Callback<Void>() {
-        @Override
-        public void onSuccess(Void value) {}
-
-        @Override
-        public void onError(Throwable t) {}
-      };
-
   final Properties properties;
   final List<String> topics;
   final Collector collector;
   final CollectorMetrics metrics;
+  final KafkaCollectorMetrics kafkaMetrics;
+  final int maxBatchSize;
+  @Nullable final Executor decodePool; // null when decoding on the polling thread
+  final OffsetTracker offsets; // null unless committing offsets after storage
+  final int maxPendingSpans;
+  final AtomicInteger pendingSpans = new AtomicInteger();
+  boolean paused; // only accessed by the polling thread
   // added for integration tests only, see ITKafkaCollector
   final AtomicReference<List<TopicPartition>> assignedPartitions =
       new AtomicReference<>(List.of());
   final AtomicBoolean running = new AtomicBoolean(true);
 
   KafkaCollectorWorker(KafkaCollector.Builder builder) {
-    properties = builder.properties;
+    this(builder, null);
+  }
+
+  /** @param decodePool when present, where to decode and store records instead of inline */
+  KafkaCollectorWorker(KafkaCollector.Builder builder, @Nullable Executor decodePool) {
+    properties = new Properties();
+    properties.putAll(builder.properties);
+    if (builder.commitAfterStorage) properties.put(ENABLE_AUTO_COMMIT_CONFIG, "false");
+    offsets = builder.commitAfterStorage ? new OffsetTracker(builder.metrics) : null;
     topics = Arrays.asList(builder.topic.split(","));
     collector = builder.delegate.build();
     metrics = builder.metrics;
+    kafkaMetrics = builder.kafkaMetrics;
+    maxBatchSize = builder.maxBatchSize;
+    this.decodePool = decodePool;
+    maxPendingSpans = builder.maxPendingSpans;
   }
 
   @Override
@@ -62,6 +82,8 @@ final class KafkaCollectorWorker implements Runnable {
         new ConsumerRebalanceListener() {
           @Override
           public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            if (offsets != null) offsets.commitSync(kafkaConsumer, partitions);
+            partitions.forEach(kafkaMetrics::removeLag);
             // technically we should remove only the revoked partitions but for test purposes it
             // does not matter
             assignedPartitions.set(List.of());
@@ -74,34 +96,39 @@ final class KafkaCollectorWorker implements Runnable {
         });
       LOG.debug("Kafka consumer starting polling loop.");
       while (running.get()) {
-        final ConsumerRecords<byte[], byte[]> consumerRecords = kafkaConsumer.poll(Duration.of(1000, ChronoUnit.MILLIS));
+        // While paused, poll more often to notice when storage catches up.
+        long pollStart = System.nanoTime();
+        final ConsumerRecords<byte[], byte[]> consumerRecords =
+          kafkaConsumer.poll(Duration.of(paused ? 100 : 1000, ChronoUnit.MILLIS));
+        long pollNanos = System.nanoTime() - pollStart;
         LOG.debug("Kafka polling returned batch of {} messages.", consumerRecords.count());
+        if (offsets != null) offsets.commitAsync(kafkaConsumer);
+        pauseOrResume(kafkaConsumer);
+        recordLag(kafkaConsumer);
+        if (consumerRecords.isEmpty()) continue;
+
+        long bytes = 0;
         for (ConsumerRecord<byte[], byte[]> record : consumerRecords) {
-          final byte[] bytes = record.value();
-          metrics.incrementMessages();
-          metrics.incrementBytes(bytes.length);
-
-          if (bytes.length == 0) continue; // lenient on empty messages
-
-          if (bytes.length < 2) { // need two bytes to check if protobuf
-            metrics.incrementMessagesDropped();
-          } else {
-            // If we received legacy single-span encoding, decode it into a singleton list
-            if (!protobuf3(bytes) && bytes[0] <= 16 && bytes[0] != 12 /* thrift, but not list */) {
-              Span span;
-              try {
-                span = SpanBytesDecoder.THRIFT.decodeOne(bytes);
-              } catch (RuntimeException e) {
-                metrics.incrementMessagesDropped();
-                continue;
-              }
-              collector.accept(List.of(span), NOOP);
-            } else {
-              collector.acceptSpans(bytes, NOOP);
-            }
+          bytes += record.value().length;
+        }
+        kafkaMetrics.recordPoll(consumerRecords.count(), bytes, pollNanos);
+
+        if (decodePool != null) {
+          // Partitions complete independently, so that one doesn't hold back commits of another.
+          for (TopicPartition partition : consumerRecords.partitions()) {
+            List<ConsumerRecord<byte[], byte[]>> records = consumerRecords.records(partition);
+            OffsetTracker.Poll poll =
+              offsets != null ? offsets.track(partition, records) : new OffsetTracker.Poll();
+            decodePool.execute(() -> decodeAndStore(records, poll));
           }
+        } else {
+          OffsetTracker.Poll poll =
+            offsets != null ? offsets.track(consumerRecords) : new OffsetTracker.Poll();
+          decodeAndStore(consumerRecords, poll);
         }
       }
+      if (offsets != null) offsets.commitSync(kafkaConsumer, List.copyOf(offsets.pending.keySet()));
+      kafkaConsumer.assignment().forEach(kafkaMetrics::removeLag);
     } catch (RuntimeException | Error e) {
       LOG.warn("Unexpected error in polling loop spans", e);
       throw e;
@@ -110,6 +137,102 @@ final class KafkaCollectorWorker implements Runnable {
     }
   }
 
+  void decodeAndStore(Iterable<ConsumerRecord<byte[], byte[]>> records, OffsetTracker.Poll poll) {
+    long decodeStart = System.nanoTime();
+    List<Span> spans = new ArrayList<>();
+    for (ConsumerRecord<byte[], byte[]> record : records) {
+      decode(record, spans);
+    }
+    metrics.recordBatchDecode(System.nanoTime() - decodeStart);
+    store(spans, poll);
+  }
+
+  /** Adds any spans in the record to the list, dropping it if malformed. */
+  void decode(ConsumerRecord<byte[], byte[]> record, List<Span> spans) {
+    byte[] bytes = record.value();
+    metrics.incrementMessages();
+    metrics.incrementBytes(bytes.length);
+
+    if (bytes.length == 0) return; // lenient on empty messages
+
+    // Decompress before sniffing the legacy format, as compressed data can look like thrift.
+    // When there's no header, compressed messages are detected by magic bytes.
+    bytes = collector.decompressOrDrop(bytes, contentEncoding(record));
+    if (bytes == null) return;
+
+    if (bytes.length < 2) { // need two bytes to check if protobuf
+      metrics.incrementMessagesDropped();
+    } else if (!protobuf3(bytes) && bytes[0] <= 16 && bytes[0] != 12 /* thrift, but not list */) {
+      // If we received legacy single-span encoding, decode it into a singleton list
+      try {
+        spans.add(SpanBytesDecoder.THRIFT.decodeOne(bytes));
+      } catch (RuntimeException e) {
+        metrics.incrementMessagesDropped();
+      }
+    } else {
+      spans.addAll(collector.decodeSpans(bytes));
+    }
+  }
+
+  /**
+   * Pauses all assigned partitions while more than {@code maxPendingSpans} are waiting for storage,
+   * and resumes them once half of those are stored. The consumer keeps polling, so it stays in the
+   * group, but records are left in Kafka instead of queueing in memory or being dropped by storage.
+   */
+  void pauseOrResume(Consumer<?, ?> consumer) {
+    if (maxPendingSpans <= 0) return;
+    int pending = pendingSpans.get();
+    if (!paused && pending > maxPendingSpans) {
+      LOG.debug("Pausing consumption as {} spans are waiting for storage", pending);
+      paused = true;
+    } else if (paused && pending <= maxPendingSpans / 2) {
+      LOG.debug("Resuming consumption as {} spans are waiting for storage", pending);
+      paused = false;
+      List<TopicPartition> resume = new ArrayList<>(consumer.paused());
+      if (offsets != null) resume.removeIf(offsets::isBackingOff); // paused before a retry
+      consumer.resume(resume);
+    }
+    // Pause on each poll, as partitions may have been assigned since the last.
+    if (paused) consumer.pause(consumer.assignment());
+  }
+
+  /** Records the lag of each assigned partition, when known from the last fetch. */
+  void recordLag(Consumer<?, ?> consumer) {
+    for (TopicPartition partition : consumer.assignment()) {
+      OptionalLong lag = consumer.currentLag(partition);
+      if (lag.isPresent()) kafkaMetrics.recordLag(partition, lag.getAsLong());
+    }
+  }
+
+  /**
+   * Stores spans from all records of a poll in as few requests as {@code maxBatchSize} allows, as
+   * opposed to a request per record.
+   *
+   * @param poll what to complete when storage does, which commits offsets if tracked
+   */
+  void store(List<Span> spans, OffsetTracker.Poll poll) {
+    int length = spans.size();
+    poll.expect((length + maxBatchSize - 1) / maxBatchSize);
+    for (int i = 0; i < length; i += maxBatchSize) {
+      List<Span> batch = spans.subList(i, Math.min(length, i + maxBatchSize));
+      long storeStart = System.nanoTime();
+      pendingSpans.addAndGet(batch.size());
+      collector.acceptAndStore(batch, new Callback<>() {
+        @Override public void onSuccess(Void value) {
+          pendingSpans.addAndGet(-batch.size());
+          metrics.recordBatchStore(System.nanoTime() - storeStart);
+          if (poll.onStored()) kafkaMetrics.recordPollToStored(System.nanoTime() - poll.startNanos);
+        }
+
+        @Override public void onError(Throwable t) { // already logged and counted as dropped
+          pendingSpans.addAndGet(-batch.size());
+          metrics.recordBatchStore(System.nanoTime() - storeStart);
+          if (poll.onFailed()) kafkaMetrics.recordPollToStored(System.nanoTime() - poll.startNanos);
+        }
+      }, Runnable::run);
+    }
+  }
+
   /**
    * Stop the polling loop
    */
@@ -117,6 +240,13 @@ final class KafkaCollectorWorker implements Runnable {
     running.set(false);
   }
 
+  static String contentEncoding(ConsumerRecord<byte[], byte[]> record) {
+    Header header = record.headers().lastHeader("Content-Encoding");
+    return header != null && header.value() != null
+      ? new String(header.value(), StandardCharsets.UTF_8)
+      : null;
+  }
+
   /* span key or trace ID key */
   static boolean protobuf3(byte[] bytes) {
     return bytes[0] == 10 && bytes[1] != 0; // varint follows and won't be zero
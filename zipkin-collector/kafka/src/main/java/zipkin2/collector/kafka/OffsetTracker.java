@@ -0,0 +1,225 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.kafka;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.collector.CollectorMetrics;
+
+/**
+ * Tracks which polled records are stored, so that offsets are only committed once all records
+ * before them are. Storage completes out of order, so each partition keeps its polls in order, and
+ * commits up to the first that hasn't completed.
+ *
+ * <p>When storage fails, the partitions in that poll are rewound to its first offset, so that the
+ * records are consumed again. Later polls of the same partition are forgotten, as they will be
+ * consumed again, too. The partition is paused before each retry, for twice as long as the last
+ * time, up to {@link #MAX_BACKOFF_MILLIS}. After {@link #MAX_RETRIES} retries fail, the records are
+ * counted as dropped messages and committed past, so that the partition isn't stuck on them.
+ *
+ * <p>Except {@link Poll}, this is only used on the thread that polls the consumer.
+ */
+final class OffsetTracker {
+  static final Logger LOG = LoggerFactory.getLogger(OffsetTracker.class);
+  static final int MAX_RETRIES = 10;
+  static final long INITIAL_BACKOFF_MILLIS = 100, MAX_BACKOFF_MILLIS = 30_000;
+
+  /** Tracks completion of the storage requests for the records of one poll. */
+  static final class Poll {
+    final long startNanos = System.nanoTime();
+    final AtomicInteger pending = new AtomicInteger();
+    volatile boolean done, failed;
+
+    /** Call before storing, with the count of storage requests that will complete this poll. */
+    void expect(int storageRequests) {
+      if (storageRequests == 0) {
+        done = true;
+      } else {
+        pending.set(storageRequests);
+      }
+    }
+
+    /** Returns true when this completed the poll. */
+    boolean onStored() {
+      if (pending.decrementAndGet() != 0) return false;
+      done = true;
+      return true;
+    }
+
+    /** Returns true when this completed the poll. */
+    boolean onFailed() {
+      failed = true;
+      return onStored();
+    }
+  }
+
+  /** The offsets of a partition's records in a poll, from first up to, but excluding, next. */
+  static final class Range {
+    final Poll poll;
+    final long first, next;
+
+    Range(Poll poll, long first, long next) {
+      this.poll = poll;
+      this.first = first;
+      this.next = next;
+    }
+  }
+
+  /** Failed attempts to store the records of a partition from an offset. */
+  static final class Retry {
+    final long offset;
+    final int attempts;
+    final long resumeNanos;
+    boolean paused = true;
+
+    Retry(long offset, int attempts, long resumeNanos) {
+      this.offset = offset;
+      this.attempts = attempts;
+      this.resumeNanos = resumeNanos;
+    }
+  }
+
+  final Map<TopicPartition, ArrayDeque<Range>> pending = new HashMap<>();
+  final Map<TopicPartition, Retry> retries = new HashMap<>();
+  final CollectorMetrics metrics;
+  final LongSupplier nanoTime;
+
+  OffsetTracker(CollectorMetrics metrics) {
+    this(metrics, System::nanoTime);
+  }
+
+  OffsetTracker(CollectorMetrics metrics, LongSupplier nanoTime) {
+    this.metrics = metrics;
+    this.nanoTime = nanoTime;
+  }
+
+  /** Returns a poll to complete once all spans of its records are stored. */
+  Poll track(ConsumerRecords<?, ?> records) {
+    Poll poll = new Poll();
+    for (TopicPartition partition : records.partitions()) {
+      add(partition, records.records(partition), poll);
+    }
+    return poll;
+  }
+
+  /**
+   * Like {@link #track(ConsumerRecords)}, except only for the records of one partition. This
+   * allows partitions to complete independently, when their records are stored separately.
+   */
+  Poll track(TopicPartition partition, List<? extends ConsumerRecord<?, ?>> records) {
+    Poll poll = new Poll();
+    add(partition, records, poll);
+    return poll;
+  }
+
+  void add(TopicPartition partition, List<? extends ConsumerRecord<?, ?>> records, Poll poll) {
+    if (records.isEmpty()) return;
+    long first = records.get(0).offset();
+    ConsumerRecord<?, ?> last = records.get(records.size() - 1);
+    pending.computeIfAbsent(partition, p -> new ArrayDeque<>())
+      .add(new Range(poll, first, last.offset() + 1));
+  }
+
+  /**
+   * Asynchronously commits offsets of partitions whose polls completed since the last call, and
+   * rewinds partitions whose storage failed. Partitions paused before a retry are resumed when due.
+   */
+  void commitAsync(Consumer<?, ?> consumer) {
+    resumeDue(consumer);
+    Map<TopicPartition, OffsetAndMetadata> offsets = completed(consumer);
+    if (offsets.isEmpty()) return;
+    consumer.commitAsync(offsets, (committed, e) -> {
+      if (e != null) LOG.debug("Failed to commit offsets {}", committed, e);
+    });
+  }
+
+  /**
+   * Synchronously commits completed offsets, then stops tracking the given partitions. Use this
+   * when partitions are revoked or the consumer is closing. Records of these partitions that are
+   * still being stored will be consumed again by the next owner.
+   */
+  void commitSync(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+    Map<TopicPartition, OffsetAndMetadata> offsets = completed(consumer);
+    pending.keySet().removeAll(partitions);
+    retries.keySet().removeAll(partitions);
+    if (offsets.isEmpty()) return;
+    try {
+      consumer.commitSync(offsets);
+    } catch (RuntimeException e) {
+      LOG.debug("Failed to commit offsets {}", offsets, e);
+    }
+  }
+
+  Map<TopicPartition, OffsetAndMetadata> completed(Consumer<?, ?> consumer) {
+    Map<TopicPartition, OffsetAndMetadata> result = new LinkedHashMap<>();
+    for (Map.Entry<TopicPartition, ArrayDeque<Range>> entry : pending.entrySet()) {
+      ArrayDeque<Range> ranges = entry.getValue();
+      Range head;
+      while ((head = ranges.peek()) != null && head.poll.done) {
+        TopicPartition partition = entry.getKey();
+        if (head.poll.failed && retry(consumer, partition, head)) {
+          ranges.clear();
+          break;
+        }
+        retries.remove(partition);
+        result.put(partition, new OffsetAndMetadata(head.next));
+        ranges.poll();
+      }
+    }
+    return result;
+  }
+
+  /** Returns true if the partition was rewound, or false to give up on the records. */
+  boolean retry(Consumer<?, ?> consumer, TopicPartition partition, Range failed) {
+    Retry last = retries.get(partition);
+    int attempts = last != null && last.offset == failed.first ? last.attempts + 1 : 1;
+    long count = failed.next - failed.first;
+    if (attempts > MAX_RETRIES) {
+      LOG.warn("Dropping {} records of {} from offset {} after {} failed attempts to store them",
+        count, partition, failed.first, attempts);
+      for (long i = 0; i < count; i++) metrics.incrementMessagesDropped();
+      return false;
+    }
+    long backoffMillis =
+      Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+    LOG.debug("Retrying {} records of {} from offset {} in {}ms", count, partition, failed.first,
+      backoffMillis);
+    retries.put(partition, new Retry(failed.first, attempts,
+      nanoTime.getAsLong() + TimeUnit.MILLISECONDS.toNanos(backoffMillis)));
+    consumer.seek(partition, failed.first);
+    consumer.pause(List.of(partition));
+    return true;
+  }
+
+  /** Returns true while a partition is paused before retrying. */
+  boolean isBackingOff(TopicPartition partition) {
+    Retry retry = retries.get(partition);
+    return retry != null && retry.paused;
+  }
+
+  void resumeDue(Consumer<?, ?> consumer) {
+    long now = nanoTime.getAsLong();
+    for (Map.Entry<TopicPartition, Retry> entry : retries.entrySet()) {
+      Retry retry = entry.getValue();
+      if (!retry.paused || now - retry.resumeNanos < 0) continue;
+      retry.paused = false;
+      consumer.resume(List.of(entry.getKey()));
+    }
+  }
+}
@@ -4,13 +4,16 @@
  */
 package zipkin2.collector.kafka;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
@@ -190,9 +193,9 @@ class ITKafkaCollector {
 
     try (KafkaCollector collector = builder.build()) {
       collector.start();
-      assertThat(receivedSpans.take()).containsExactlyElementsOf(spans);
-      // the only way we could read this, is if the malformed spans were skipped.
-      assertThat(receivedSpans.take()).containsExactlyElementsOf(spans);
+      // the only way we could read all spans, is if the malformed spans were skipped.
+      assertThat(takeSpans(spans.size() * 2)).containsExactlyElementsOf(
+        Stream.concat(spans.stream(), spans.stream()).toList());
     }
 
     assertThat(kafkaMetrics.messages()).isEqualTo(5);
@@ -225,7 +228,8 @@ class ITKafkaCollector {
       }
     };
     final StorageComponent storage = buildStorage(consumer);
-    KafkaCollector.Builder builder = builder("storage_exception").storage(storage);
+    KafkaCollector.Builder builder = builder("storage_exception").storage(storage)
+      .overrides(Map.of("max.poll.records", "1")); // one storage request per message
 
     produceSpans(THRIFT.encodeList(spans), builder.topic);
     produceSpans(THRIFT.encodeList(spans), builder.topic); // tossed on error
@@ -245,6 +249,88 @@ class ITKafkaCollector {
     assertThat(kafkaMetrics.spansDropped()).isEqualTo(spans.size()); // only one dropped
   }
 
+  /** When committing after storage, records whose spans weren't stored are consumed again. */
+  @Test void commitAfterStorage_consumesAgainOnStorageFailure() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    consumer = (input) -> new Call.Base<Void>() {
+      @Override protected Void doExecute() {
+        throw new AssertionError();
+      }
+
+      @Override protected void doEnqueue(Callback<Void> callback) {
+        if (counter.getAndIncrement() == 0) {
+          callback.onError(new RuntimeException("storage fell over"));
+        } else {
+          receivedSpans.add(input);
+          callback.onSuccess(null);
+        }
+      }
+
+      @Override public Call<Void> clone() {
+        throw new AssertionError();
+      }
+    };
+    KafkaCollector.Builder builder = builder("commit_after_storage")
+      .storage(buildStorage(consumer))
+      .commitAfterStorage(true);
+
+    produceSpans(THRIFT.encodeList(spans), builder.topic);
+
+    try (KafkaCollector collector = builder.build()) {
+      collector.start();
+      assertThat(receivedSpans.take()).containsExactlyElementsOf(spans);
+    }
+
+    assertThat(kafkaMetrics.messages()).isEqualTo(2); // consumed twice
+    assertThat(kafkaMetrics.spansDropped()).isEqualTo(spans.size()); // the failed attempt
+  }
+
+  /** Records returned by the same poll should be stored together */
+  @Test void messagesInPollAreStoredInBatches() throws Exception {
+    KafkaCollector.Builder builder = builder("batches").maxBatchSize(3);
+
+    byte[] message = JSON_V2.encodeList(spans);
+    for (int i = 0; i < 4; i++) {
+      produceSpans(message, builder.topic);
+    }
+
+    List<List<Span>> batches = new ArrayList<>();
+    try (KafkaCollector collector = builder.build()) {
+      collector.start();
+      for (int count = 0; count < spans.size() * 4; ) {
+        batches.add(receivedSpans.take());
+        count += batches.get(batches.size() - 1).size();
+      }
+    }
+
+    // Each message has 2 spans, so a batch of 3 spans must include more than one message.
+    assertThat(batches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(3))
+      .anySatisfy(batch -> assertThat(batch).hasSize(3));
+
+    assertThat(kafkaMetrics.messages()).isEqualTo(4);
+    assertThat(kafkaMetrics.spans()).isEqualTo(spans.size() * 4);
+    assertThat(kafkaMetrics.batchesDecoded()).isPositive();
+    assertThat(kafkaMetrics.batchesStored()).isEqualTo(batches.size());
+  }
+
+  @Test void decodeThreads() throws Exception {
+    KafkaCollector.Builder builder = builder("decode_threads").decodeThreads(2);
+
+    kafka.prepareTopics(builder.topic, 2);
+    byte[] message = JSON_V2.encodeList(spans);
+    for (int i = 0; i < 4; i++) {
+      produceSpans(message, builder.topic, i % 2);
+    }
+
+    try (KafkaCollector collector = builder.build()) {
+      collector.start();
+      assertThat(takeSpans(spans.size() * 4)).hasSize(spans.size() * 4);
+    }
+
+    assertThat(kafkaMetrics.messages()).isEqualTo(4);
+    assertThat(kafkaMetrics.spans()).isEqualTo(spans.size() * 4);
+  }
+
   @Test void messagesDistributedAcrossMultipleThreadsSuccessfully() throws Exception {
     KafkaCollector.Builder builder = builder("multi_thread", 2);
 
@@ -326,6 +412,15 @@ class ITKafkaCollector {
     }
   }
 
+  /** Takes spans from storage requests until the count is reached */
+  List<Span> takeSpans(int count) throws InterruptedException {
+    List<Span> result = new ArrayList<>();
+    while (result.size() < count) {
+      result.addAll(receivedSpans.take());
+    }
+    return result;
+  }
+
   void produceSpans(byte[] spans, String topic) {
     produceSpans(spans, topic, 0);
   }
@@ -0,0 +1,147 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.kafka;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+import zipkin2.TestObjects;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.InMemoryStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KafkaCollectorWorkerTest {
+  TopicPartition zero = new TopicPartition("zipkin", 0), one = new TopicPartition("zipkin", 1);
+  MockConsumer<byte[], byte[]> consumer = new MockConsumer<>("earliest");
+  Map<TopicPartition, Long> lag = new ConcurrentHashMap<>();
+  List<Long> pollToStored = new CopyOnWriteArrayList<>();
+  InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+  KafkaCollectorWorker worker = new KafkaCollectorWorker(KafkaCollector.builder()
+    .storage(storage)
+    .kafkaMetrics(new KafkaCollectorMetrics() {
+      @Override public void recordPoll(int records, long bytes, long nanos) {
+      }
+
+      @Override public void recordLag(TopicPartition partition, long value) {
+        lag.put(partition, value);
+      }
+
+      @Override public void removeLag(TopicPartition partition) {
+        lag.remove(partition);
+      }
+
+      @Override public void recordPollToStored(long nanos) {
+        pollToStored.add(nanos);
+      }
+    })
+    .maxBatchSize(2)
+    .maxPendingSpans(100));
+
+  @BeforeEach void assign() {
+    consumer.assign(List.of(zero));
+  }
+
+  @Test void pausesWhenStorageIsBehind() {
+    worker.pendingSpans.set(100);
+    worker.pauseOrResume(consumer);
+    assertThat(consumer.paused()).isEmpty(); // at, but not over the limit
+
+    worker.pendingSpans.set(101);
+    worker.pauseOrResume(consumer);
+    assertThat(consumer.paused()).containsExactly(zero);
+  }
+
+  @Test void resumesWhenHalfStored() {
+    worker.pendingSpans.set(101);
+    worker.pauseOrResume(consumer);
+
+    worker.pendingSpans.set(51);
+    worker.pauseOrResume(consumer);
+    assertThat(consumer.paused()).containsExactly(zero);
+
+    worker.pendingSpans.set(50);
+    worker.pauseOrResume(consumer);
+    assertThat(consumer.paused()).isEmpty();
+  }
+
+  @Test void pausesNewlyAssignedPartitions() {
+    worker.pendingSpans.set(101);
+    worker.pauseOrResume(consumer);
+
+    consumer.assign(List.of(zero, one));
+    worker.pauseOrResume(consumer);
+    assertThat(consumer.paused()).containsExactlyInAnyOrder(zero, one);
+  }
+
+  @Test void resumeLeavesPartitionsPausedBeforeRetry() {
+    worker = new KafkaCollectorWorker(KafkaCollector.builder()
+      .storage(storage)
+      .commitAfterStorage(true)
+      .maxPendingSpans(100));
+    consumer.assign(List.of(zero, one));
+    worker.pendingSpans.set(101);
+    worker.pauseOrResume(consumer);
+
+    OffsetTracker.Poll failed = worker.offsets.track(one, List.of(
+      new ConsumerRecord<>("zipkin", 1, 0, null, new byte[0])));
+    failed.expect(1);
+    failed.onFailed();
+    worker.offsets.commitAsync(consumer);
+
+    worker.pendingSpans.set(0);
+    worker.pauseOrResume(consumer);
+    assertThat(consumer.paused()).containsExactly(one);
+  }
+
+  @Test void disabled() {
+    worker = new KafkaCollectorWorker(KafkaCollector.builder()
+      .storage(InMemoryStorage.newBuilder().build())
+      .maxPendingSpans(0));
+
+    worker.pendingSpans.set(Integer.MAX_VALUE);
+    worker.pauseOrResume(consumer);
+    assertThat(consumer.paused()).isEmpty();
+  }
+
+  @Test void recordsLagOfAssignedPartitions() {
+    consumer.assign(List.of(zero, one));
+    consumer.updateBeginningOffsets(Map.of(zero, 0L, one, 0L));
+    consumer.updateEndOffsets(Map.of(zero, 10L, one, 3L));
+    consumer.seek(zero, 4);
+    consumer.seek(one, 3);
+
+    worker.recordLag(consumer);
+    assertThat(lag).containsOnly(Map.entry(zero, 6L), Map.entry(one, 0L));
+  }
+
+  @Test void recordsPollToStoredOnceAllBatchesAreStored() {
+    OffsetTracker.Poll poll = new OffsetTracker.Poll();
+    worker.store(List.of(TestObjects.LOTS_OF_SPANS).subList(0, 5), poll);
+
+    assertThat(poll.done).isTrue();
+    assertThat(pollToStored).hasSize(1); // as opposed to once per batch of 2
+  }
+
+  @Test void decodeAndStore() {
+    List<Span> spans = List.of(TestObjects.LOTS_OF_SPANS).subList(0, 5);
+    List<ConsumerRecord<byte[], byte[]>> records = List.of(
+      new ConsumerRecord<>("zipkin", 0, 0, null, SpanBytesEncoder.PROTO3.encodeList(spans)),
+      new ConsumerRecord<>("zipkin", 0, 1, null, new byte[] {'h', 'i'}));
+    OffsetTracker.Poll poll = new OffsetTracker.Poll();
+
+    worker.decodeAndStore(records, poll);
+
+    assertThat(poll.done).isTrue();
+    assertThat(storage.getTraces()).flatMap(t -> t).containsExactlyInAnyOrderElementsOf(spans);
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.kafka;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.collector.InMemoryCollectorMetrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffsetTrackerTest {
+  TopicPartition zero = new TopicPartition("zipkin", 0), one = new TopicPartition("zipkin", 1);
+  MockConsumer<byte[], byte[]> consumer = new MockConsumer<>("earliest");
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  long nanoTime;
+  OffsetTracker tracker = new OffsetTracker(metrics, () -> nanoTime);
+
+  @BeforeEach void assign() {
+    consumer.assign(List.of(zero, one));
+    consumer.updateBeginningOffsets(Map.of(zero, 0L, one, 0L));
+  }
+
+  @Test void commitsAfterStorage() {
+    OffsetTracker.Poll poll = tracker.track(records(zero, 0, 3, one, 0, 1));
+    poll.expect(2);
+
+    poll.onStored();
+    tracker.commitAsync(consumer);
+    assertThat(committed()).isEmpty(); // one storage request is still pending
+
+    poll.onStored();
+    tracker.commitAsync(consumer);
+    assertThat(committed()).containsOnly(
+      Map.entry(zero, new OffsetAndMetadata(3)),
+      Map.entry(one, new OffsetAndMetadata(1)));
+  }
+
+  @Test void commitsUpToFirstIncompletePoll() {
+    OffsetTracker.Poll first = tracker.track(records(zero, 0, 2));
+    first.expect(1);
+    OffsetTracker.Poll second = tracker.track(records(zero, 2, 2));
+    second.expect(1);
+
+    second.onStored();
+    tracker.commitAsync(consumer);
+    assertThat(committed()).isEmpty(); // storage completed out of order
+
+    first.onStored();
+    tracker.commitAsync(consumer);
+    assertThat(committed()).containsOnly(Map.entry(zero, new OffsetAndMetadata(4)));
+  }
+
+  @Test void trackPartition_completesIndependently() {
+    ConsumerRecords<byte[], byte[]> records = records(zero, 0, 2, one, 0, 3);
+    OffsetTracker.Poll first = tracker.track(zero, records.records(zero));
+    first.expect(1);
+    OffsetTracker.Poll second = tracker.track(one, records.records(one));
+    second.expect(1);
+
+    second.onStored();
+    tracker.commitAsync(consumer);
+    assertThat(committed()).containsOnly(Map.entry(one, new OffsetAndMetadata(3)));
+  }
+
+  @Test void completesWithoutStorageRequests() {
+    tracker.track(records(zero, 0, 2)).expect(0); // ex. all records were malformed
+
+    tracker.commitAsync(consumer);
+    assertThat(committed()).containsOnly(Map.entry(zero, new OffsetAndMetadata(2)));
+  }
+
+  @Test void rewindsOnStorageFailure() {
+    OffsetTracker.Poll stored = tracker.track(records(zero, 0, 2));
+    stored.expect(1);
+    OffsetTracker.Poll failed = tracker.track(records(zero, 2, 2, one, 0, 1));
+    failed.expect(1);
+    OffsetTracker.Poll later = tracker.track(records(zero, 4, 1));
+    later.expect(1);
+
+    stored.onStored();
+    failed.onFailed();
+    later.onStored();
+    tracker.commitAsync(consumer);
+
+    assertThat(committed()).containsOnly(Map.entry(zero, new OffsetAndMetadata(2)));
+    assertThat(consumer.position(zero)).isEqualTo(2);
+    assertThat(consumer.position(one)).isZero();
+    assertThat(consumer.paused()).containsExactlyInAnyOrder(zero, one); // until retrying
+    assertThat(tracker.pending.get(zero)).isEmpty(); // later records will be consumed again
+  }
+
+  @Test void pausesBeforeRetrying() {
+    failToStore(records(zero, 0, 2));
+    assertThat(consumer.paused()).containsExactly(zero);
+
+    advance(OffsetTracker.INITIAL_BACKOFF_MILLIS - 1);
+    tracker.commitAsync(consumer);
+    assertThat(consumer.paused()).containsExactly(zero);
+
+    advance(1);
+    tracker.commitAsync(consumer);
+    assertThat(consumer.paused()).isEmpty();
+
+    // the second failure of the same records backs off twice as long
+    failToStore(records(zero, 0, 2));
+    advance(OffsetTracker.INITIAL_BACKOFF_MILLIS);
+    tracker.commitAsync(consumer);
+    assertThat(consumer.paused()).containsExactly(zero);
+
+    advance(OffsetTracker.INITIAL_BACKOFF_MILLIS);
+    tracker.commitAsync(consumer);
+    assertThat(consumer.paused()).isEmpty();
+  }
+
+  @Test void dropsRecordsAfterMaxRetries() {
+    for (int i = 0; i < OffsetTracker.MAX_RETRIES; i++) {
+      failToStore(records(zero, 0, 2));
+      assertThat(consumer.position(zero)).isZero();
+      advance(OffsetTracker.MAX_BACKOFF_MILLIS);
+    }
+
+    failToStore(records(zero, 0, 2));
+
+    assertThat(committed()).containsOnly(Map.entry(zero, new OffsetAndMetadata(2)));
+    assertThat(metrics.messagesDropped()).isEqualTo(2);
+    assertThat(tracker.retries).isEmpty();
+  }
+
+  @Test void successResetsRetries() {
+    failToStore(records(zero, 0, 2));
+    advance(OffsetTracker.INITIAL_BACKOFF_MILLIS);
+
+    OffsetTracker.Poll retried = tracker.track(records(zero, 0, 2));
+    retried.expect(1);
+    retried.onStored();
+    tracker.commitAsync(consumer);
+
+    assertThat(committed()).containsOnly(Map.entry(zero, new OffsetAndMetadata(2)));
+    assertThat(tracker.retries).isEmpty();
+  }
+
+  @Test void commitSync_forgetsRevokedPartitions() {
+    tracker.track(records(zero, 0, 2)).expect(0);
+    tracker.track(records(one, 0, 2)).expect(1); // still storing
+
+    tracker.commitSync(consumer, List.of(zero, one));
+
+    assertThat(committed()).containsOnly(Map.entry(zero, new OffsetAndMetadata(2)));
+    assertThat(tracker.pending).isEmpty();
+  }
+
+  void failToStore(ConsumerRecords<byte[], byte[]> records) {
+    OffsetTracker.Poll poll = tracker.track(records);
+    poll.expect(1);
+    poll.onFailed();
+    tracker.commitAsync(consumer);
+  }
+
+  void advance(long millis) {
+    nanoTime += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  Map<TopicPartition, OffsetAndMetadata> committed() {
+    Map<TopicPartition, OffsetAndMetadata> result = new LinkedHashMap<>(
+      consumer.committed(Set.of(zero, one)));
+    result.values().removeIf(v -> v == null);
+    return result;
+  }
+
+  /** Creates records from triples of partition, first offset and count. */
+  static ConsumerRecords<byte[], byte[]> records(Object... partitionFirstCount) {
+    Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> records = new LinkedHashMap<>();
+    for (int i = 0; i < partitionFirstCount.length; i += 3) {
+      TopicPartition partition = (TopicPartition) partitionFirstCount[i];
+      int first = (int) partitionFirstCount[i + 1], count = (int) partitionFirstCount[i + 2];
+      List<ConsumerRecord<byte[], byte[]>> list = new ArrayList<>();
+      for (int offset = first; offset < first + count; offset++) {
+        list.add(new ConsumerRecord<>(partition.topic(), partition.partition(), offset, null,
+          new byte[0]));
+      }
+      records.put(partition, list);
+    }
+    return new ConsumerRecords<>(records, Map.of());
+  }
+}
@@ -18,7 +18,7 @@ class LazyPulsarInit {
   private final Collector collector;
   private final CollectorMetrics metrics;
   private final String topic;
-  private final int concurrency;
+  private final int concurrency, batchMaxMessages, batchTimeoutMillis;
   private final Map<String, Object> clientProps, consumerProps;
   public volatile PulsarClient result;
   final AtomicReference<CheckResult> failure = new AtomicReference<>();
@@ -28,6 +28,8 @@ class LazyPulsarInit {
     this.metrics = builder.metrics;
     this.topic = builder.topic;
     this.concurrency = builder.concurrency;
+    this.batchMaxMessages = builder.batchMaxMessages;
+    this.batchTimeoutMillis = builder.batchTimeoutMillis;
     this.clientProps = builder.clientProps;
     this.consumerProps = builder.consumerProps;
   }
@@ -55,7 +57,8 @@ class LazyPulsarInit {
 
     try {
       for (int i = 0; i < concurrency; i++) {
-        PulsarSpanConsumer consumer = new PulsarSpanConsumer(topic, consumerProps, client, collector, metrics);
+        PulsarSpanConsumer consumer = new PulsarSpanConsumer(topic, consumerProps, client, collector, metrics,
+            batchMaxMessages, batchTimeoutMillis);
         consumer.startConsumer();
       }
       return client;
@@ -33,6 +33,8 @@ public final class PulsarCollector extends CollectorComponent {
     Map<String, Object> consumerProps = new HashMap<>();
     String topic = "zipkin";
     int concurrency = 1;
+    int batchMaxMessages;
+    int batchTimeoutMillis = 100;
 
     @Override
     public Builder storage(StorageComponent storage) {
@@ -66,6 +68,28 @@ public final class PulsarCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, each consumer receives up to this count of messages at a time, storing their
+     * spans in one request. Messages are acknowledged only after they are stored, and negatively
+     * acknowledged on failure, so that they are redelivered. Zero receives messages one at a time,
+     * acknowledging them before they are stored. Defaults to 0.
+     */
+    public Builder batchMaxMessages(int batchMaxMessages) {
+      if (batchMaxMessages < 0) throw new IllegalArgumentException("batchMaxMessages < 0");
+      this.batchMaxMessages = batchMaxMessages;
+      return this;
+    }
+
+    /**
+     * When {@link #batchMaxMessages(int) receiving batches}, how long to wait for a batch to fill
+     * before storing what was received. Defaults to 100.
+     */
+    public Builder batchTimeoutMillis(int batchTimeoutMillis) {
+      if (batchTimeoutMillis <= 0) throw new IllegalArgumentException("batchTimeoutMillis <= 0");
+      this.batchTimeoutMillis = batchTimeoutMillis;
+      return this;
+    }
+
     /** Queue zipkin spans will be consumed from. Defaults to "zipkin". */
     public Builder topic(String topic) {
       if (StringUtils.isNullOrEmpty(topic)) throw new NullPointerException("topic is null or empty");
@@ -4,9 +4,12 @@
  */
 package zipkin2.collector.pulsar;
 
+import org.apache.pulsar.client.api.BatchReceivePolicy;
 import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.ConsumerBuilder;
 import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.MessageListener;
+import org.apache.pulsar.client.api.Messages;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.api.SubscriptionInitialPosition;
@@ -14,11 +17,16 @@ import org.apache.pulsar.client.api.SubscriptionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import zipkin2.Callback;
+import zipkin2.Span;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class PulsarSpanConsumer implements Closeable {
   static final Callback<Void> NOOP = new Callback<>() {
@@ -30,29 +38,53 @@ public class PulsarSpanConsumer implements Closeable {
   };
 
   private static final Logger LOG = LoggerFactory.getLogger(PulsarSpanConsumer.class);
+  static final int MAX_IN_FLIGHT_BATCHES = 4;
+  static final long INITIAL_BACKOFF_MILLIS = 100, MAX_BACKOFF_MILLIS = 10_000;
   private final String topic;
   private final Map<String, Object> consumerProps;
   private final PulsarClient client;
   private final Collector collector;
   private final CollectorMetrics metrics;
-  private Consumer<byte[]> consumer;
+  private final int batchMaxMessages, batchTimeoutMillis;
+  private volatile Consumer<byte[]> consumer;
 
   public PulsarSpanConsumer(String topic, Map<String, Object> consumerProps, PulsarClient client, Collector collector, CollectorMetrics metrics) {
+    this(topic, consumerProps, client, collector, metrics, 0, 0);
+  }
+
+  /**
+   * @param batchMaxMessages when positive, messages are received in batches of up to this count,
+   *                         and acknowledged after they are stored.
+   */
+  public PulsarSpanConsumer(String topic, Map<String, Object> consumerProps, PulsarClient client, Collector collector, CollectorMetrics metrics,
+      int batchMaxMessages, int batchTimeoutMillis) {
     this.topic = topic;
     this.consumerProps = consumerProps;
     this.client = client;
     this.collector = collector;
     this.metrics = metrics;
+    this.batchMaxMessages = batchMaxMessages;
+    this.batchTimeoutMillis = batchTimeoutMillis;
   }
 
   public void startConsumer() throws PulsarClientException {
-    consumer = client.newConsumer()
+    ConsumerBuilder<byte[]> builder = client.newConsumer()
         .topic(topic)
         .subscriptionType(SubscriptionType.Shared)
         .subscriptionInitialPosition(SubscriptionInitialPosition.Earliest)
-        .loadConf(consumerProps)
-        .messageListener(new ZipkinMessageListener<>(collector, metrics))
+        .loadConf(consumerProps);
+    if (batchMaxMessages <= 0) {
+      consumer = builder.messageListener(new ZipkinMessageListener<>(collector, metrics)).subscribe();
+      return;
+    }
+    consumer = builder.batchReceivePolicy(BatchReceivePolicy.builder()
+            .maxNumMessages(batchMaxMessages)
+            .timeout(batchTimeoutMillis, TimeUnit.MILLISECONDS)
+            .build())
         .subscribe();
+    Thread thread = new Thread(new BatchReceiveLoop(consumer), "zipkin-pulsar-" + consumer.getConsumerName());
+    thread.setDaemon(true);
+    thread.start();
   }
 
   @Override public void close() {
@@ -66,6 +98,86 @@ public class PulsarSpanConsumer implements Closeable {
     }
   }
 
+  /**
+   * Receives messages in batches, storing spans of each batch in one request. Messages are
+   * acknowledged only once stored, or negatively acknowledged on failure, so that they are
+   * redelivered. Cumulative acknowledgement isn't possible, as the subscription is shared.
+   *
+   * <p>At most {@link #MAX_IN_FLIGHT_BATCHES} batches are stored at a time, so that slow storage
+   * holds messages back in Pulsar instead of in memory. When receiving fails, the next attempt is
+   * delayed, twice as long as the last time, up to {@link #MAX_BACKOFF_MILLIS}.
+   */
+  final class BatchReceiveLoop implements Runnable {
+    final Consumer<byte[]> consumer;
+    final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_BATCHES);
+    long backoffMillis; // zero unless the last receive failed
+
+    BatchReceiveLoop(Consumer<byte[]> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override public void run() {
+      try {
+        while (PulsarSpanConsumer.this.consumer == consumer) { // until closed
+          Messages<byte[]> messages;
+          try {
+            messages = consumer.batchReceive();
+            backoffMillis = 0;
+          } catch (PulsarClientException.AlreadyClosedException e) {
+            return;
+          } catch (PulsarClientException e) {
+            backoffMillis = backoffMillis == 0
+              ? INITIAL_BACKOFF_MILLIS
+              : Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+            LOG.warn("Pulsar Span Consumer failed to receive messages. Retrying in {}ms",
+              backoffMillis, e);
+            Thread.sleep(backoffMillis);
+            continue;
+          }
+          if (messages.size() == 0) continue;
+          inFlight.acquire(); // released when storage completes
+          try {
+            store(messages);
+          } catch (RuntimeException | Error e) {
+            inFlight.release();
+            throw e;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    void store(Messages<byte[]> messages) {
+      long decodeStart = System.nanoTime();
+      List<Span> spans = new ArrayList<>();
+      for (Message<byte[]> msg : messages) {
+        byte[] serialized = msg.getData();
+        metrics.incrementMessages();
+        metrics.incrementBytes(serialized.length);
+        if (serialized.length == 0) continue; // lenient on empty messages
+        serialized = collector.decompressOrDrop(serialized, msg.getProperty("Content-Encoding"));
+        if (serialized != null) spans.addAll(collector.decodeSpans(serialized));
+      }
+      metrics.recordBatchDecode(System.nanoTime() - decodeStart);
+
+      long storeStart = System.nanoTime();
+      collector.acceptAndStore(spans, new Callback<>() {
+        @Override public void onSuccess(Void value) {
+          inFlight.release();
+          metrics.recordBatchStore(System.nanoTime() - storeStart);
+          consumer.acknowledgeAsync(messages);
+        }
+
+        @Override public void onError(Throwable t) { // already logged and counted as dropped
+          inFlight.release();
+          metrics.recordBatchStore(System.nanoTime() - storeStart);
+          consumer.negativeAcknowledge(messages);
+        }
+      }, Runnable::run);
+    }
+  }
+
   /**
    * A message listener implementation for processing messages in a Pulsar consumer,
    * and it should not be overridden by loadConf as it ensures that zipkin could handle span correctly.
@@ -80,7 +192,7 @@ public class PulsarSpanConsumer implements Closeable {
 
         if (serialized.length == 0) return; // lenient on empty messages
 
-        collector.acceptSpans(serialized, NOOP);
+        collector.acceptSpans(serialized, msg.getProperty("Content-Encoding"), NOOP);
         consumer.acknowledgeAsync(msg);
       } catch (Throwable th) {
         metrics.incrementMessagesDropped();
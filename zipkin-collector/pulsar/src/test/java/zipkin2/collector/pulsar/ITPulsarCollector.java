@@ -28,7 +28,9 @@ import zipkin2.storage.StorageComponent;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
@@ -200,6 +202,58 @@ public class ITPulsarCollector {
     assertThat(pulsarMetrics.spansDropped()).isEqualTo(spans.size()); // only one dropped
   }
 
+  @Test void batchMaxMessages_storesMessagesTogether() throws Exception {
+    collector.close();
+
+    byte[] message = PROTO3.encodeList(spans);
+    for (int i = 0; i < 3; i++) {
+      pushMessage(collector.topic, message);
+    }
+    collector = builder().batchMaxMessages(3).batchTimeoutMillis(1000).build().start();
+
+    List<Span> stored = new ArrayList<>();
+    while (stored.size() < spans.size() * 3) {
+      stored.addAll(receivedSpans.take());
+    }
+    assertThat(stored).hasSize(spans.size() * 3);
+    assertThat(pulsarMetrics.messages()).isEqualTo(3);
+    assertThat(pulsarMetrics.batchesStored()).isLessThan(3);
+  }
+
+  @Test void batchMaxMessages_redeliversOnSpanStorageException() throws Exception {
+    collector.close();
+
+    AtomicInteger counter = new AtomicInteger();
+    consumer = (input) -> new Call.Base<>() {
+      @Override protected Void doExecute() {
+        throw new AssertionError();
+      }
+
+      @Override protected void doEnqueue(Callback<Void> callback) {
+        if (counter.getAndIncrement() == 0) {
+          callback.onError(new RuntimeException("storage fell over"));
+        } else {
+          receivedSpans.add(input);
+          callback.onSuccess(null);
+        }
+      }
+
+      @Override public Call<Void> clone() {
+        throw new AssertionError();
+      }
+    };
+
+    collector = builder().storage(buildStorage(consumer)).batchMaxMessages(10)
+        .consumerProps(Map.of("negativeAckRedeliveryDelayMicros", 100_000L))
+        .build().start();
+
+    pushMessage(collector.topic, PROTO3.encodeList(spans)); // redelivered after the error
+
+    assertThat(receivedSpans.take()).containsExactlyElementsOf(spans);
+    assertThat(pulsarMetrics.messages()).isEqualTo(2);
+    assertThat(pulsarMetrics.spansDropped()).isEqualTo(spans.size());
+  }
+
   @Test void messagesDistributedAcrossMultipleThreadsSuccessfully() throws Exception {
     collector.close();
 
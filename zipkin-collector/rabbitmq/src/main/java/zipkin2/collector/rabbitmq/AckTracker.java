@@ -0,0 +1,157 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.rabbitmq;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.collector.CollectorMetrics;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Acknowledges deliveries of a channel once their spans are stored. Storage completes out of order,
+ * so this acknowledges with {@code multiple=true} up to the last delivery stored, when all before
+ * it completed, too. To amortize ack traffic, this waits until half of the prefetch count
+ * completed, or until there is nothing else outstanding.
+ *
+ * <p>A delivery whose storage failed is rejected after a backoff, and requeued, so that it is
+ * consumed again. The backoff doubles while storage keeps failing, and resets once something is
+ * stored. Until the delivery is rejected, later ones aren't acknowledged either, so when all
+ * prefetched deliveries are outstanding, the broker stops sending more. Once rejected, later
+ * acknowledgements skip it.
+ *
+ * <p>A delivery redelivered {@link #MAX_REDELIVERIES} times is rejected without requeuing, and
+ * counted as dropped, so that a message that always fails doesn't block the queue. Quorum queues
+ * count deliveries in the {@code x-delivery-count} header. Classic queues only flag redeliveries,
+ * so there, a redelivered message that fails again is dropped.
+ *
+ * <p>Delivery tags are assigned by the channel, in order, starting at one. This is called from both
+ * the channel's consumer thread and storage callbacks, so it is synchronized.
+ */
+final class AckTracker {
+  static final Logger LOG = LoggerFactory.getLogger(AckTracker.class);
+  static final int MAX_REDELIVERIES = 10;
+  static final long INITIAL_BACKOFF_MILLIS = 100, MAX_BACKOFF_MILLIS = 10_000;
+
+  final Channel channel;
+  final int ackThreshold;
+  final CollectorMetrics metrics;
+  final ScheduledExecutorService rejectDelay;
+  /** Count of previous deliveries by tag, for deliveries that were redelivered. */
+  final Map<Long, Integer> redeliveries = new HashMap<>();
+  /** Deliveries after {@link #completed} that finished, mapped to whether they were stored. */
+  final Map<Long, Boolean> completedAhead = new HashMap<>();
+  long delivered; // last delivery tag received
+  long completed; // all deliveries up to this tag have completed
+  long ackable; // last stored delivery up to completed
+  long acked; // last delivery tag acknowledged
+  long backoffMillis; // 0 unless storage is failing
+
+  AckTracker(Channel channel, int prefetchCount, CollectorMetrics metrics,
+    ScheduledExecutorService rejectDelay) {
+    this.channel = channel;
+    this.ackThreshold = Math.max(1, prefetchCount / 2);
+    this.metrics = metrics;
+    this.rejectDelay = rejectDelay;
+  }
+
+  synchronized void onDelivery(long deliveryTag) {
+    onDelivery(deliveryTag, 0);
+  }
+
+  /** @param redeliveries count of times this message was delivered before */
+  synchronized void onDelivery(long deliveryTag, int redeliveries) {
+    delivered = deliveryTag;
+    if (redeliveries > 0) this.redeliveries.put(deliveryTag, redeliveries);
+  }
+
+  /** Returns the count of previous deliveries of a message, as far as the queue tracks it. */
+  static int redeliveries(Envelope envelope, BasicProperties props) {
+    Map<String, Object> headers = props.getHeaders();
+    Object deliveryCount = headers != null ? headers.get("x-delivery-count") : null;
+    if (deliveryCount instanceof Number count) return count.intValue();
+    return envelope.isRedeliver() ? MAX_REDELIVERIES : 0; // classic queues don't count
+  }
+
+  synchronized void onStored(long deliveryTag) {
+    onStored(deliveryTag, deliveryTag);
+  }
+
+  /** Like {@link #onStored(long)}, except for a batch of consecutive deliveries. */
+  synchronized void onStored(long firstTag, long lastTag) {
+    backoffMillis = 0;
+    for (long tag = firstTag; tag <= lastTag; tag++) {
+      redeliveries.remove(tag);
+      completedAhead.put(tag, true);
+    }
+    complete();
+  }
+
+  synchronized void onFailed(long deliveryTag) {
+    onFailed(deliveryTag, deliveryTag);
+  }
+
+  /** Like {@link #onFailed(long)}, except for a batch of consecutive deliveries. */
+  synchronized void onFailed(long firstTag, long lastTag) {
+    backoffMillis = backoffMillis == 0
+      ? INITIAL_BACKOFF_MILLIS
+      : Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+    LOG.debug("Rejecting deliveries {} to {} in {}ms", firstTag, lastTag, backoffMillis);
+    try {
+      rejectDelay.schedule(() -> reject(firstTag, lastTag), backoffMillis, MILLISECONDS);
+    } catch (RejectedExecutionException e) { // closing, so don't delay
+      reject(firstTag, lastTag);
+    }
+  }
+
+  /** Requeues deliveries whose storage failed, or drops them if they were redelivered enough. */
+  synchronized void reject(long firstTag, long lastTag) {
+    boolean channelOpen = true;
+    for (long tag = firstTag; tag <= lastTag; tag++) {
+      Integer count = redeliveries.remove(tag);
+      boolean requeue = count == null || count < MAX_REDELIVERIES;
+      if (!requeue) {
+        LOG.warn("Dropping delivery {} after {} redeliveries failed to store", tag, count);
+        metrics.incrementMessagesDropped();
+      }
+      if (!channelOpen) continue;
+      try {
+        // Not multiple, as earlier deliveries may still be storing.
+        channel.basicNack(tag, false, requeue);
+      } catch (IOException | RuntimeException e) {
+        // The channel closed, so the broker will redeliver anyway.
+        LOG.debug("Failed to reject delivery {}", tag, e);
+        channelOpen = false;
+      }
+    }
+    for (long tag = firstTag; tag <= lastTag; tag++) completedAhead.put(tag, false);
+    complete();
+  }
+
+  void complete() {
+    Boolean next;
+    while ((next = completedAhead.remove(completed + 1)) != null) {
+      completed++;
+      if (next) ackable = completed;
+    }
+    if (ackable <= acked) return;
+    if (completed == delivered || ackable - acked >= ackThreshold) {
+      try {
+        channel.basicAck(ackable, true);
+      } catch (IOException | RuntimeException e) {
+        LOG.debug("Failed to acknowledge deliveries up to {}", ackable, e);
+      }
+      acked = ackable;
+    }
+  }
+}
@@ -13,19 +13,27 @@ import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.CheckResult;
+import zipkin2.Span;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.internal.Nullable;
 import zipkin2.storage.StorageComponent;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 /** This collector consumes encoded binary messages from a RabbitMQ queue. */
 public final class RabbitMQCollector extends CollectorComponent {
   static final Callback<Void> NOOP = new Callback<Void>() {
@@ -48,6 +56,9 @@ public final class RabbitMQCollector extends CollectorComponent {
     ConnectionFactory connectionFactory = new ConnectionFactory();
     Address[] addresses;
     int concurrency = 1;
+    int prefetchCount;
+    int batchSize;
+    int batchLingerMillis = 100;
 
     @Override
     public Builder storage(StorageComponent storage) {
@@ -79,6 +90,42 @@ public final class RabbitMQCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, messages are acknowledged only after their spans are stored, and the broker
+     * sends at most this many unacknowledged messages to each consumer. Messages whose spans
+     * couldn't be stored are requeued after a backoff, and dropped once redelivered too often. Zero
+     * acknowledges messages as soon as they are delivered, so they are lost if storage fails.
+     * Defaults to 0.
+     */
+    public Builder prefetchCount(int prefetchCount) {
+      if (prefetchCount < 0) throw new IllegalArgumentException("prefetchCount < 0");
+      this.prefetchCount = prefetchCount;
+      return this;
+    }
+
+    /**
+     * When positive, spans of consecutive messages on a channel are stored together, up to this
+     * count, as opposed to a storage request per message. When {@link #prefetchCount(int)
+     * acknowledging after storage}, the messages are acknowledged once their batch is stored, so
+     * the prefetch count should allow for a batch worth of messages. Zero disables batching.
+     * Defaults to 0.
+     */
+    public Builder batchSize(int batchSize) {
+      if (batchSize < 0) throw new IllegalArgumentException("batchSize < 0");
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * When {@link #batchSize(int) batching}, how long the first message of a batch waits for more
+     * before the batch is stored regardless of size. Defaults to 100.
+     */
+    public Builder batchLingerMillis(int batchLingerMillis) {
+      if (batchLingerMillis <= 0) throw new IllegalArgumentException("batchLingerMillis <= 0");
+      this.batchLingerMillis = batchLingerMillis;
+      return this;
+    }
+
     public Builder connectionFactory(ConnectionFactory connectionFactory) {
       if (connectionFactory == null) throw new NullPointerException("connectionFactory == null");
       this.connectionFactory = connectionFactory;
@@ -143,6 +190,9 @@ public final class RabbitMQCollector extends CollectorComponent {
     final Builder builder;
     final AtomicReference<CheckResult> failure = new AtomicReference<>();
     volatile Connection connection;
+    ScheduledExecutorService batchLinger; // guarded by this, null unless batching
+    ScheduledExecutorService rejectDelay; // guarded by this, null when auto-acknowledging
+    final List<RabbitMQSpanConsumer> consumers = new ArrayList<>(); // guarded by this
 
     // TODO: bad idea to lazy reference properties from a mutable builder
     // copy them here and then pass this to the KafkaCollectorWorker ctor instead
@@ -162,8 +212,19 @@ public final class RabbitMQCollector extends CollectorComponent {
     }
 
     void close() throws IOException {
+      List<RabbitMQSpanConsumer> toClose;
+      synchronized (this) {
+        toClose = List.copyOf(consumers);
+      }
+      // Store pending batches while the connection can still acknowledge them.
+      for (RabbitMQSpanConsumer consumer : toClose) consumer.close();
       Connection maybeConnection = connection;
       if (maybeConnection != null) maybeConnection.close();
+      synchronized (this) {
+        if (batchLinger != null) batchLinger.shutdown();
+        // Deliveries still waiting to be rejected are redelivered as the connection closed.
+        if (rejectDelay != null) rejectDelay.shutdownNow();
+      }
     }
 
     Connection compute() {
@@ -183,6 +244,20 @@ public final class RabbitMQCollector extends CollectorComponent {
       }
       Collector collector = builder.delegate.build();
       CollectorMetrics metrics = builder.metrics;
+      if (builder.batchSize > 0) {
+        batchLinger = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread thread = new Thread(r, "zipkin-rabbitmq-batch-linger");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      if (builder.prefetchCount > 0) {
+        rejectDelay = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread thread = new Thread(r, "zipkin-rabbitmq-reject-delay");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
 
       for (int i = 0; i < builder.concurrency; i++) {
         String consumerTag = "zipkin-rabbitmq." + i;
@@ -190,8 +265,16 @@ public final class RabbitMQCollector extends CollectorComponent {
           // this sets up a channel for each consumer thread.
           // We don't track channels, as the connection will close its channels implicitly
           Channel channel = connection.createChannel();
-          RabbitMQSpanConsumer consumer = new RabbitMQSpanConsumer(channel, collector, metrics);
-          channel.basicConsume(builder.queue, true, consumerTag, consumer);
+          boolean autoAck = builder.prefetchCount == 0;
+          AckTracker acks = null;
+          if (!autoAck) {
+            channel.basicQos(builder.prefetchCount);
+            acks = new AckTracker(channel, builder.prefetchCount, metrics, rejectDelay);
+          }
+          RabbitMQSpanConsumer consumer = new RabbitMQSpanConsumer(channel, collector, metrics,
+            acks, builder.batchSize, builder.batchLingerMillis, batchLinger);
+          consumers.add(consumer);
+          channel.basicConsume(builder.queue, autoAck, consumerTag, consumer);
         } catch (IOException e) {
           throw new IllegalStateException("Failed to start RabbitMQ consumer " + consumerTag, e);
         }
@@ -219,17 +302,38 @@ public final class RabbitMQCollector extends CollectorComponent {
   }
 
   /**
-   * Consumes spans from messages on a RabbitMQ queue. Malformed messages will be discarded. Errors
-   * in the storage component will similarly be ignored, with no retry of the message.
+   * Consumes spans from messages on a RabbitMQ queue. Malformed messages will be discarded. Unless
+   * acknowledging after storage, errors in the storage component will similarly be ignored, with no
+   * retry of the message.
+   *
+   * <p>When batching, spans of consecutive deliveries are buffered until the batch is full or its
+   * linger time elapsed. Deliveries of a channel are sequential, but the linger timer isn't, so the
+   * batch is guarded by this. Once {@link #close() closed}, deliveries are stored without batching,
+   * as the linger timer may have stopped.
    */
   static class RabbitMQSpanConsumer extends DefaultConsumer {
     final Collector collector;
     final CollectorMetrics metrics;
-
-    RabbitMQSpanConsumer(Channel channel, Collector collector, CollectorMetrics metrics) {
+    @Nullable final AckTracker acks; // null when auto-acknowledging
+    final int batchSize, batchLingerMillis;
+    @Nullable final ScheduledExecutorService batchLinger; // null unless batching
+
+    // guarded by this
+    List<Span> batch = new ArrayList<>();
+    long firstTag, lastTag;
+    ScheduledFuture<?> lingerFlush;
+    boolean closed;
+
+    RabbitMQSpanConsumer(Channel channel, Collector collector, CollectorMetrics metrics,
+      @Nullable AckTracker acks, int batchSize, int batchLingerMillis,
+      @Nullable ScheduledExecutorService batchLinger) {
       super(channel);
       this.collector = collector;
       this.metrics = metrics;
+      this.acks = acks;
+      this.batchSize = batchSize;
+      this.batchLingerMillis = batchLingerMillis;
+      this.batchLinger = batchLinger;
     }
 
     @Override
@@ -237,9 +341,94 @@ public final class RabbitMQCollector extends CollectorComponent {
       metrics.incrementMessages();
       metrics.incrementBytes(body.length);
 
-      if (body.length == 0) return; // lenient on empty messages
+      if (acks == null && batchLinger == null) {
+        if (body.length == 0) return; // lenient on empty messages
+
+        collector.acceptSpans(body, props.getContentEncoding(), NOOP);
+        return;
+      }
+
+      long deliveryTag = envelope.getDeliveryTag();
+      if (acks != null) acks.onDelivery(deliveryTag, AckTracker.redeliveries(envelope, props));
+      List<Span> spans = decode(body, props.getContentEncoding());
+      if (batchLinger == null) {
+        store(spans, deliveryTag, deliveryTag);
+      } else {
+        addToBatch(spans, deliveryTag);
+      }
+    }
+
+    void addToBatch(List<Span> spans, long deliveryTag) {
+      List<Span> full;
+      long first;
+      synchronized (this) {
+        if (closed) { // the linger timer may have stopped, so don't wait for it
+          full = spans;
+          first = deliveryTag;
+        } else {
+          if (lastTag == 0) { // first delivery of this batch
+            firstTag = deliveryTag;
+            lingerFlush = batchLinger.schedule(this::flush, batchLingerMillis, MILLISECONDS);
+          }
+          lastTag = deliveryTag;
+          batch.addAll(spans);
+          if (batch.size() < batchSize) return;
+          lingerFlush.cancel(false);
+          full = batch;
+          first = firstTag;
+          batch = new ArrayList<>();
+          firstTag = lastTag = 0;
+        }
+      }
+      store(full, first, deliveryTag);
+    }
+
+    /** Stores any pending batch, then stores later deliveries without batching. */
+    void close() {
+      synchronized (this) {
+        if (closed) return;
+        closed = true;
+        if (lingerFlush != null) lingerFlush.cancel(false);
+      }
+      flush();
+    }
+
+    /** Stores the current batch, if any. This is called when the batch linger time elapsed. */
+    void flush() {
+      List<Span> lingered;
+      long first, last;
+      synchronized (this) {
+        if (lastTag == 0) return; // already stored because it was full
+        lingered = batch;
+        first = firstTag;
+        last = lastTag;
+        batch = new ArrayList<>();
+        firstTag = lastTag = 0;
+      }
+      store(lingered, first, last);
+    }
+
+    /** Stores spans of the deliveries from first to last tag, then acknowledges them if needed. */
+    void store(List<Span> spans, long firstTag, long lastTag) {
+      long storeStart = System.nanoTime();
+      collector.acceptAndStore(spans, new Callback<Void>() {
+        @Override public void onSuccess(Void value) {
+          metrics.recordBatchStore(System.nanoTime() - storeStart);
+          if (acks != null) acks.onStored(firstTag, lastTag);
+        }
+
+        @Override public void onError(Throwable t) { // already logged and counted as dropped
+          metrics.recordBatchStore(System.nanoTime() - storeStart);
+          if (acks != null) acks.onFailed(firstTag, lastTag);
+        }
+      }, Runnable::run);
+    }
 
-      collector.acceptSpans(body, NOOP);
+    /** Returns any spans in the message, or an empty list if it is empty or malformed. */
+    List<Span> decode(byte[] body, @Nullable String contentEncoding) {
+      if (body.length == 0) return List.of(); // lenient on empty messages
+      body = collector.decompressOrDrop(body, contentEncoding);
+      return body != null ? collector.decodeSpans(body) : List.of();
     }
   }
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.rabbitmq;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import zipkin2.collector.InMemoryCollectorMetrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class AckTrackerTest {
+  Channel channel = mock(Channel.class);
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  ScheduledExecutorService rejectDelay = mock(ScheduledExecutorService.class);
+  List<Runnable> delayed = new ArrayList<>();
+  List<Long> delays = new ArrayList<>();
+  AckTracker acks = new AckTracker(channel, 4, metrics, rejectDelay); // acks 2 or more at a time
+
+  AckTrackerTest() {
+    when(rejectDelay.schedule(any(Runnable.class), anyLong(), any())).thenAnswer(i -> {
+      delayed.add(i.getArgument(0));
+      delays.add(i.getArgument(1));
+      return null;
+    });
+  }
+
+  @Test void acknowledgesMultipleOnceHalfOfPrefetchIsStored() throws Exception {
+    delivered(3);
+
+    acks.onStored(1);
+    verifyNoInteractions(channel);
+
+    acks.onStored(2);
+    verify(channel).basicAck(2, true);
+
+    acks.onStored(3); // nothing else is outstanding
+    verify(channel).basicAck(3, true);
+    verifyNoMoreInteractions(channel);
+  }
+
+  @Test void waitsForEarlierDeliveries() throws Exception {
+    delivered(3);
+
+    acks.onStored(3);
+    acks.onStored(2);
+    verifyNoInteractions(channel); // storage completed out of order
+
+    acks.onStored(1);
+    verify(channel).basicAck(3, true);
+    verifyNoMoreInteractions(channel);
+  }
+
+  @Test void requeuesFailedDeliveries() throws Exception {
+    delivered(3);
+
+    acks.onStored(1);
+    acks.onFailed(2);
+    acks.onStored(3);
+    runDelayed();
+
+    InOrder inOrder = inOrder(channel);
+    inOrder.verify(channel).basicNack(2, false, true);
+    inOrder.verify(channel).basicAck(3, true); // skips the rejected delivery
+    verifyNoMoreInteractions(channel);
+  }
+
+  @Test void doesntAcknowledgeLaterDeliveriesUntilRejected() throws Exception {
+    delivered(3);
+
+    acks.onFailed(1);
+    acks.onStored(2);
+    acks.onStored(3);
+    verifyNoInteractions(channel); // a multiple ack would include the delivery to reject
+
+    runDelayed();
+    InOrder inOrder = inOrder(channel);
+    inOrder.verify(channel).basicNack(1, false, true);
+    inOrder.verify(channel).basicAck(3, true);
+  }
+
+  @Test void backsOffWhileStorageFails() {
+    delivered(4);
+
+    acks.onFailed(1);
+    acks.onFailed(2);
+    acks.onStored(3);
+    acks.onFailed(4);
+
+    assertThat(delays).containsExactly(100L, 200L, 100L);
+  }
+
+  @Test void backoffIsCapped() {
+    delivered(10);
+
+    for (long tag = 1; tag <= 10; tag++) acks.onFailed(tag);
+
+    assertThat(delays).last().isEqualTo(AckTracker.MAX_BACKOFF_MILLIS);
+  }
+
+  @Test void dropsDeliveryRedeliveredTooOften() throws Exception {
+    acks.onDelivery(1, AckTracker.MAX_REDELIVERIES);
+    acks.onDelivery(2, AckTracker.MAX_REDELIVERIES - 1);
+
+    acks.onFailed(1, 2);
+    runDelayed();
+
+    verify(channel).basicNack(1, false, false);
+    verify(channel).basicNack(2, false, true);
+    assertThat(metrics.messagesDropped()).isEqualTo(1);
+  }
+
+  @Test void redeliveries() {
+    Envelope first = new Envelope(1, false, "", "zipkin");
+    Envelope redelivered = new Envelope(1, true, "", "zipkin");
+    BasicProperties quorum = new BasicProperties.Builder()
+      .headers(Map.of("x-delivery-count", 3L)).build();
+
+    assertThat(AckTracker.redeliveries(first, new BasicProperties())).isZero();
+    assertThat(AckTracker.redeliveries(redelivered, quorum)).isEqualTo(3);
+    // Classic queues only flag redeliveries, so a redelivery is the last.
+    assertThat(AckTracker.redeliveries(redelivered, new BasicProperties()))
+      .isEqualTo(AckTracker.MAX_REDELIVERIES);
+  }
+
+  void delivered(int count) {
+    for (long tag = 1; tag <= count; tag++) acks.onDelivery(tag);
+  }
+
+  void runDelayed() {
+    for (Runnable runnable : delayed) runnable.run();
+    delayed.clear();
+  }
+}
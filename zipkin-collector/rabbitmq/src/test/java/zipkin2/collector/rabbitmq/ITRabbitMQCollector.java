@@ -185,6 +185,44 @@ class ITRabbitMQCollector {
     assertThat(rabbitmqMetrics.spansDropped()).isEqualTo(spans.size()); // only one dropped
   }
 
+  @Test void prefetchCount_requeuesOnSpanStorageException() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    consumer = (input) -> new Call.Base<Void>() {
+      @Override protected Void doExecute() {
+        throw new AssertionError();
+      }
+
+      @Override protected void doEnqueue(Callback<Void> callback) {
+        if (counter.getAndIncrement() == 1) {
+          callback.onError(new RuntimeException("storage fell over"));
+        } else {
+          receivedSpans.add(input);
+          callback.onSuccess(null);
+        }
+      }
+
+      @Override public Call<Void> clone() {
+        throw new AssertionError();
+      }
+    };
+    RabbitMQCollector.Builder builder =
+      builder("prefetch_storage_exception").storage(buildStorage(consumer)).prefetchCount(2);
+
+    produceSpans(THRIFT.encodeList(spans), builder.queue);
+    produceSpans(THRIFT.encodeList(spans), builder.queue); // requeued on error
+    produceSpans(THRIFT.encodeList(spans), builder.queue);
+
+    try (RabbitMQCollector collector = builder.build()) {
+      collector.start();
+      for (int i = 0; i < 3; i++) {
+        assertThat(receivedSpans.take()).containsExactlyElementsOf(spans);
+      }
+    }
+
+    assertThat(rabbitmqMetrics.messages()).isEqualTo(4); // one was delivered twice
+    assertThat(rabbitmqMetrics.spansDropped()).isEqualTo(spans.size());
+  }
+
   /**
    * The {@code toString()} of {@link Component} implementations appear in health check endpoints.
    * Since these are likely to be exposed in logs and other monitoring tools, care should be taken
@@ -0,0 +1,98 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.rabbitmq;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.collector.Collector;
+import zipkin2.collector.CollectorMetrics;
+import zipkin2.collector.rabbitmq.RabbitMQCollector.RabbitMQSpanConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+import static zipkin2.codec.SpanBytesEncoder.JSON_V2;
+
+class RabbitMQSpanConsumerTest {
+  List<Span> spans = List.of(LOTS_OF_SPANS[0], LOTS_OF_SPANS[1]);
+  LinkedBlockingQueue<List<Span>> stored = new LinkedBlockingQueue<>();
+  Collector collector = Collector.newBuilder(RabbitMQCollector.class)
+    .storage(ITRabbitMQCollector.buildStorage(input -> {
+      stored.add(input);
+      return Call.create(null);
+    })).build();
+  Channel channel = mock(Channel.class);
+  BasicProperties props = new BasicProperties();
+  ScheduledExecutorService batchLinger = Executors.newSingleThreadScheduledExecutor();
+
+  @AfterEach void shutdown() {
+    batchLinger.shutdownNow();
+  }
+
+  @Test void storesBatchWhenFull() throws Exception {
+    RabbitMQSpanConsumer consumer = consumer(4, 60_000);
+
+    consumer.handleDelivery("zipkin", new Envelope(1, false, "", "zipkin"), props, message());
+    assertThat(stored).isEmpty();
+    verifyNoInteractions(channel);
+
+    consumer.handleDelivery("zipkin", new Envelope(2, false, "", "zipkin"), props, message());
+    assertThat(stored.poll()).hasSize(4);
+    verify(channel).basicAck(2, true); // one acknowledgement for the batch
+  }
+
+  @Test void storesBatchAfterLinger() throws Exception {
+    RabbitMQSpanConsumer consumer = consumer(100, 10);
+
+    consumer.handleDelivery("zipkin", new Envelope(1, false, "", "zipkin"), props, message());
+
+    assertThat(stored.poll(1, TimeUnit.SECONDS)).isEqualTo(spans);
+    verify(channel, timeout(1000)).basicAck(1, true);
+  }
+
+  @Test void closeStoresPendingBatch() throws Exception {
+    RabbitMQSpanConsumer consumer = consumer(100, 60_000);
+    consumer.handleDelivery("zipkin", new Envelope(1, false, "", "zipkin"), props, message());
+
+    consumer.close();
+
+    assertThat(stored.poll()).isEqualTo(spans);
+    verify(channel).basicAck(1, true);
+  }
+
+  @Test void storesWithoutBatchingAfterClose() throws Exception {
+    RabbitMQSpanConsumer consumer = consumer(100, 60_000);
+    consumer.close();
+    batchLinger.shutdown(); // scheduling a linger flush would now be rejected
+
+    consumer.handleDelivery("zipkin", new Envelope(1, false, "", "zipkin"), props, message());
+
+    assertThat(stored.poll()).isEqualTo(spans);
+    verify(channel).basicAck(1, true);
+  }
+
+  RabbitMQSpanConsumer consumer(int batchSize, int batchLingerMillis) {
+    return new RabbitMQSpanConsumer(channel, collector, CollectorMetrics.NOOP_METRICS,
+      new AckTracker(channel, 10, CollectorMetrics.NOOP_METRICS, batchLinger), batchSize,
+      batchLingerMillis, batchLinger);
+  }
+
+  byte[] message() {
+    return JSON_V2.encodeList(spans);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.scribe;
+
+import java.util.Arrays;
+
+/**
+ * Decodes MIME base64, as used by finagle-zipkin, directly from the characters of a string. Unlike
+ * {@link java.util.Base64#getMimeDecoder()}, this doesn't need the string copied to bytes first,
+ * and decodes into a reusable buffer.
+ *
+ * <p>Like the MIME decoder, characters outside the base64 alphabet, such as line separators, are
+ * ignored, and decoding ends at the first padding character.
+ */
+final class MimeBase64 {
+  static final byte[] DECODE = new byte[128];
+
+  static {
+    Arrays.fill(DECODE, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); i++) DECODE[alphabet.charAt(i)] = (byte) i;
+  }
+
+  /** Returns a buffer size sufficient to decode the input. */
+  static int maxDecodedLength(String encoded) {
+    return encoded.length() / 4 * 3 + 2;
+  }
+
+  /**
+   * Decodes the input into the buffer, returning the count of bytes written.
+   *
+   * @param out at least {@link #maxDecodedLength(String)} in size
+   * @throws IllegalArgumentException if the last unit of input has too few characters
+   */
+  static int decode(String encoded, byte[] out) {
+    int pos = 0, bits = 0, chars = 0;
+    for (int i = 0, length = encoded.length(); i < length; i++) {
+      char c = encoded.charAt(i);
+      if (c == '=') break;
+      int value = c < 128 ? DECODE[c] : -1;
+      if (value == -1) continue; // MIME ignores characters outside the alphabet
+
+      bits = bits << 6 | value;
+      if (++chars == 4) {
+        out[pos++] = (byte) (bits >> 16);
+        out[pos++] = (byte) (bits >> 8);
+        out[pos++] = (byte) bits;
+        bits = chars = 0;
+      }
+    }
+
+    switch (chars) {
+      case 0:
+        break;
+      case 1:
+        throw new IllegalArgumentException("Last unit does not have enough valid bits");
+      case 2:
+        out[pos++] = (byte) (bits >> 4);
+        break;
+      default:
+        out[pos++] = (byte) (bits >> 10);
+        out[pos++] = (byte) (bits >> 2);
+    }
+    return pos;
+  }
+
+  private MimeBase64() {
+  }
+}
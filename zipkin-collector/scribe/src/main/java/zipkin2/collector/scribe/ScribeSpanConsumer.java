@@ -5,10 +5,13 @@
 package zipkin2.collector.scribe;
 
 import com.linecorp.armeria.common.CommonPools;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.thrift.async.AsyncMethodCallback;
 import zipkin2.Callback;
 import zipkin2.Span;
@@ -18,8 +21,18 @@ import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.scribe.generated.LogEntry;
 import zipkin2.collector.scribe.generated.ResultCode;
 import zipkin2.collector.scribe.generated.Scribe;
+import zipkin2.internal.Nullable;
 
 final class ScribeSpanConsumer implements Scribe.AsyncIface {
+  /**
+   * Logs with at least this count of entries are decoded across cores, in chunks of this size. The
+   * chunks run on the blocking executor that stores spans, not the Thrift thread.
+   */
+  static final int PARALLEL_DECODE_THRESHOLD = 256;
+  /** Larger buffers are not retained, to avoid pinning memory after an unusually large span. */
+  static final int MAX_RETAINED_BUFFER = 64 * 1024;
+  static final ThreadLocal<byte[]> DECODE_BUFFER = ThreadLocal.withInitial(() -> new byte[4096]);
+
   final Collector collector;
   final CollectorMetrics metrics;
   final String category;
@@ -33,34 +46,88 @@ final class ScribeSpanConsumer implements Scribe.AsyncIface {
   @Override
   public void Log(List<LogEntry> messages, AsyncMethodCallback<ResultCode> resultHandler) {
     metrics.incrementMessages();
-    List<Span> spans = new ArrayList<>();
-    int byteCount = 0;
-    try {
-      for (LogEntry logEntry : messages) {
-        if (!category.equals(logEntry.category)) continue;
-        byte[] bytes = logEntry.message.getBytes(StandardCharsets.ISO_8859_1);
-        bytes = Base64.getMimeDecoder().decode(bytes); // finagle-zipkin uses mime encoding
-        byteCount += bytes.length;
-        spans.add(SpanBytesDecoder.THRIFT.decodeOne(bytes));
+    LongAdder byteCount = new LongAdder();
+    // Collectors may not be asynchronous so switch to blocking executor here.
+    Executor executor = CommonPools.blockingTaskExecutor();
+    if (messages.size() < PARALLEL_DECODE_THRESHOLD) {
+      List<Span> spans;
+      try {
+        spans = decode(messages, byteCount);
+      } catch (RuntimeException e) {
+        dropped(e, resultHandler);
+        return;
+      } finally {
+        metrics.incrementBytes(byteCount.intValue());
       }
-    } catch (RuntimeException e) {
-      metrics.incrementMessagesDropped();
-      resultHandler.onError(e);
+      accept(spans, resultHandler, executor);
       return;
-    } finally {
-      metrics.incrementBytes(byteCount);
     }
 
+    // Entries are independent, so chunks of large logs are decoded concurrently.
+    List<CompletableFuture<List<Span>>> chunks = new ArrayList<>();
+    for (int i = 0; i < messages.size(); i += PARALLEL_DECODE_THRESHOLD) {
+      List<LogEntry> chunk =
+        messages.subList(i, Math.min(i + PARALLEL_DECODE_THRESHOLD, messages.size()));
+      chunks.add(CompletableFuture.supplyAsync(() -> decode(chunk, byteCount), executor));
+    }
+    CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).whenComplete((v, t) -> {
+      metrics.incrementBytes(byteCount.intValue());
+      if (t != null) {
+        dropped(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t,
+          resultHandler);
+        return;
+      }
+      List<Span> spans = new ArrayList<>(messages.size());
+      for (CompletableFuture<List<Span>> chunk : chunks) spans.addAll(chunk.join());
+      accept(spans, resultHandler, executor);
+    });
+  }
+
+  List<Span> decode(List<LogEntry> entries, LongAdder byteCount) {
+    List<Span> spans = new ArrayList<>(entries.size());
+    for (LogEntry logEntry : entries) {
+      Span span = decode(logEntry, byteCount);
+      if (span != null) spans.add(span);
+    }
+    return spans;
+  }
+
+  void dropped(Throwable t, AsyncMethodCallback<ResultCode> resultHandler) {
+    metrics.incrementMessagesDropped();
+    resultHandler.onError(exception(t));
+  }
+
+  void accept(List<Span> spans, AsyncMethodCallback<ResultCode> resultHandler, Executor executor) {
     collector.accept(spans, new Callback<Void>() {
       @Override public void onSuccess(Void value) {
         resultHandler.onComplete(ResultCode.OK);
       }
 
       @Override public void onError(Throwable t) {
-        Exception error = t instanceof Exception e ? e : new RuntimeException(t);
-        resultHandler.onError(error);
+        resultHandler.onError(exception(t));
       }
-    // Collectors may not be asynchronous so switch to blocking executor here.
-    }, CommonPools.blockingTaskExecutor());
+    }, executor);
+  }
+
+  static Exception exception(Throwable t) {
+    return t instanceof Exception e ? e : new RuntimeException(t);
+  }
+
+  /**
+   * Decodes the span in a log entry, or returns null if it is in a different category. To avoid
+   * copying, the base64 message is decoded from its characters into a thread-local buffer, and the
+   * span is read from that buffer. This is safe as decoded spans don't reference the buffer.
+   */
+  @Nullable Span decode(LogEntry logEntry, LongAdder byteCount) {
+    if (!category.equals(logEntry.category)) return null;
+    int maxLength = MimeBase64.maxDecodedLength(logEntry.message);
+    byte[] buffer = DECODE_BUFFER.get();
+    if (buffer.length < maxLength) {
+      buffer = new byte[maxLength];
+      if (maxLength <= MAX_RETAINED_BUFFER) DECODE_BUFFER.set(buffer);
+    }
+    int length = MimeBase64.decode(logEntry.message, buffer); // finagle-zipkin uses mime encoding
+    byteCount.add(length);
+    return SpanBytesDecoder.THRIFT.decodeOne(ByteBuffer.wrap(buffer, 0, length));
   }
 }
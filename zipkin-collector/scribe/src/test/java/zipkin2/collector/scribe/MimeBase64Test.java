@@ -0,0 +1,43 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.collector.scribe;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MimeBase64Test {
+  Random random = new Random(1234);
+
+  @ParameterizedTest @ValueSource(ints = {0, 1, 2, 3, 4, 57, 100, 4096})
+  void matchesJdkMimeDecoder(int length) {
+    byte[] data = new byte[length];
+    random.nextBytes(data);
+    // MIME encoding wraps lines at 76 characters, like finagle-zipkin
+    String encoded = Base64.getMimeEncoder().encodeToString(data) + "\n";
+
+    assertThat(decode(encoded)).containsExactly(Base64.getMimeDecoder().decode(encoded));
+  }
+
+  @Test void ignoresCharactersOutsideAlphabet() {
+    assertThat(decode("aGVs\tbG8=é")).containsExactly("hello".getBytes());
+  }
+
+  @Test void rejectsIncompleteUnit() {
+    assertThatThrownBy(() -> decode("notbase64"))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  static byte[] decode(String encoded) {
+    byte[] buffer = new byte[MimeBase64.maxDecodedLength(encoded)];
+    return Arrays.copyOf(buffer, MimeBase64.decode(encoded, buffer));
+  }
+}
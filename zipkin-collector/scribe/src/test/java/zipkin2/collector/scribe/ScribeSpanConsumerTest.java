@@ -4,6 +4,7 @@
  */
 package zipkin2.collector.scribe;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
@@ -239,6 +240,52 @@ class ScribeSpanConsumerTest {
     assertThat(scribeMetrics.spansDropped()).isZero();
   }
 
+  /** Spans a few chunks, the last partial, to show none are lost when joined. */
+  @Test void largeLogsAreDecodedInParallel() throws Exception {
+    ScribeSpanConsumer scribe = newScribeSpanConsumer("zipkin", consumer);
+
+    int entryCount = ScribeSpanConsumer.PARALLEL_DECODE_THRESHOLD * 2 + 2;
+    List<LogEntry> entries = new ArrayList<>();
+    for (int i = 0; i < entryCount; i++) {
+      Span span = v2.toBuilder().id(i + 1).build();
+      LogEntry entry = new LogEntry();
+      entry.category = i % 2 == 0 ? "zipkin" : "notzipkin";
+      entry.message = Base64.getMimeEncoder().encodeToString(SpanBytesEncoder.THRIFT.encode(span));
+      entries.add(entry);
+    }
+
+    CaptureAsyncMethodCallback callback = new CaptureAsyncMethodCallback();
+    scribe.Log(entries, callback);
+    callback.latch.await(10, TimeUnit.SECONDS);
+    assertThat(callback.resultCode).isEqualTo(ResultCode.OK);
+
+    int expected = entryCount / 2;
+    await().untilAsserted(() -> assertThat(storage.getTraces().get(0)).hasSize(expected));
+    assertThat(scribeMetrics.messages()).isEqualTo(1);
+    assertThat(scribeMetrics.spans()).isEqualTo(expected);
+  }
+
+  @Test void malformedEntryDropsLargeLog() throws Exception {
+    ScribeSpanConsumer scribe = newScribeSpanConsumer("zipkin", consumer);
+
+    List<LogEntry> entries = new ArrayList<>();
+    for (int i = 0; i < ScribeSpanConsumer.PARALLEL_DECODE_THRESHOLD; i++) {
+      LogEntry entry = new LogEntry();
+      entry.category = "zipkin";
+      entry.message = i == 1 ? "notbase64" : encodedSpan;
+      entries.add(entry);
+    }
+
+    CaptureAsyncMethodCallback callback = new CaptureAsyncMethodCallback();
+    scribe.Log(entries, callback);
+    callback.latch.await(10, TimeUnit.SECONDS);
+
+    assertThat(callback.error).isInstanceOf(IllegalArgumentException.class);
+    assertThat(scribeMetrics.messagesDropped()).isEqualTo(1);
+    assertThat(scribeMetrics.spans()).isZero();
+    assertThat(storage.getTraces()).isEmpty();
+  }
+
   ScribeSpanConsumer newScribeSpanConsumer(String category, SpanConsumer spanConsumer) {
     ScribeCollector.Builder builder = ScribeCollector.newBuilder()
       .category(category)
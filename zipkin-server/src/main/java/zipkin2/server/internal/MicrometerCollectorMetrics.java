@@ -5,8 +5,13 @@
 package zipkin2.server.internal;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.internal.Nullable;
@@ -27,6 +32,16 @@ import zipkin2.internal.Nullable;
  * include sampling or storage failures</li>
  *     <li>gauge.zipkin_collector.message_spans.$transport - last count of spans in a message</li>
  *     <li>gauge.zipkin_collector.message_bytes.$transport - last count of bytes in a message</li>
+ *     <li>counter.zipkin_collector.compressed_bytes.$transport.$encoding - cumulative bytes of
+ * compressed messages, before decompression</li>
+ *     <li>counter.zipkin_collector.decompressed_bytes.$transport.$encoding - cumulative bytes of
+ * compressed messages, after decompression</li>
+ *     <li>distribution.zipkin_collector.compression_ratio.$transport.$encoding - decompressed bytes
+ * divided by compressed bytes, per message</li>
+ *     <li>timer.zipkin_collector.batch_decode.$transport - time to decode messages read together,
+ * such as a Kafka poll</li>
+ *     <li>timer.zipkin_collector.batch_store.$transport - time from handing a batch of spans to
+ * storage until it completed</li>
  * </ul>
  * </pre>
  *
@@ -34,8 +49,11 @@ import zipkin2.internal.Nullable;
  */
 public final class MicrometerCollectorMetrics implements CollectorMetrics {
   final MeterRegistry registryInstance;
+  final String transport;
+  final ConcurrentMap<String, CompressionMeters> compression = new ConcurrentHashMap<>();
   final Counter messages, messagesDropped, bytes, spans, spansDropped;
   final AtomicInteger messageBytes, messageSpans;
+  final Timer batchDecode, batchStore;
 
   public MicrometerCollectorMetrics(MeterRegistry registry) {
     this(null, registry);
@@ -43,9 +61,11 @@ public final class MicrometerCollectorMetrics implements CollectorMetrics {
 
   MicrometerCollectorMetrics(@Nullable String transport, MeterRegistry meterRegistry) {
     this.registryInstance = meterRegistry;
+    this.transport = transport;
     if (transport == null) {
       messages = messagesDropped = bytes = spans = spansDropped = null;
       messageBytes = messageSpans = null;
+      batchDecode = batchStore = null;
       return;
     }
     this.messages =
@@ -87,6 +107,16 @@ public final class MicrometerCollectorMetrics implements CollectorMetrics {
         .tag("transport", transport)
         .baseUnit("bytes")
         .register(registryInstance);
+    this.batchDecode =
+        Timer.builder("zipkin_collector.batch_decode")
+            .description("time to decode messages read together")
+            .tag("transport", transport)
+            .register(registryInstance);
+    this.batchStore =
+        Timer.builder("zipkin_collector.batch_store")
+            .description("time from handing a batch of spans to storage until it completed")
+            .tag("transport", transport)
+            .register(registryInstance);
   }
 
   @Override
@@ -127,6 +157,50 @@ public final class MicrometerCollectorMetrics implements CollectorMetrics {
     spansDropped.increment(quantity);
   }
 
+  @Override
+  public void incrementCompressedBytes(String contentEncoding, int compressed, int decompressed) {
+    checkScoped();
+    CompressionMeters meters =
+      compression.computeIfAbsent(contentEncoding, CompressionMeters::new);
+    meters.compressed.increment(compressed);
+    meters.decompressed.increment(decompressed);
+    if (compressed > 0) meters.ratio.record((double) decompressed / compressed);
+  }
+
+  @Override
+  public void recordBatchDecode(long nanos) {
+    checkScoped();
+    batchDecode.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordBatchStore(long nanos) {
+    checkScoped();
+    batchStore.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  final class CompressionMeters {
+    final Counter compressed, decompressed;
+    final DistributionSummary ratio;
+
+    CompressionMeters(String encoding) {
+      compressed = Counter.builder("zipkin_collector.compressed_bytes")
+        .description("cumulative amount of compressed bytes received")
+        .tags("transport", transport, "encoding", encoding)
+        .baseUnit("bytes")
+        .register(registryInstance);
+      decompressed = Counter.builder("zipkin_collector.decompressed_bytes")
+        .description("cumulative amount of bytes compressed messages decompressed to")
+        .tags("transport", transport, "encoding", encoding)
+        .baseUnit("bytes")
+        .register(registryInstance);
+      ratio = DistributionSummary.builder("zipkin_collector.compression_ratio")
+        .description("ratio of decompressed to compressed bytes in a message")
+        .tags("transport", transport, "encoding", encoding)
+        .register(registryInstance);
+    }
+  }
+
   void checkScoped() {
     if (messages == null) {
       throw new IllegalStateException("always scope with ActuateCollectorMetrics.forTransport");
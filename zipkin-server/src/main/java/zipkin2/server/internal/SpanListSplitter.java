@@ -0,0 +1,311 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import zipkin2.SpanBytesDecoderDetector;
+import zipkin2.codec.SpanBytesDecoder;
+
+/**
+ * Splits a list of encoded spans into smaller lists as its bytes arrive. This allows a large POST
+ * body to be decoded and stored in bounded batches, as opposed to aggregating it first.
+ *
+ * <p>Batches are emitted as self-contained list messages, which can be read with {@link
+ * SpanBytesDecoder#decodeList(ByteBuffer)}. Splitting only looks at the structure of the encoding,
+ * so malformed spans are reported by the decoder, as they would be when the body isn't split.
+ *
+ * <p>The emitted buffer is only valid until the consumer returns.
+ */
+abstract class SpanListSplitter {
+
+  static SpanListSplitter create(SpanBytesDecoder decoder, int maxBatchSize) {
+    switch (decoder) {
+      case JSON_V1:
+      case JSON_V2:
+        return new Json(decoder, maxBatchSize);
+      case PROTO3:
+        return new Proto3(decoder, maxBatchSize);
+      default: // Thrift elements can only be found by parsing them, so buffer the whole list.
+        return new SpanListSplitter(decoder, maxBatchSize) {
+        };
+    }
+  }
+
+  final SpanBytesDecoder decoder;
+  final int maxBatchSize;
+  boolean checkedFormat;
+
+  // unconsumed bytes are between index 0 and end
+  byte[] buf = new byte[1024];
+  int end;
+
+  SpanListSplitter(SpanBytesDecoder decoder, int maxBatchSize) {
+    if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize <= 0");
+    this.decoder = decoder;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /** Appends the next chunk of the list, emitting any batches that are complete. */
+  final void write(ByteBuffer chunk, Consumer<ByteBuffer> batches) {
+    int length = chunk.remaining();
+    if (length == 0) return;
+    if (end + length > buf.length) {
+      compact(consumed());
+      if (end + length > buf.length) buf = Arrays.copyOf(buf, Math.max(end + length, end * 2));
+    }
+    chunk.get(buf, end, length);
+    end += length;
+
+    if (!checkedFormat && end >= 2) checkFormat();
+    if (checkedFormat) split(batches);
+  }
+
+  /** Called when there are no more chunks, emitting any remaining batch. */
+  final void finish(Consumer<ByteBuffer> batches) {
+    if (!checkedFormat) {
+      if (end == 0) return; // empty body
+      checkFormat();
+    }
+    finishSplit(batches);
+    end = 0;
+  }
+
+  /**
+   * Fails fast on data that isn't a list, the same way as when the entire body is read.
+   *
+   * <p>Note: the detected decoder isn't used as the endpoint's decoder has precedence.
+   */
+  void checkFormat() {
+    try {
+      if (end < 2) throw new IllegalArgumentException();
+      SpanBytesDecoderDetector.decoderForListMessage(ByteBuffer.wrap(buf, 0, 2));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Expected a " + decoder + " encoded list");
+    }
+    checkedFormat = true;
+  }
+
+  /** Emits batches that are complete. Defaults to waiting for the entire list. */
+  void split(Consumer<ByteBuffer> batches) {
+  }
+
+  /** Emits any remaining batch. Defaults to the entire list. */
+  void finishSplit(Consumer<ByteBuffer> batches) {
+    batches.accept(ByteBuffer.wrap(buf, 0, end));
+  }
+
+  /** Returns the count of leading bytes that are no longer needed. */
+  int consumed() {
+    return 0;
+  }
+
+  /** Discards the first {@code count} bytes, so that the buffer can be reused. */
+  void compact(int count) {
+    if (count == 0) return;
+    System.arraycopy(buf, count, buf, 0, end - count);
+    end -= count;
+  }
+
+  /**
+   * Tracks object nesting to find where each element of a json list ends. Batches are re-wrapped
+   * in brackets, as commas between elements are left out.
+   */
+  static final class Json extends SpanListSplitter {
+    int scan, depth, count;
+    boolean inString, escaped, closed;
+    // indexes into buf, or -1 when not yet known
+    int batchStart = -1, batchEnd = -1, elementStart = -1, closeIndex = -1;
+
+    Json(SpanBytesDecoder decoder, int maxBatchSize) {
+      super(decoder, maxBatchSize);
+    }
+
+    @Override void checkFormat() {
+      super.checkFormat();
+      if (buf[0] != '[') {
+        throw new IllegalArgumentException("Expected a " + decoder + " encoded list");
+      }
+    }
+
+    @Override void split(Consumer<ByteBuffer> batches) {
+      for (; scan < end && !closed; scan++) {
+        byte b = buf[scan];
+        if (inString) {
+          if (escaped) {
+            escaped = false;
+          } else if (b == '\\') {
+            escaped = true;
+          } else if (b == '"') {
+            inString = false;
+          }
+          continue;
+        }
+
+        if (depth == 1 && elementStart == -1 && b != ',' && b != ']' && !isWhitespace(b)) {
+          elementStart = scan;
+        }
+
+        switch (b) {
+          case '"':
+            inString = true;
+            break;
+          case '[':
+          case '{':
+            depth++;
+            break;
+          case ']':
+          case '}':
+            if (--depth == 1) { // an element of the list ended
+              if (batchStart == -1) batchStart = elementStart;
+              batchEnd = scan + 1;
+              elementStart = -1;
+              if (++count == maxBatchSize) {
+                batches.accept(wrap(batchStart, batchEnd, true));
+                batchStart = batchEnd = -1;
+                count = 0;
+              }
+            } else if (depth == 0) {
+              closed = true;
+              closeIndex = scan;
+            }
+            break;
+          default:
+            break;
+        }
+      }
+    }
+
+    @Override void finishSplit(Consumer<ByteBuffer> batches) {
+      int start = batchStart != -1 ? batchStart : elementStart;
+      if (closed) {
+        if (start != -1) batches.accept(wrap(start, closeIndex, true));
+        return;
+      }
+      // Truncated: leave off the closing bracket, so that the decoder raises its usual error
+      batches.accept(wrap(start != -1 ? start : end, end, false));
+    }
+
+    @Override int consumed() {
+      int keep = scan;
+      if (batchStart != -1) keep = Math.min(keep, batchStart);
+      if (elementStart != -1) keep = Math.min(keep, elementStart);
+      return keep;
+    }
+
+    @Override void compact(int count) {
+      if (count == 0) return;
+      super.compact(count);
+      scan -= count;
+      if (batchStart != -1) batchStart -= count;
+      if (batchEnd != -1) batchEnd -= count;
+      if (elementStart != -1) elementStart -= count;
+      if (closeIndex != -1) closeIndex -= count;
+    }
+
+    ByteBuffer wrap(int start, int end, boolean closeList) {
+      int length = end - start;
+      byte[] list = new byte[length + (closeList ? 2 : 1)];
+      list[0] = '[';
+      System.arraycopy(buf, start, list, 1, length);
+      if (closeList) list[list.length - 1] = ']';
+      return ByteBuffer.wrap(list);
+    }
+
+    static boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+  }
+
+  /**
+   * A proto3 list of spans is a repeated field, so it can be split on any field boundary without
+   * re-encoding.
+   */
+  static final class Proto3 extends SpanListSplitter {
+    int scan, count, batchStart = -1, cursor;
+
+    Proto3(SpanBytesDecoder decoder, int maxBatchSize) {
+      super(decoder, maxBatchSize);
+    }
+
+    @Override void split(Consumer<ByteBuffer> batches) {
+      while (scan < end) {
+        int fieldEnd = fieldEnd(scan);
+        if (fieldEnd == -1) return; // need more data
+        if (batchStart == -1) batchStart = scan;
+        scan = fieldEnd;
+        if (++count == maxBatchSize) {
+          batches.accept(ByteBuffer.wrap(buf, batchStart, scan - batchStart));
+          batchStart = -1;
+          count = 0;
+        }
+      }
+    }
+
+    @Override void finishSplit(Consumer<ByteBuffer> batches) {
+      // A truncated field is left in, so that the decoder raises its usual error
+      int start = batchStart != -1 ? batchStart : scan;
+      if (start < end) batches.accept(ByteBuffer.wrap(buf, start, end - start));
+    }
+
+    @Override int consumed() {
+      return batchStart != -1 ? batchStart : scan;
+    }
+
+    @Override void compact(int count) {
+      if (count == 0) return;
+      super.compact(count);
+      scan -= count;
+      if (batchStart != -1) batchStart -= count;
+    }
+
+    /** Returns the index after the field at {@code pos} or -1 if it isn't fully written, yet. */
+    int fieldEnd(int pos) {
+      cursor = pos;
+      long key = readVarint();
+      if (key == -1) return -1;
+      switch ((int) (key & 0x07)) {
+        case 0: // varint
+          return readVarint() == -1 ? -1 : cursor;
+        case 1: // fixed64
+          return skip(8);
+        case 2: // length-delimited
+          long length = readVarint();
+          if (length == -1) return -1;
+          if (length > Integer.MAX_VALUE) throw malformed();
+          return skip((int) length);
+        case 5: // fixed32
+          return skip(4);
+        default:
+          throw malformed();
+      }
+    }
+
+    int skip(int count) {
+      return end - cursor >= count ? cursor + count : -1;
+    }
+
+    /** Returns the varint at the cursor or -1 if it isn't fully written, yet. */
+    long readVarint() {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (cursor >= end) return -1;
+        byte b = buf[cursor++];
+        result |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          if (result < 0) throw malformed();
+          return result;
+        }
+      }
+      throw malformed();
+    }
+
+    // matches the message raised by Proto3Codec
+    static IllegalArgumentException malformed() {
+      return new IllegalArgumentException("Malformed reading List<Span> from proto3");
+    }
+  }
+}
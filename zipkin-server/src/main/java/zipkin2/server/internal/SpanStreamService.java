@@ -0,0 +1,206 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpHeaders;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.ResponseHeadersBuilder;
+import com.linecorp.armeria.common.grpc.protocol.ArmeriaMessageDeframer;
+import com.linecorp.armeria.common.grpc.protocol.ArmeriaStatusException;
+import com.linecorp.armeria.common.grpc.protocol.DeframedMessage;
+import com.linecorp.armeria.common.grpc.protocol.GrpcHeaderNames;
+import com.linecorp.armeria.common.grpc.protocol.StatusMessageEscaper;
+import com.linecorp.armeria.common.stream.SubscriptionOption;
+import com.linecorp.armeria.common.util.TimeoutMode;
+import com.linecorp.armeria.server.HttpService;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.netty.buffer.ByteBuf;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import zipkin2.Callback;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.collector.Collector;
+import zipkin2.collector.CollectorMetrics;
+
+/**
+ * Client-streaming variant of the Report method, which accepts any number of messages on one call:
+ * {@code rpc ReportStream(stream ListOfSpans) returns (ReportResponse)}.
+ *
+ * <p>At most {@code maxPending} messages are read before their spans are stored. As unread
+ * messages stay in HTTP/2 flow control windows, reporters slow down when storage does, instead of
+ * the server buffering their spans. The call completes after all spans are stored, so a successful
+ * response means none were dropped, except by sampling.
+ *
+ * <p>As a stream is open-ended, the configured request limits apply to each message instead of the
+ * whole call: a message larger than the maximum request length fails the call, as does going
+ * longer than the request timeout without reading a message or storing one.
+ */
+final class SpanStreamService implements HttpService {
+  static final MediaType CONTENT_TYPE = MediaType.parse("application/grpc+proto");
+  static final int OK = 0, INVALID_ARGUMENT = 3, UNIMPLEMENTED = 12, UNAVAILABLE = 14;
+  // A Length-Prefixed-Message of an empty ReportResponse
+  static final byte[] EMPTY_RESPONSE = new byte[5];
+
+  final Collector collector;
+  final CollectorMetrics metrics;
+  final int maxPending;
+  final AtomicInteger activeStreams;
+  final DistributionSummary streamMessages;
+
+  SpanStreamService(Collector collector, CollectorMetrics metrics, int maxPending,
+    AtomicInteger activeStreams, DistributionSummary streamMessages) {
+    this.collector = collector;
+    this.metrics = metrics;
+    this.maxPending = maxPending;
+    this.activeStreams = activeStreams;
+    this.streamMessages = streamMessages;
+  }
+
+  @Override public HttpResponse serve(ServiceRequestContext ctx, HttpRequest req) {
+    if (req.method() != HttpMethod.POST) return HttpResponse.of(HttpStatus.METHOD_NOT_ALLOWED);
+    MediaType contentType = req.headers().contentType();
+    if (contentType == null || !contentType.subtype().startsWith("grpc")
+      || contentType.subtype().startsWith("grpc-web")) {
+      return HttpResponse.of(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    // The deframer enforces the request length per message, so lift the limit on the whole call.
+    int maxMessageLength = (int) Math.min(ctx.maxRequestLength(), Integer.MAX_VALUE);
+    ctx.setMaxRequestLength(0);
+
+    ReportStream stream = new ReportStream(ctx, ctx.requestTimeoutMillis());
+    req.decode(new ArmeriaMessageDeframer(maxMessageLength, ctx.alloc(), false), ctx.alloc())
+      .subscribe(stream, ctx.eventLoop(), SubscriptionOption.WITH_POOLED_OBJECTS);
+    return HttpResponse.of(stream.response);
+  }
+
+  /** State of one call, which is only accessed on its event loop. */
+  final class ReportStream implements Subscriber<DeframedMessage> {
+    final CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+    final ServiceRequestContext ctx;
+    final long idleTimeoutMillis;
+    Subscription subscription;
+    int pending, messages;
+    boolean requestComplete;
+
+    ReportStream(ServiceRequestContext ctx, long idleTimeoutMillis) {
+      this.ctx = ctx;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /** Restarts the request timeout, so that it only fails calls which make no progress. */
+    void resetTimeout() {
+      if (idleTimeoutMillis == 0) return; // no timeout
+      ctx.setRequestTimeout(TimeoutMode.SET_FROM_NOW, Duration.ofMillis(idleTimeoutMillis));
+    }
+
+    @Override public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+      activeStreams.incrementAndGet();
+      subscription.request(maxPending);
+    }
+
+    @Override public void onNext(DeframedMessage message) {
+      ByteBuf bytes = message.buf();
+      if (response.isDone()) { // drain anything in flight when we cancelled
+        message.close();
+        return;
+      }
+      if (bytes == null) { // only when the message is compressed and we have no decompressor
+        message.close();
+        finish(UNIMPLEMENTED, "Compressed messages are not supported");
+        return;
+      }
+      resetTimeout();
+      messages++;
+      pending++;
+      try {
+        metrics.incrementMessages();
+        metrics.incrementBytes(bytes.readableBytes());
+        if (!bytes.isReadable()) { // lenient on empty messages
+          onStored(null);
+          return;
+        }
+        collector.acceptSpansAndStore(bytes.nioBuffer(), SpanBytesDecoder.PROTO3,
+          new Callback<>() {
+            @Override public void onSuccess(Void value) {
+              ctx.eventLoop().execute(() -> onStored(null));
+            }
+
+            @Override public void onError(Throwable t) {
+              ctx.eventLoop().execute(() -> onStored(t));
+            }
+          }, ctx.blockingTaskExecutor());
+      } finally {
+        bytes.release();
+      }
+    }
+
+    void onStored(Throwable error) {
+      pending--;
+      if (response.isDone()) return;
+      resetTimeout(); // slow storage holds back messages, so don't count it as an idle client
+      if (error != null) {
+        finish(error instanceof IllegalArgumentException ? INVALID_ARGUMENT : UNAVAILABLE,
+          error.getMessage());
+      } else if (requestComplete) {
+        if (pending == 0) finish(OK, null);
+      } else {
+        subscription.request(1);
+      }
+    }
+
+    @Override public void onError(Throwable t) {
+      if (t instanceof ArmeriaStatusException) { // ex. a message is larger than the request limit
+        finish(((ArmeriaStatusException) t).getCode(), t.getMessage());
+      } else {
+        finish(UNAVAILABLE, t.getMessage()); // ex. the client cancelled
+      }
+    }
+
+    @Override public void onComplete() {
+      requestComplete = true;
+      if (pending == 0) finish(OK, null);
+    }
+
+    void finish(int status, String message) {
+      if (response.isDone()) return;
+      activeStreams.decrementAndGet();
+      streamMessages.record(messages);
+      if (status != OK) {
+        subscription.cancel();
+        response.complete(HttpResponse.of(headers(status, message)));
+        return;
+      }
+      ResponseHeaders headers = ResponseHeaders.builder(HttpStatus.OK)
+        .contentType(CONTENT_TYPE)
+        .add(GrpcHeaderNames.GRPC_ENCODING, "identity")
+        .build();
+      HttpHeaders trailers = HttpHeaders.of(GrpcHeaderNames.GRPC_STATUS, "0");
+      response.complete(HttpResponse.of(headers, HttpData.wrap(EMPTY_RESPONSE), trailers));
+    }
+  }
+
+  /** Returns "Trailers-Only" headers, which gRPC uses for errors. */
+  static ResponseHeaders headers(int status, String message) {
+    ResponseHeadersBuilder result = ResponseHeaders.builder(HttpStatus.OK)
+      .contentType(CONTENT_TYPE)
+      .add(GrpcHeaderNames.GRPC_STATUS, Integer.toString(status));
+    if (message != null) {
+      result.add(GrpcHeaderNames.GRPC_MESSAGE, StatusMessageEscaper.escape(message));
+    }
+    return result.endOfStream(true).build();
+  }
+}
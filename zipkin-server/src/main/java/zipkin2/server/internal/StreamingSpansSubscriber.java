@@ -0,0 +1,224 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.ContentTooLargeException;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpHeaderNames;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.encoding.StreamDecoder;
+import com.linecorp.armeria.common.encoding.StreamDecoderFactory;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import io.netty.buffer.ByteBufAllocator;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import zipkin2.Callback;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.collector.Collector;
+import zipkin2.collector.CollectorMetrics;
+import zipkin2.collector.ContentEncoding;
+
+import static zipkin2.Call.propagateIfFatal;
+
+/**
+ * Decompresses and decodes a POST body of spans as it arrives, as opposed to aggregating it first.
+ * Spans are forwarded to the collector in batches of {@code maxBatchSize} list elements.
+ *
+ * <p>The body may be compressed with any {@link ContentEncoding}. Snappy uses the framed format.
+ *
+ * <p>Decoding errors are reported the same way as when the body is aggregated. However, batches
+ * preceding a malformed one may have already been forwarded to the collector.
+ *
+ * <p>All signals are received on the request's event loop, so this type isn't thread-safe.
+ */
+final class StreamingSpansSubscriber implements Subscriber<HttpObject> {
+  final ServiceRequestContext ctx;
+  final RequestHeaders headers;
+  final SpanBytesDecoder decoder;
+  final Collector collector;
+  final CollectorMetrics metrics;
+  final Executor executor;
+  final int maxBodySize;
+  final SpanListSplitter splitter;
+  final CompletableCallback result;
+  final Callback<Void> batchCallback = new Callback<>() {
+    @Override public void onSuccess(Void value) {
+    }
+
+    @Override public void onError(Throwable t) {
+      batchError = t;
+    }
+  };
+
+  Subscription subscription;
+  ContentEncoding encoding;
+  StreamDecoder decompressor; // null when the body isn't compressed
+  long compressedSize, bodySize;
+  Throwable batchError;
+  boolean done;
+
+  StreamingSpansSubscriber(ServiceRequestContext ctx, RequestHeaders headers,
+    SpanBytesDecoder decoder, Collector collector, CollectorMetrics metrics, Executor executor,
+    int maxBodySize, int maxBatchSize, CompletableCallback result) {
+    this.ctx = ctx;
+    this.headers = headers;
+    this.decoder = decoder;
+    this.collector = collector;
+    this.metrics = metrics;
+    this.executor = executor;
+    this.maxBodySize = maxBodySize;
+    this.splitter = SpanListSplitter.create(decoder, maxBatchSize);
+    this.result = result;
+  }
+
+  @Override public void onSubscribe(Subscription subscription) {
+    this.subscription = subscription;
+    metrics.incrementMessages();
+    try {
+      encoding = ContentEncoding.forValue(headers.get(HttpHeaderNames.CONTENT_ENCODING));
+      if (encoding != null) decompressor = newDecompressor(encoding, ctx.alloc(), maxBodySize);
+    } catch (Throwable t) {
+      propagateIfFatal(t);
+      fail(t);
+      return;
+    }
+    subscription.request(1);
+  }
+
+  static StreamDecoder newDecompressor(ContentEncoding encoding, ByteBufAllocator alloc,
+    int maxLength) {
+    switch (encoding) {
+      case GZIP:
+        return StreamDecoderFactory.gzip().newDecoder(alloc, maxLength);
+      case DEFLATE:
+        return StreamDecoderFactory.deflate().newDecoder(alloc, maxLength);
+      case BROTLI:
+        return StreamDecoderFactory.brotli().newDecoder(alloc, maxLength);
+      case SNAPPY:
+        return StreamDecoderFactory.snappy().newDecoder(alloc, maxLength);
+      case ZSTD:
+        if (ContentEncoding.ZSTD.isAvailable()) return new ZstdStreamDecoder(alloc, maxLength);
+        // intentional fall through
+      default:
+        throw new IllegalArgumentException("Unsupported Content-Encoding: " + encoding.value());
+    }
+  }
+
+  @Override public void onNext(HttpObject object) {
+    if (done) {
+      if (object instanceof HttpData data) data.close();
+      return;
+    }
+    if (object instanceof HttpData data) {
+      try {
+        read(decompressor != null ? decompress(data) : data);
+      } catch (Throwable t) {
+        propagateIfFatal(t);
+        fail(t);
+        return;
+      }
+    } // otherwise, trailers, which aren't used
+    subscription.request(1);
+  }
+
+  @Override public void onError(Throwable t) {
+    fail(t);
+  }
+
+  @Override public void onComplete() {
+    if (done) return;
+    try {
+      if (decompressor != null) read(finishDecompress());
+      splitter.finish(this::acceptBatch);
+    } catch (Throwable t) {
+      propagateIfFatal(t);
+      fail(t);
+      return;
+    }
+    done = true;
+    if (bodySize == 0) ZipkinHttpCollector.maybeLog("Empty POST body", ctx, headers);
+    metrics.incrementBytes((int) bodySize);
+    if (decompressor != null) {
+      metrics.incrementCompressedBytes(encoding.value(), (int) compressedSize, (int) bodySize);
+    }
+    result.onSuccess(null);
+  }
+
+  /** The decompressor takes ownership of the input data. */
+  HttpData decompress(HttpData data) {
+    compressedSize += data.length();
+    try {
+      return decompressor.decode(data);
+    } catch (ContentTooLargeException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw malformed(e);
+    }
+  }
+
+  HttpData finishDecompress() {
+    try {
+      return decompressor.finish();
+    } catch (ContentTooLargeException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw malformed(e);
+    }
+  }
+
+  IllegalArgumentException malformed(RuntimeException e) {
+    ZipkinHttpCollector.maybeLog("Malformed " + encoding.value() + " body", ctx, headers);
+    if (encoding == ContentEncoding.GZIP) {
+      return new IllegalArgumentException("Cannot gunzip spans", e);
+    }
+    return new IllegalArgumentException("Cannot decompress " + encoding.value() + " spans", e);
+  }
+
+  void read(HttpData data) {
+    try (data) {
+      int length = data.length();
+      if (length == 0) return;
+      bodySize += length;
+      if (maxBodySize > 0 && bodySize > maxBodySize) {
+        throw ContentTooLargeException.builder()
+          .maxContentLength(maxBodySize)
+          .transferred(bodySize)
+          .build();
+      }
+      splitter.write(data.byteBuf().nioBuffer(), this::acceptBatch);
+    }
+  }
+
+  void acceptBatch(ByteBuffer batch) {
+    // The json decoders raise an error on fields of the other version, so no separate scan is
+    // needed to catch a v1 list posted to the v2 endpoint or vice versa.
+    // The collector invokes this callback synchronously, before storage is attempted.
+    collector.acceptSpans(batch, decoder, batchCallback, executor);
+    Throwable error = batchError;
+    if (error instanceof RuntimeException e) throw e;
+    if (error instanceof Error e) throw e;
+    if (error != null) throw new IllegalStateException(error);
+  }
+
+  void fail(Throwable t) {
+    if (done) return;
+    done = true;
+    if (subscription != null) subscription.cancel();
+    if (decompressor != null) releaseDecompressor();
+    if (bodySize > 0) metrics.incrementBytes((int) bodySize);
+    result.onError(t);
+  }
+
+  void releaseDecompressor() {
+    try {
+      decompressor.finish().close();
+    } catch (Throwable t) {
+      propagateIfFatal(t); // otherwise, we are already failing
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static zipkin2.Call.propagateIfFatal;
+
+/**
+ * Writes a list of traces as a chunked JSON array, one trace per chunk. The next trace is encoded
+ * only after the previous chunk was consumed, so a slow client doesn't cause the whole response to
+ * be buffered, and only one encoded trace is in memory at a time.
+ */
+final class StreamingTracesResponse {
+  static HttpResponse create(SpanBytesEncoder codec, List<List<Span>> traces,
+    ByteBufAllocator alloc, Executor executor) {
+    HttpResponseWriter response = HttpResponse.streaming();
+    response.write(ResponseHeaders.builder(200).contentType(MediaType.JSON).build());
+    new StreamingTracesResponse(codec, traces, alloc, executor, response).writeNext();
+    return response;
+  }
+
+  final SpanBytesEncoder codec;
+  final List<List<Span>> traces;
+  final ByteBufAllocator alloc;
+  final Executor executor;
+  final HttpResponseWriter response;
+  int index; // only accessed by one thread at a time, as each write waits for the last
+
+  StreamingTracesResponse(SpanBytesEncoder codec, List<List<Span>> traces,
+    ByteBufAllocator alloc, Executor executor, HttpResponseWriter response) {
+    this.codec = codec;
+    this.traces = traces;
+    this.alloc = alloc;
+    this.executor = executor;
+    this.response = response;
+  }
+
+  void writeNext() {
+    ByteBuf buf = null;
+    try {
+      buf = encodeNext();
+      if (!response.tryWrite(HttpData.wrap(buf))) {
+        buf.release(); // the client went away
+        return;
+      }
+    } catch (Throwable e) {
+      propagateIfFatal(e);
+      if (buf != null) buf.release();
+      response.close(e);
+      return;
+    }
+
+    if (index == traces.size()) {
+      response.close();
+      return;
+    }
+    // Encoding can be expensive, so continue on the executor, not the event loop.
+    response.whenConsumed().thenRunAsync(this::writeNext, executor);
+  }
+
+  /**
+   * Encodes the next trace, including the opening bracket or separating comma before it, and the
+   * closing bracket after the last.
+   */
+  ByteBuf encodeNext() {
+    int length = traces.size();
+    if (length == 0) {
+      ByteBuf buf = alloc.heapBuffer(2);
+      return buf.writeByte('[').writeByte(']');
+    }
+
+    List<Span> trace = traces.get(index++);
+    int sizeInBytes = 1; // '[' or ','
+    if (index == length) sizeInBytes++; // ']'
+    sizeInBytes += 2; // []
+    if (trace.size() > 1) sizeInBytes += trace.size() - 1; // comma to join elements
+    for (int i = 0, jLength = trace.size(); i < jLength; i++) {
+      sizeInBytes += codec.sizeInBytes(trace.get(i));
+    }
+
+    ByteBuf buf = alloc.heapBuffer(sizeInBytes);
+    try {
+      buf.writeByte(index == 1 ? '[' : ',');
+      int written = codec.encodeList(trace, buf.array(), buf.arrayOffset() + buf.writerIndex());
+      buf.writerIndex(buf.writerIndex() + written);
+      if (index == length) buf.writeByte(']');
+      return buf;
+    } catch (Throwable e) {
+      buf.release();
+      throw e;
+    }
+  }
+}
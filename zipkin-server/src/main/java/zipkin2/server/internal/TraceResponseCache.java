@@ -0,0 +1,131 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+
+/**
+ * Caches encoded responses of {@code /api/v2/trace/{traceId}}, for traces unlikely to change
+ * because their newest span ended longer ago than the settle time. This avoids storage queries
+ * when the same traces are viewed repeatedly, such as during an incident.
+ *
+ * <p>The cache is bounded by the bytes of responses it holds, evicting the least recently used.
+ * Responses also expire after a time to live, as spans can still arrive late, ex. from a backlog.
+ * Such a span is visible no later than the time to live after the response was cached.
+ */
+final class TraceResponseCache {
+  /** An encoded response and when it expires. */
+  static final class CachedResponse {
+    final byte[] bytes;
+    final long expiresMillis;
+
+    CachedResponse(byte[] bytes, long expiresMillis) {
+      this.bytes = bytes;
+      this.expiresMillis = expiresMillis;
+    }
+  }
+
+  final long maxBytes, settleMicros, ttlMillis;
+  final LongSupplier currentTimeMillis;
+  final Counter hits, misses, evictions;
+
+  /** Access-ordered, so that iteration starts with the least recently used. Guarded by this. */
+  final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+  long bytes; // guarded by this
+
+  TraceResponseCache(long maxBytes, long settleMillis, long ttlMillis, MeterRegistry registry) {
+    this(maxBytes, settleMillis, ttlMillis, registry, System::currentTimeMillis);
+  }
+
+  TraceResponseCache(long maxBytes, long settleMillis, long ttlMillis, MeterRegistry registry,
+    LongSupplier currentTimeMillis) {
+    if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+    if (settleMillis < 0) throw new IllegalArgumentException("settleMillis < 0");
+    if (ttlMillis <= 0) throw new IllegalArgumentException("ttlMillis <= 0");
+    this.maxBytes = maxBytes;
+    this.settleMicros = TimeUnit.MILLISECONDS.toMicros(settleMillis);
+    this.ttlMillis = ttlMillis;
+    this.currentTimeMillis = currentTimeMillis;
+
+    String prefix = "zipkin_query.trace_cache";
+    Gauge.builder(prefix + ".bytes", this, TraceResponseCache::bytes)
+      .description("bytes of trace responses cached")
+      .register(registry);
+    hits = Counter.builder(prefix + ".requests")
+      .description("cumulative amount of trace requests, by whether they were cached")
+      .tag("result", "hit")
+      .register(registry);
+    misses = Counter.builder(prefix + ".requests")
+      .description("cumulative amount of trace requests, by whether they were cached")
+      .tag("result", "miss")
+      .register(registry);
+    evictions = Counter.builder(prefix + ".evictions")
+      .description("cumulative amount of trace responses evicted to stay within max bytes")
+      .register(registry);
+  }
+
+  /** Returns the cached response for a normalized trace ID, or null if it should be queried. */
+  @Nullable byte[] get(String traceId) {
+    byte[] result = null;
+    long now = currentTimeMillis.getAsLong();
+    synchronized (this) {
+      CachedResponse cached = responses.get(traceId);
+      if (cached != null && now >= cached.expiresMillis) {
+        responses.remove(traceId);
+        bytes -= cached.bytes.length;
+      } else if (cached != null) {
+        result = cached.bytes;
+      }
+    }
+    (result != null ? hits : misses).increment();
+    return result;
+  }
+
+  /** Caches the response if the trace has settled and the response fits. */
+  void maybePut(String traceId, List<Span> trace, byte[] response) {
+    if (response.length > maxBytes || !isSettled(trace)) return;
+    CachedResponse cached =
+      new CachedResponse(response, currentTimeMillis.getAsLong() + ttlMillis);
+    int evicted = 0;
+    synchronized (this) {
+      CachedResponse previous = responses.put(traceId, cached);
+      if (previous != null) bytes -= previous.bytes.length;
+      bytes += response.length;
+      for (Iterator<Map.Entry<String, CachedResponse>> i = responses.entrySet().iterator();
+        bytes > maxBytes && i.hasNext(); ) {
+        bytes -= i.next().getValue().bytes.length;
+        i.remove();
+        evicted++;
+      }
+    }
+    if (evicted > 0) evictions.increment(evicted);
+  }
+
+  /** True when the newest span ended before the settle time. Spans without timestamps aren't. */
+  boolean isSettled(List<Span> trace) {
+    long newestMicros = 0L;
+    for (Span span : trace) {
+      long timestamp = span.timestampAsLong();
+      if (timestamp == 0L) return false;
+      newestMicros = Math.max(newestMicros, timestamp + span.durationAsLong());
+    }
+    long nowMicros = TimeUnit.MILLISECONDS.toMicros(currentTimeMillis.getAsLong());
+    return newestMicros != 0L && nowMicros - newestMicros >= settleMicros;
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+}
@@ -5,6 +5,7 @@
 package zipkin2.server.internal;
 
 import brave.Tracing;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.util.List;
 import org.springframework.beans.BeansException;
@@ -13,6 +14,7 @@ import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Condition;
@@ -20,9 +22,17 @@ import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Import;
 import org.springframework.core.type.AnnotatedTypeMetadata;
+import zipkin2.collector.AdaptiveCollectorSampler;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.RuleBasedCollectorSampler;
 import zipkin2.server.internal.brave.TracingStorageComponent;
+import zipkin2.server.internal.namescache.NamesCacheStorageComponent;
+import zipkin2.server.internal.namescache.ZipkinNamesCacheProperties;
+import zipkin2.server.internal.spanlimits.SpanLimitsStorageComponent;
+import zipkin2.server.internal.spanlimits.ZipkinSpanLimitsProperties;
+import zipkin2.server.internal.tailsampling.TailSamplingStorageComponent;
+import zipkin2.server.internal.tailsampling.ZipkinTailSamplingProperties;
 import zipkin2.server.internal.throttle.ThrottledStorageComponent;
 import zipkin2.server.internal.throttle.ZipkinStorageThrottleProperties;
 import zipkin2.storage.InMemoryStorage;
@@ -32,12 +42,43 @@ import zipkin2.storage.StorageComponent;
 @Import({
   ZipkinConfiguration.InMemoryConfiguration.class,
   ZipkinConfiguration.ThrottledStorageComponentEnhancer.class,
-  ZipkinConfiguration.TracingStorageComponentEnhancer.class
+  ZipkinConfiguration.TracingStorageComponentEnhancer.class,
+  ZipkinConfiguration.NamesCacheStorageComponentEnhancer.class,
+  ZipkinConfiguration.TailSamplingStorageComponentEnhancer.class,
+  ZipkinConfiguration.SpanLimitsStorageComponentEnhancer.class
 })
 public class ZipkinConfiguration {
 
-  @Bean CollectorSampler traceIdSampler(@Value("${zipkin.collector.sample-rate:1.0}") float rate) {
-    return CollectorSampler.create(rate);
+  @Bean CollectorSampler traceIdSampler(@Value("${zipkin.collector.sample-rate:1.0}") float rate,
+    @Value("${zipkin.collector.sample-spans-per-second:0}") int spansPerSecond,
+    @Value("${zipkin.collector.sample-window-seconds:10}") int windowSeconds,
+    @Value("${zipkin.collector.sample-min-spans-per-second-per-service:0}")
+    int minSpansPerSecondPerService,
+    @Value("${zipkin.collector.sample-rules:}") String rules,
+    @Value("${zipkin.collector.sample-rules-max-traces:65536}") int rulesMaxTraces,
+    MeterRegistry registry) {
+    CollectorSampler result = CollectorSampler.create(rate);
+    if (spansPerSecond > 0) {
+      // The fixed rate becomes the highest rate, used when under budget.
+      AdaptiveCollectorSampler adaptive = AdaptiveCollectorSampler.newBuilder()
+        .spansPerSecond(spansPerSecond)
+        .windowSeconds(windowSeconds)
+        .minSpansPerSecondPerService(minSpansPerSecondPerService)
+        .maxRate(rate)
+        .build();
+      Gauge.builder("zipkin_collector.sample_rate", adaptive, AdaptiveCollectorSampler::rate)
+        .description("rate of traces currently sampled to stay within the spans per second budget")
+        .register(registry);
+      result = adaptive;
+    }
+    if (rules.isBlank()) return result;
+
+    // Spans that match no rule are sampled as if there were no rules.
+    return RuleBasedCollectorSampler.newBuilder()
+      .addRules(rules)
+      .fallback(result)
+      .maxTraces(rulesMaxTraces)
+      .build();
   }
 
   @Bean CollectorMetrics metrics(MeterRegistry registry) {
@@ -64,9 +105,7 @@ public class ZipkinConfiguration {
         return new ThrottledStorageComponent(component,
           beanFactory.getBean(MeterRegistry.class),
           beanFactory.containsBean("tracing") ? beanFactory.getBean(Tracing.class) : null,
-          throttleProperties.getMinConcurrency(),
-          throttleProperties.getMaxConcurrency(),
-          throttleProperties.getMaxQueueSize());
+          throttleProperties);
       }
       return bean;
     }
@@ -103,6 +142,75 @@ public class ZipkinConfiguration {
     }
   }
 
+  /**
+   * Imported before tail sampling, so that only names of spans kept are added to the cache. Names
+   * don't apply when search is disabled, so there's nothing to cache.
+   */
+  @EnableConfigurationProperties(ZipkinNamesCacheProperties.class)
+  @ConditionalOnProperty(name = "zipkin.query.names-cache.enabled", havingValue = "true")
+  @ConditionalOnProperty(name = "zipkin.storage.search-enabled", havingValue = "true",
+    matchIfMissing = true)
+  static class NamesCacheStorageComponentEnhancer implements BeanPostProcessor, BeanFactoryAware {
+    BeanFactory beanFactory;
+
+    @Override public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (bean instanceof StorageComponent component) {
+        return new NamesCacheStorageComponent(component,
+          beanFactory.getBean(ZipkinNamesCacheProperties.class));
+      }
+      return bean;
+    }
+
+    @Override public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+      this.beanFactory = beanFactory;
+    }
+  }
+
+  /**
+   * Imported after throttling and tracing, so that traces it keeps are still throttled and traced
+   * when stored. Collectors write to storage after head sampling, so this sees spans of all
+   * transports.
+   */
+  @EnableConfigurationProperties(ZipkinTailSamplingProperties.class)
+  @ConditionalOnProperty(name = "zipkin.collector.tail-sampling.enabled", havingValue = "true")
+  static class TailSamplingStorageComponentEnhancer
+    implements BeanPostProcessor, BeanFactoryAware {
+    BeanFactory beanFactory;
+
+    @Override public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (bean instanceof StorageComponent component) {
+        return new TailSamplingStorageComponent(component,
+          beanFactory.getBean(ZipkinTailSamplingProperties.class),
+          beanFactory.getBean(MeterRegistry.class));
+      }
+      return bean;
+    }
+
+    @Override public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+      this.beanFactory = beanFactory;
+    }
+  }
+
+  /** Imported last, so that spans are limited before they are buffered for tail sampling. */
+  @EnableConfigurationProperties(ZipkinSpanLimitsProperties.class)
+  @ConditionalOnProperty(name = "zipkin.collector.span-limits.enabled", havingValue = "true")
+  static class SpanLimitsStorageComponentEnhancer implements BeanPostProcessor, BeanFactoryAware {
+    BeanFactory beanFactory;
+
+    @Override public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (bean instanceof StorageComponent component) {
+        return new SpanLimitsStorageComponent(component,
+          beanFactory.getBean(ZipkinSpanLimitsProperties.class),
+          beanFactory.getBean(MeterRegistry.class));
+      }
+      return bean;
+    }
+
+    @Override public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+      this.beanFactory = beanFactory;
+    }
+  }
+
   /**
    * This is a special-case configuration if there's no StorageComponent of any kind. In-Mem can
    * supply both read apis, so we add two beans here.
@@ -7,10 +7,15 @@ package zipkin2.server.internal;
 import com.linecorp.armeria.server.ServiceRequestContext;
 import com.linecorp.armeria.server.grpc.protocol.AbstractUnsafeUnaryGrpcService;
 import com.linecorp.armeria.spring.ArmeriaServerConfigurator;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import zipkin2.Callback;
@@ -25,7 +30,8 @@ import zipkin2.storage.StorageComponent;
 final class ZipkinGrpcCollector {
 
   @Bean ArmeriaServerConfigurator grpcCollectorConfigurator(StorageComponent storage,
-    CollectorSampler sampler, CollectorMetrics metrics) {
+    CollectorSampler sampler, CollectorMetrics metrics, MeterRegistry registry,
+    @Value("${zipkin.collector.grpc.stream-max-pending:4}") int streamMaxPending) {
     CollectorMetrics grpcMetrics = metrics.forTransport("grpc");
     Collector collector = Collector.newBuilder(getClass())
       .storage(storage)
@@ -33,8 +39,22 @@ final class ZipkinGrpcCollector {
       .metrics(grpcMetrics)
       .build();
 
-    return sb ->
+    AtomicInteger activeStreams = new AtomicInteger();
+    Gauge.builder("zipkin_collector.streams", activeStreams, AtomicInteger::get)
+      .description("count of streaming calls in progress")
+      .tag("transport", "grpc")
+      .register(registry);
+    DistributionSummary streamMessages =
+      DistributionSummary.builder("zipkin_collector.stream_messages")
+        .description("count of messages received per streaming call")
+        .tag("transport", "grpc")
+        .register(registry);
+
+    return sb -> {
       sb.service("/zipkin.proto3.SpanService/Report", new SpanService(collector, grpcMetrics));
+      sb.service("/zipkin.proto3.SpanService/ReportStream", new SpanStreamService(
+        collector, grpcMetrics, streamMaxPending, activeStreams, streamMessages));
+    };
   }
 
   static final class SpanService extends AbstractUnsafeUnaryGrpcService {
@@ -8,6 +8,7 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.linecorp.armeria.common.AggregatedHttpResponse;
 import com.linecorp.armeria.common.HttpData;
 import com.linecorp.armeria.common.HttpHeaderNames;
+import com.linecorp.armeria.common.HttpResponse;
 import com.linecorp.armeria.common.MediaType;
 import com.linecorp.armeria.common.ResponseHeaders;
 import com.linecorp.armeria.common.ResponseHeadersBuilder;
@@ -17,6 +18,7 @@ import com.linecorp.armeria.server.annotation.Default;
 import com.linecorp.armeria.server.annotation.ExceptionHandler;
 import com.linecorp.armeria.server.annotation.Get;
 import com.linecorp.armeria.server.annotation.Param;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufOutputStream;
@@ -35,6 +37,7 @@ import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.codec.DependencyLinkBytesEncoder;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.Nullable;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.StorageComponent;
 
@@ -46,6 +49,8 @@ import static com.linecorp.armeria.common.MediaType.ANY_TEXT_TYPE;
 @ConditionalOnProperty(name = "zipkin.query.enabled", matchIfMissing = true)
 @ExceptionHandler(BodyIsExceptionMessage.class)
 public class ZipkinQueryApiV2 {
+  static final byte[] EMPTY_LIST = {'[', ']'};
+
   final String storageType;
   final StorageComponent storage; // don't cache spanStore here as it can cause the app to crash!
   final long defaultLookback;
@@ -55,6 +60,7 @@ public class ZipkinQueryApiV2 {
    */
   final int namesMaxAge;
   final List<String> autocompleteKeys;
+  @Nullable final TraceResponseCache traceCache;
 
   volatile int serviceCount; // used as a threshold to start returning cache-control headers
 
@@ -63,13 +69,21 @@ public class ZipkinQueryApiV2 {
     @Value("${zipkin.storage.type:mem}") String storageType,
     @Value("${zipkin.query.lookback:86400000}") long defaultLookback, // 1 day in millis
     @Value("${zipkin.query.names-max-age:300}") int namesMaxAge, // 5 minutes
-    @Value("${zipkin.storage.autocomplete-keys:}") List<String> autocompleteKeys
+    @Value("${zipkin.storage.autocomplete-keys:}") List<String> autocompleteKeys,
+    @Value("${zipkin.query.trace-cache-max-bytes:0}") long traceCacheMaxBytes,
+    @Value("${zipkin.query.trace-cache-settle-millis:300000}") long traceCacheSettleMillis,
+    @Value("${zipkin.query.trace-cache-ttl-millis:300000}") long traceCacheTtlMillis,
+    MeterRegistry registry
   ) {
     this.storage = storage;
     this.storageType = storageType;
     this.defaultLookback = defaultLookback;
     this.namesMaxAge = namesMaxAge;
     this.autocompleteKeys = autocompleteKeys;
+    this.traceCache = traceCacheMaxBytes > 0
+      ? new TraceResponseCache(traceCacheMaxBytes, traceCacheSettleMillis, traceCacheTtlMillis,
+        registry)
+      : null;
   }
 
   @Get("/api/v2/dependencies")
@@ -111,7 +125,7 @@ public class ZipkinQueryApiV2 {
 
   @Get("/api/v2/traces")
   @Blocking
-  public AggregatedHttpResponse getTraces(
+  public HttpResponse getTraces(
     @Param("serviceName") Optional<String> serviceName,
     @Param("remoteServiceName") Optional<String> remoteServiceName,
     @Param("spanName") Optional<String> spanName,
@@ -120,7 +134,8 @@ public class ZipkinQueryApiV2 {
     @Param("maxDuration") Optional<Long> maxDuration,
     @Param("endTs") Optional<Long> endTs,
     @Param("lookback") Optional<Long> lookback,
-    @Default("10") @Param("limit") int limit)
+    @Default("10") @Param("limit") int limit,
+    ServiceRequestContext ctx)
     throws IOException {
     QueryRequest queryRequest =
       QueryRequest.newBuilder()
@@ -136,7 +151,7 @@ public class ZipkinQueryApiV2 {
         .build();
 
     List<List<Span>> traces = storage.spanStore().getTraces(queryRequest).execute();
-    return jsonResponse(writeTraces(SpanBytesEncoder.JSON_V2, traces));
+    return streamTraces(traces, ctx);
   }
 
   @Get("/api/v2/trace/{traceId}")
@@ -144,33 +159,50 @@ public class ZipkinQueryApiV2 {
   public AggregatedHttpResponse getTrace(@Param("traceId") String traceId) throws IOException {
     traceId = traceId != null ? traceId.trim() : null;
     traceId = Span.normalizeTraceId(traceId);
+    byte[] cached = traceCache != null ? traceCache.get(traceId) : null;
+    if (cached != null) return jsonResponse(cached);
+
     List<Span> trace = storage.traces().getTrace(traceId).execute();
     if (trace.isEmpty()) {
       return AggregatedHttpResponse.of(NOT_FOUND, ANY_TEXT_TYPE, traceId + " not found");
     }
-    return jsonResponse(SpanBytesEncoder.JSON_V2.encodeList(trace));
+    byte[] response = SpanBytesEncoder.JSON_V2.encodeList(trace);
+    if (traceCache != null) traceCache.maybePut(traceId, trace, response);
+    return jsonResponse(response);
   }
 
   @Get("/api/v2/traceMany")
   @Blocking
-  public AggregatedHttpResponse getTraces(@Param("traceIds") String traceIds) throws IOException {
+  public HttpResponse getTraces(@Param("traceIds") String traceIds, ServiceRequestContext ctx)
+    throws IOException {
     if (traceIds.isEmpty()) {
-      return AggregatedHttpResponse.of(BAD_REQUEST, ANY_TEXT_TYPE, "traceIds parameter is empty");
+      return HttpResponse.of(BAD_REQUEST, ANY_TEXT_TYPE, "traceIds parameter is empty");
     }
 
     Set<String> normalized = new LinkedHashSet<>();
     for (String traceId : traceIds.split(",", 1000)) {
       if (normalized.add(Span.normalizeTraceId(traceId))) continue;
-      return AggregatedHttpResponse.of(BAD_REQUEST, ANY_TEXT_TYPE, "redundant traceId: " + traceId);
+      return HttpResponse.of(BAD_REQUEST, ANY_TEXT_TYPE, "redundant traceId: " + traceId);
     }
 
     if (normalized.size() == 1) {
-      return AggregatedHttpResponse.of(BAD_REQUEST, ANY_TEXT_TYPE,
+      return HttpResponse.of(BAD_REQUEST, ANY_TEXT_TYPE,
         "Use /api/v2/trace/{traceId} endpoint to retrieve a single trace");
     }
 
     List<List<Span>> traces = storage.traces().getTraces(normalized).execute();
-    return jsonResponse(writeTraces(SpanBytesEncoder.JSON_V2, traces));
+    return streamTraces(traces, ctx);
+  }
+
+  /**
+   * Traces can be large, so they are encoded one at a time as the client reads them, instead of
+   * into one array for the whole response.
+   */
+  static HttpResponse streamTraces(List<List<Span>> traces, ServiceRequestContext ctx) {
+    // Nothing to stream, so respond with a fixed length which avoids chunking and compression.
+    if (traces.isEmpty()) return jsonResponse(EMPTY_LIST).toHttpResponse();
+    return StreamingTracesResponse.create(SpanBytesEncoder.JSON_V2, traces, ctx.alloc(),
+      ctx.blockingTaskExecutor());
   }
 
   static AggregatedHttpResponse jsonResponse(byte[] body) {
@@ -227,32 +259,4 @@ public class ZipkinQueryApiV2 {
     }
     return AggregatedHttpResponse.of(headers.build(), HttpData.wrap(buf));
   }
-
-  // This is inlined here as there isn't enough re-use to warrant it being in the zipkin2 library
-  static byte[] writeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
-    // Get the encoded size of the nested list so that we don't need to grow the buffer
-    int length = traces.size();
-    int sizeInBytes = 2; // []
-    if (length > 1) sizeInBytes += length - 1; // comma to join elements
-
-    for (int i = 0; i < length; i++) {
-      List<zipkin2.Span> spans = traces.get(i);
-      int jLength = spans.size();
-      sizeInBytes += 2; // []
-      if (jLength > 1) sizeInBytes += jLength - 1; // comma to join elements
-      for (int j = 0; j < jLength; j++) {
-        sizeInBytes += codec.sizeInBytes(spans.get(j));
-      }
-    }
-
-    byte[] out = new byte[sizeInBytes];
-    int pos = 0;
-    out[pos++] = '['; // start list of traces
-    for (int i = 0; i < length; i++) {
-      pos += codec.encodeList(traces.get(i), out, pos);
-      if (i + 1 < length) out[pos++] = ',';
-    }
-    out[pos] = ']'; // stop list of traces
-    return out;
-  }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.linecorp.armeria.common.ContentTooLargeException;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.encoding.StreamDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.nio.ByteBuffer;
+import zipkin2.collector.ContentEncoding;
+
+/**
+ * Armeria doesn't include a zstd decoder, so this streams one with zstd-jni. Decompression contexts
+ * are shared with other transports via {@link ContentEncoding.ZstdContexts}.
+ *
+ * <p>zstd-jni isn't in the slim build, so check {@link ContentEncoding#isAvailable()} on {@link
+ * ContentEncoding#ZSTD} before creating this.
+ */
+final class ZstdStreamDecoder implements StreamDecoder {
+  final ByteBufAllocator alloc;
+  final int maxLength;
+  ZstdDecompressCtx ctx; // null when finished
+  long decodedLength;
+  boolean readAny, frameComplete;
+
+  ZstdStreamDecoder(ByteBufAllocator alloc, int maxLength) {
+    this.alloc = alloc;
+    this.maxLength = maxLength;
+    this.ctx = ContentEncoding.ZstdContexts.acquire();
+  }
+
+  /** Takes ownership of the input, returning data the caller owns. */
+  @Override public HttpData decode(HttpData data) {
+    if (ctx == null) throw new IllegalStateException("finished");
+    ByteBuf in = null, out = null;
+    try (data) {
+      if (data.isEmpty()) return HttpData.empty();
+      readAny = true;
+
+      // zstd-jni streams between direct buffers
+      in = alloc.directBuffer(data.length());
+      in.writeBytes(data.byteBuf());
+      ByteBuffer src = in.nioBuffer();
+
+      out = alloc.directBuffer(Math.max(8192, data.length() * 4));
+      while (true) {
+        ByteBuffer dst = out.nioBuffer(out.writerIndex(), out.writableBytes());
+        frameComplete = ctx.decompressDirectByteBufferStream(dst, src);
+        out.writerIndex(out.writerIndex() + dst.position());
+        decodedLength += dst.position();
+        if (maxLength > 0 && decodedLength > maxLength) {
+          throw ContentTooLargeException.builder()
+            .maxContentLength(maxLength)
+            .transferred(decodedLength)
+            .build();
+        }
+        // Once all input is consumed, output is only pending when there was no room for it.
+        if (!src.hasRemaining() && out.isWritable()) break;
+        out.ensureWritable(out.capacity());
+      }
+      HttpData result = HttpData.wrap(out);
+      out = null;
+      return result;
+    } finally {
+      if (in != null) in.release();
+      if (out != null) out.release();
+    }
+  }
+
+  @Override public HttpData finish() {
+    if (ctx == null) return HttpData.empty();
+    ZstdDecompressCtx finished = ctx;
+    ctx = null;
+    ContentEncoding.ZstdContexts.release(finished);
+    if (readAny && !frameComplete) throw new IllegalArgumentException("Truncated zstd stream");
+    return HttpData.empty();
+  }
+
+  @Override public int maxLength() {
+    return maxLength;
+  }
+}
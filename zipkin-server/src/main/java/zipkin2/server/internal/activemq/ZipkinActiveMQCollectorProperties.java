@@ -26,6 +26,15 @@ class ZipkinActiveMQCollectorProperties {
   /** Number of concurrent span consumers */
   private Integer concurrency;
 
+  /** When positive, messages are stored in batches of up to this count, committed once stored */
+  private Integer batchSize;
+
+  /** Maximum time to wait for more messages once a batch has started */
+  private Integer batchTimeoutMillis;
+
+  /** Messages the broker sends to each consumer ahead of it reading them */
+  private Integer prefetch;
+
   /** Login user of the broker. */
   private String username;
 
@@ -72,6 +81,30 @@ class ZipkinActiveMQCollectorProperties {
     this.concurrency = concurrency;
   }
 
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(Integer batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public Integer getBatchTimeoutMillis() {
+    return batchTimeoutMillis;
+  }
+
+  public void setBatchTimeoutMillis(Integer batchTimeoutMillis) {
+    this.batchTimeoutMillis = batchTimeoutMillis;
+  }
+
+  public Integer getPrefetch() {
+    return prefetch;
+  }
+
+  public void setPrefetch(Integer prefetch) {
+    this.prefetch = prefetch;
+  }
+
   public String getUsername() {
     return username;
   }
@@ -92,6 +125,9 @@ class ZipkinActiveMQCollectorProperties {
     final ActiveMQCollector.Builder result = ActiveMQCollector.builder();
     if (concurrency != null) result.concurrency(concurrency);
     if (queue != null) result.queue(queue);
+    if (batchSize != null) result.batchSize(batchSize);
+    if (batchTimeoutMillis != null) result.batchTimeoutMillis(batchTimeoutMillis);
+    if (prefetch != null) result.prefetch(prefetch);
 
     ActiveMQConnectionFactory connectionFactory;
     if (username != null) {
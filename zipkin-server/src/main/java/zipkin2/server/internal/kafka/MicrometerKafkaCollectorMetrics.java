@@ -0,0 +1,92 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.kafka;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.common.TopicPartition;
+import zipkin2.collector.kafka.KafkaCollectorMetrics;
+
+/**
+ * Exports the following, in addition to the "zipkin_collector" metrics of the kafka transport:
+ *
+ * <pre>
+ * <ul>
+ *     <li>gauge.zipkin_collector.lag.kafka.$topic.$partition - records of an assigned partition
+ * yet to be consumed</li>
+ *     <li>distribution.zipkin_collector.poll_records.kafka - records returned by a poll</li>
+ *     <li>distribution.zipkin_collector.poll_bytes.kafka - bytes of records returned by a
+ * poll</li>
+ *     <li>timer.zipkin_collector.poll.kafka - time spent polling for records</li>
+ *     <li>timer.zipkin_collector.poll_to_stored.kafka - time from a poll returning until all
+ * spans in its records were stored</li>
+ * </ul>
+ * </pre>
+ */
+final class MicrometerKafkaCollectorMetrics implements KafkaCollectorMetrics {
+  final MeterRegistry registry;
+  final ConcurrentMap<TopicPartition, Lag> lag = new ConcurrentHashMap<>();
+  final DistributionSummary pollRecords, pollBytes;
+  final Timer poll, pollToStored;
+
+  MicrometerKafkaCollectorMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    pollRecords = DistributionSummary.builder("zipkin_collector.poll_records")
+      .description("count of records returned by a poll")
+      .tag("transport", "kafka")
+      .register(registry);
+    pollBytes = DistributionSummary.builder("zipkin_collector.poll_bytes")
+      .description("size of records returned by a poll")
+      .tag("transport", "kafka")
+      .baseUnit("bytes")
+      .register(registry);
+    poll = Timer.builder("zipkin_collector.poll")
+      .description("time spent polling for records")
+      .tag("transport", "kafka")
+      .register(registry);
+    pollToStored = Timer.builder("zipkin_collector.poll_to_stored")
+      .description("time from a poll returning until all spans in its records were stored")
+      .tag("transport", "kafka")
+      .register(registry);
+  }
+
+  @Override public void recordPoll(int records, long bytes, long nanos) {
+    pollRecords.record(records);
+    pollBytes.record(bytes);
+    poll.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override public void recordLag(TopicPartition partition, long value) {
+    lag.computeIfAbsent(partition, Lag::new).value.set(value);
+  }
+
+  @Override public void removeLag(TopicPartition partition) {
+    Lag removed = lag.remove(partition);
+    if (removed != null) registry.remove(removed.gauge);
+  }
+
+  @Override public void recordPollToStored(long nanos) {
+    pollToStored.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  final class Lag {
+    final AtomicLong value = new AtomicLong();
+    final Gauge gauge;
+
+    Lag(TopicPartition partition) {
+      gauge = Gauge.builder("zipkin_collector.lag", value, AtomicLong::get)
+        .description("records of an assigned partition yet to be consumed")
+        .tags("transport", "kafka", "topic", partition.topic(),
+          "partition", String.valueOf(partition.partition()))
+        .register(registry);
+    }
+  }
+}
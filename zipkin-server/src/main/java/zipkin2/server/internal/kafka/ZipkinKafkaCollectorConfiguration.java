@@ -4,6 +4,8 @@
  */
 package zipkin2.server.internal.kafka;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Optional;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -30,9 +32,14 @@ public class ZipkinKafkaCollectorConfiguration { // makes simple type name uniqu
       ZipkinKafkaCollectorProperties properties,
       CollectorSampler sampler,
       CollectorMetrics metrics,
+      Optional<MeterRegistry> meterRegistry,
       StorageComponent storage) {
-    return properties.toBuilder().sampler(sampler).metrics(metrics).storage(storage).build();
+    KafkaCollector.Builder builder =
+      properties.toBuilder().sampler(sampler).metrics(metrics).storage(storage);
+    meterRegistry.ifPresent(r -> builder.kafkaMetrics(new MicrometerKafkaCollectorMetrics(r)));
+    return builder.build();
   }
+
   /**
    * This condition passes when {@link ZipkinKafkaCollectorProperties#getBootstrapServers()} is set
    * to non-empty.
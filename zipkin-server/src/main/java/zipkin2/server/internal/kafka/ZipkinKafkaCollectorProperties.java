@@ -19,6 +19,14 @@ class ZipkinKafkaCollectorProperties {
   private String topic;
   /** Number of Kafka consumer threads to run. */
   private Integer streams;
+  /** Number of threads decoding and storing polled records, shared by all streams. */
+  private Integer decodeThreads;
+  /** Maximum count of spans in one storage request. */
+  private Integer maxBatchSize;
+  /** Whether to commit offsets only after spans are stored. */
+  private Boolean commitAfterStorage;
+  /** Maximum count of spans waiting for storage before consumption is paused. */
+  private Integer maxPendingSpans;
   /** Additional Kafka consumer configuration. */
   private Map<String, String> overrides = new LinkedHashMap<>();
 
@@ -54,6 +62,38 @@ class ZipkinKafkaCollectorProperties {
     this.streams = streams;
   }
 
+  public Integer getDecodeThreads() {
+    return decodeThreads;
+  }
+
+  public void setDecodeThreads(Integer decodeThreads) {
+    this.decodeThreads = decodeThreads;
+  }
+
+  public Integer getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public void setMaxBatchSize(Integer maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public Boolean getCommitAfterStorage() {
+    return commitAfterStorage;
+  }
+
+  public void setCommitAfterStorage(Boolean commitAfterStorage) {
+    this.commitAfterStorage = commitAfterStorage;
+  }
+
+  public Integer getMaxPendingSpans() {
+    return maxPendingSpans;
+  }
+
+  public void setMaxPendingSpans(Integer maxPendingSpans) {
+    this.maxPendingSpans = maxPendingSpans;
+  }
+
   public Map<String, String> getOverrides() {
     return overrides;
   }
@@ -68,6 +108,10 @@ class ZipkinKafkaCollectorProperties {
     if (groupId != null) result.groupId(groupId);
     if (topic != null) result.topic(topic);
     if (streams != null) result.streams(streams);
+    if (decodeThreads != null) result.decodeThreads(decodeThreads);
+    if (maxBatchSize != null) result.maxBatchSize(maxBatchSize);
+    if (commitAfterStorage != null) result.commitAfterStorage(commitAfterStorage);
+    if (maxPendingSpans != null) result.maxPendingSpans(maxPendingSpans);
     if (overrides != null) result.overrides(overrides);
     return result;
   }
@@ -0,0 +1,206 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.namescache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.storage.ForwardingStorageComponent;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Delegating implementation that caches {@link ServiceAndSpanNames} in memory. The first request
+ * for names queries storage. Later requests return cached names immediately, and once they are
+ * older than the refresh interval, also start a background query to refresh them.
+ *
+ * <p>Names of spans written through this are added to cached names as they arrive, so new
+ * services and span names show up before the next refresh. Names no longer in storage, for
+ * example due to retention, are removed on refresh.
+ */
+public final class NamesCacheStorageComponent extends ForwardingStorageComponent {
+  static final Logger LOG = LoggerFactory.getLogger(NamesCacheStorageComponent.class);
+
+  final StorageComponent delegate;
+  final long refreshNanos;
+  final LongSupplier nanoTime;
+  final NamesCache serviceNames, remoteServiceNames, spanNames;
+  final ServiceAndSpanNames cachedNames = new CachedServiceAndSpanNames();
+  final SpanConsumer spanConsumer = new NameFeedingSpanConsumer();
+
+  public NamesCacheStorageComponent(StorageComponent delegate,
+    ZipkinNamesCacheProperties properties) {
+    this(delegate, properties, System::nanoTime);
+  }
+
+  NamesCacheStorageComponent(StorageComponent delegate, ZipkinNamesCacheProperties properties,
+    LongSupplier nanoTime) {
+    if (properties.getRefreshMillis() < 0) throw new IllegalArgumentException("refreshMillis < 0");
+    if (properties.getMaxServices() <= 0) throw new IllegalArgumentException("maxServices <= 0");
+    this.delegate = Objects.requireNonNull(delegate);
+    this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(properties.getRefreshMillis());
+    this.nanoTime = nanoTime;
+    // Don't cache delegate.serviceAndSpanNames() as storage may not be ready when this is created.
+    this.serviceNames = new NamesCache("service names", 1,
+      key -> delegate.serviceAndSpanNames().getServiceNames());
+    this.remoteServiceNames = new NamesCache("remote service names", properties.getMaxServices(),
+      key -> delegate.serviceAndSpanNames().getRemoteServiceNames(key));
+    this.spanNames = new NamesCache("span names", properties.getMaxServices(),
+      key -> delegate.serviceAndSpanNames().getSpanNames(key));
+  }
+
+  @Override protected StorageComponent delegate() {
+    return delegate;
+  }
+
+  @Override public ServiceAndSpanNames serviceAndSpanNames() {
+    return cachedNames;
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return spanConsumer;
+  }
+
+  @Override public String toString() {
+    return "NamesCache{" + delegate + "}";
+  }
+
+  final class CachedServiceAndSpanNames implements ServiceAndSpanNames {
+    @Override public Call<List<String>> getServiceNames() {
+      return serviceNames.get("");
+    }
+
+    @Override public Call<List<String>> getRemoteServiceNames(String serviceName) {
+      if (serviceName.isEmpty()) return delegate.serviceAndSpanNames().getRemoteServiceNames("");
+      return remoteServiceNames.get(serviceName.toLowerCase(Locale.ROOT));
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      if (serviceName.isEmpty()) return delegate.serviceAndSpanNames().getSpanNames("");
+      return spanNames.get(serviceName.toLowerCase(Locale.ROOT));
+    }
+
+    @Override public String toString() {
+      return "CachedServiceAndSpanNames{" + delegate + "}";
+    }
+  }
+
+  final class NameFeedingSpanConsumer implements SpanConsumer {
+    /** Adds names to those already cached. Names not yet requested are left to storage. */
+    @Override public Call<Void> accept(List<Span> spans) {
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        Span span = spans.get(i);
+        String serviceName = span.localServiceName();
+        if (serviceName == null) continue; // names are indexed by local service
+        serviceNames.add("", serviceName);
+        remoteServiceNames.add(serviceName, span.remoteServiceName());
+        spanNames.add(serviceName, span.name());
+      }
+      return delegate.spanConsumer().accept(spans);
+    }
+
+    @Override public String toString() {
+      return "NameFeedingSpanConsumer{" + delegate + "}";
+    }
+  }
+
+  /** Names of one type, keyed by service name, or "" when not scoped to a service. */
+  final class NamesCache {
+    final String type;
+    final int maxKeys;
+    final Function<String, Call<List<String>>> query;
+    final ConcurrentHashMap<String, Names> byKey = new ConcurrentHashMap<>();
+
+    NamesCache(String type, int maxKeys, Function<String, Call<List<String>>> query) {
+      this.type = type;
+      this.maxKeys = maxKeys;
+      this.query = query;
+    }
+
+    Call<List<String>> get(String key) {
+      Names names = byKey.get(key);
+      if (names == null) { // nothing to serve yet, so query storage inline
+        return query.apply(key).map(values -> {
+          put(key, values);
+          return values;
+        });
+      }
+      if (nanoTime.getAsLong() - names.loadedNanos >= refreshNanos) refresh(key, names);
+      return Call.create(new ArrayList<>(names.values));
+    }
+
+    void put(String key, List<String> values) {
+      if (byKey.size() >= maxKeys && !byKey.containsKey(key)) return;
+      Names names = new Names(nanoTime.getAsLong());
+      names.values.addAll(values);
+      byKey.putIfAbsent(key, names);
+    }
+
+    void add(String key, String value) {
+      if (value == null || value.isEmpty()) return;
+      Names names = byKey.get(key);
+      if (names != null) names.values.add(value);
+    }
+
+    /** Queries storage in the background, unless already refreshing. */
+    void refresh(String key, Names names) {
+      if (!names.refreshing.compareAndSet(false, true)) return;
+      // Names added while refreshing aren't in this snapshot, so they won't be removed.
+      Set<String> before = Set.copyOf(names.values);
+      try {
+        query.apply(key).enqueue(new Callback<>() {
+          @Override public void onSuccess(List<String> values) {
+            Set<String> current = new HashSet<>(values);
+            names.values.addAll(current);
+            for (String value : before) {
+              if (!current.contains(value)) names.values.remove(value);
+            }
+            names.loadedNanos = nanoTime.getAsLong();
+            names.refreshing.set(false);
+          }
+
+          @Override public void onError(Throwable t) {
+            names.refreshing.set(false); // serve stale names, and retry on the next request
+            LOG.debug("Cannot refresh {} of {}", type, key, t);
+          }
+        });
+      } catch (RuntimeException | Error e) {
+        names.refreshing.set(false);
+        Call.propagateIfFatal(e);
+        LOG.debug("Cannot refresh {} of {}", type, key, e);
+      }
+    }
+
+    @Override public String toString() {
+      return "NamesCache{" + type + "}";
+    }
+  }
+
+  /** Sorted names and when they were last loaded from storage. */
+  static final class Names {
+    final ConcurrentSkipListSet<String> values = new ConcurrentSkipListSet<>();
+    final AtomicBoolean refreshing = new AtomicBoolean();
+    volatile long loadedNanos;
+
+    Names(long loadedNanos) {
+      this.loadedNanos = loadedNanos;
+    }
+  }
+}
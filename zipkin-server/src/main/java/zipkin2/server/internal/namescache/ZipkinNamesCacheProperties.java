@@ -0,0 +1,41 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.namescache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("zipkin.query.names-cache")
+public final class ZipkinNamesCacheProperties {
+  /** Should service, span and remote service names be cached in memory? */
+  private boolean enabled;
+  /** Names older than this are returned while they are refreshed in the background. */
+  private int refreshMillis = 60_000;
+  /** Maximum services to cache span and remote service names for. Others aren't cached. */
+  private int maxServices = 10_000;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getRefreshMillis() {
+    return refreshMillis;
+  }
+
+  public void setRefreshMillis(int refreshMillis) {
+    this.refreshMillis = refreshMillis;
+  }
+
+  public int getMaxServices() {
+    return maxServices;
+  }
+
+  public void setMaxServices(int maxServices) {
+    this.maxServices = maxServices;
+  }
+}
@@ -22,6 +22,10 @@ class ZipkinPulsarCollectorProperties {
   private String subscriptionName;
   /** Number of concurrent span consumers */
   private Integer concurrency;
+  /** When positive, maximum count of messages received and stored together */
+  private Integer batchMaxMessages;
+  /** Milliseconds to wait for a batch to fill before storing what was received */
+  private Integer batchTimeoutMillis;
   /** Additional Pulsar client configuration. */
   private Map<String, Object> clientProps = new LinkedHashMap<>();
   /** Additional Pulsar consumer configuration. */
@@ -59,6 +63,22 @@ class ZipkinPulsarCollectorProperties {
     this.concurrency = concurrency;
   }
 
+  public Integer getBatchMaxMessages() {
+    return batchMaxMessages;
+  }
+
+  public void setBatchMaxMessages(Integer batchMaxMessages) {
+    this.batchMaxMessages = batchMaxMessages;
+  }
+
+  public Integer getBatchTimeoutMillis() {
+    return batchTimeoutMillis;
+  }
+
+  public void setBatchTimeoutMillis(Integer batchTimeoutMillis) {
+    this.batchTimeoutMillis = batchTimeoutMillis;
+  }
+
   public Map<String, Object> getClientProps() {
     return clientProps;
   }
@@ -82,6 +102,8 @@ class ZipkinPulsarCollectorProperties {
     }
     if (topic != null) result.topic(topic);
     if (concurrency != null) result.concurrency(concurrency);
+    if (batchMaxMessages != null) result.batchMaxMessages(batchMaxMessages);
+    if (batchTimeoutMillis != null) result.batchTimeoutMillis(batchTimeoutMillis);
     if (subscriptionName != null) result.subscriptionName(subscriptionName);
     if (!clientProps.isEmpty()) result.clientProps(clientProps);
     if (!consumerProps.isEmpty()) result.consumerProps(consumerProps);
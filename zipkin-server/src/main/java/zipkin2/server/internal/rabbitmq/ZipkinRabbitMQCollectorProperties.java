@@ -22,6 +22,12 @@ class ZipkinRabbitMQCollectorProperties {
   private List<String> addresses;
   /** Number of concurrent consumers */
   private Integer concurrency = 1;
+  /** When positive, unacknowledged messages per consumer, acknowledged after storage */
+  private Integer prefetchCount;
+  /** When positive, maximum count of spans of consecutive messages stored together */
+  private Integer batchSize;
+  /** Milliseconds a batch waits for more messages before it is stored */
+  private Integer batchLingerMillis;
   /** TCP connection timeout in milliseconds */
   private Integer connectionTimeout;
   /** RabbitMQ user password */
@@ -56,6 +62,30 @@ class ZipkinRabbitMQCollectorProperties {
     this.concurrency = concurrency;
   }
 
+  public Integer getPrefetchCount() {
+    return prefetchCount;
+  }
+
+  public void setPrefetchCount(Integer prefetchCount) {
+    this.prefetchCount = prefetchCount;
+  }
+
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(Integer batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public Integer getBatchLingerMillis() {
+    return batchLingerMillis;
+  }
+
+  public void setBatchLingerMillis(Integer batchLingerMillis) {
+    this.batchLingerMillis = batchLingerMillis;
+  }
+
   public Integer getConnectionTimeout() {
     return connectionTimeout;
   }
@@ -118,6 +148,9 @@ class ZipkinRabbitMQCollectorProperties {
     final RabbitMQCollector.Builder result = RabbitMQCollector.builder();
     ConnectionFactory connectionFactory = new ConnectionFactory();
     if (concurrency != null) result.concurrency(concurrency);
+    if (prefetchCount != null) result.prefetchCount(prefetchCount);
+    if (batchSize != null) result.batchSize(batchSize);
+    if (batchLingerMillis != null) result.batchLingerMillis(batchLingerMillis);
     if (connectionTimeout != null) connectionFactory.setConnectionTimeout(connectionTimeout);
     if (queue != null) result.queue(queue);
 
@@ -0,0 +1,146 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.spanlimits;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import zipkin2.Annotation;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.ForwardingStorageComponent;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Delegating implementation that bounds the size of each span before it is stored. Long tag
+ * values are truncated, tags and annotations over the limit are removed, and spans still too large
+ * once encoded are dropped. This keeps one misbehaving client from creating huge storage requests
+ * or rows, regardless of the storage type.
+ *
+ * <p>Each rule counts the spans it affected as {@code zipkin_collector.spans_limited}, tagged by
+ * {@code rule}.
+ */
+public final class SpanLimitsStorageComponent extends ForwardingStorageComponent {
+  final StorageComponent delegate;
+  final int maxTagValueLength, maxTags, maxAnnotations, maxSpanBytes;
+  final Counter tagValueLengthLimited, tagsLimited, annotationsLimited, spanBytesLimited;
+  final SpanConsumer spanConsumer = new LimitingSpanConsumer();
+
+  public SpanLimitsStorageComponent(StorageComponent delegate,
+    ZipkinSpanLimitsProperties properties, MeterRegistry registry) {
+    this.delegate = Objects.requireNonNull(delegate);
+    this.maxTagValueLength = checkLimit("maxTagValueLength", properties.getMaxTagValueLength());
+    this.maxTags = checkLimit("maxTags", properties.getMaxTags());
+    this.maxAnnotations = checkLimit("maxAnnotations", properties.getMaxAnnotations());
+    this.maxSpanBytes = checkLimit("maxSpanBytes", properties.getMaxSpanBytes());
+    tagValueLengthLimited = counter(registry, "tag_value_length", "tag values truncated");
+    tagsLimited = counter(registry, "tags", "tags removed");
+    annotationsLimited = counter(registry, "annotations", "annotations removed");
+    spanBytesLimited = counter(registry, "span_bytes", "the span dropped as too large");
+  }
+
+  static int checkLimit(String name, int limit) {
+    if (limit < 0) throw new IllegalArgumentException(name + " < 0");
+    return limit;
+  }
+
+  static Counter counter(MeterRegistry registry, String rule, String action) {
+    return Counter.builder("zipkin_collector.spans_limited")
+      .description("cumulative amount of spans with " + action + ", by rule")
+      .tag("rule", rule)
+      .register(registry);
+  }
+
+  @Override protected StorageComponent delegate() {
+    return delegate;
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return spanConsumer;
+  }
+
+  /** Cuts one char earlier when the limit would split a surrogate pair. */
+  String truncate(String value) {
+    int length = maxTagValueLength;
+    if (Character.isHighSurrogate(value.charAt(length - 1))) length--;
+    return value.substring(0, length);
+  }
+
+  /** Returns the span within limits, the input if it already was, or null to drop it. */
+  @Nullable Span limit(Span span) {
+    Span.Builder builder = null;
+
+    Map<String, String> tags = span.tags();
+    boolean truncateValues = false;
+    if (maxTagValueLength > 0) {
+      for (String value : tags.values()) {
+        if (value.length() > maxTagValueLength) {
+          truncateValues = true;
+          break;
+        }
+      }
+    }
+    boolean removeTags = maxTags > 0 && tags.size() > maxTags;
+    if (truncateValues || removeTags) {
+      builder = span.toBuilder().clearTags();
+      int count = 0;
+      for (Map.Entry<String, String> tag : tags.entrySet()) {
+        String key = tag.getKey(), value = tag.getValue();
+        // Keep the error tag, as it changes how the trace is displayed and sampled.
+        if (removeTags && count >= maxTags && !key.equals("error")) continue;
+        if (truncateValues && value.length() > maxTagValueLength) value = truncate(value);
+        builder.putTag(key, value);
+        count++;
+      }
+      if (truncateValues) tagValueLengthLimited.increment();
+      if (removeTags) tagsLimited.increment();
+    }
+
+    List<Annotation> annotations = span.annotations();
+    if (maxAnnotations > 0 && annotations.size() > maxAnnotations) {
+      if (builder == null) builder = span.toBuilder();
+      builder.clearAnnotations();
+      for (Annotation annotation : annotations.subList(0, maxAnnotations)) {
+        builder.addAnnotation(annotation.timestamp(), annotation.value());
+      }
+      annotationsLimited.increment();
+    }
+
+    Span result = builder != null ? builder.build() : span;
+    if (maxSpanBytes > 0 && SpanBytesEncoder.JSON_V2.sizeInBytes(result) > maxSpanBytes) {
+      spanBytesLimited.increment();
+      return null;
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return "SpanLimits{" + delegate + "}";
+  }
+
+  final class LimitingSpanConsumer implements SpanConsumer {
+    @Override public Call<Void> accept(List<Span> spans) {
+      List<Span> limited = null; // lazily copied on the first change
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        Span span = spans.get(i), result = limit(span);
+        if (result != span && limited == null) limited = new ArrayList<>(spans.subList(0, i));
+        if (limited != null && result != null) limited.add(result);
+      }
+      if (limited == null) return delegate.spanConsumer().accept(spans);
+      if (limited.isEmpty()) return Call.create(null);
+      return delegate.spanConsumer().accept(limited);
+    }
+
+    @Override public String toString() {
+      return "SpanLimits(" + delegate + ")";
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.spanlimits;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("zipkin.collector.span-limits")
+public final class ZipkinSpanLimitsProperties {
+  /** Should oversized spans be truncated or dropped before they are stored? */
+  private boolean enabled;
+  /** Longer tag values are truncated to this many characters. 0 disables this. */
+  private int maxTagValueLength = 4096;
+  /** Tags after this many, in key order, are removed, except "error". 0 disables this. */
+  private int maxTags = 128;
+  /** Annotations after this many, in timestamp order, are removed. 0 disables this. */
+  private int maxAnnotations = 128;
+  /** Spans still larger than this when encoded as JSON are dropped. 0 disables this. */
+  private int maxSpanBytes = 65536;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getMaxTagValueLength() {
+    return maxTagValueLength;
+  }
+
+  public void setMaxTagValueLength(int maxTagValueLength) {
+    this.maxTagValueLength = maxTagValueLength;
+  }
+
+  public int getMaxTags() {
+    return maxTags;
+  }
+
+  public void setMaxTags(int maxTags) {
+    this.maxTags = maxTags;
+  }
+
+  public int getMaxAnnotations() {
+    return maxAnnotations;
+  }
+
+  public void setMaxAnnotations(int maxAnnotations) {
+    this.maxAnnotations = maxAnnotations;
+  }
+
+  public int getMaxSpanBytes() {
+    return maxSpanBytes;
+  }
+
+  public void setMaxSpanBytes(int maxSpanBytes) {
+    this.maxSpanBytes = maxSpanBytes;
+  }
+}
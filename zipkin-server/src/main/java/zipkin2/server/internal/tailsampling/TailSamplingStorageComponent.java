@@ -0,0 +1,422 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.tailsampling;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.collector.CollectorSampler;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.ForwardingStorageComponent;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Delegating implementation that buffers spans by trace ID for a decision window, then keeps or
+ * drops each trace whole. A trace is kept if any span is debug, has an error tag, exceeds the
+ * latency threshold or has a tag to keep. Otherwise, it is kept at a base rate, by trace ID.
+ *
+ * <p>This wraps the storage that collectors write to after head sampling, so it sees spans of all
+ * transports. Spans are accepted once buffered, so transports acknowledge them before storage.
+ * Kept traces are written in requests of at most {@link #MAX_SPANS_PER_WRITE} spans, grouped by
+ * the local service of the first span of each trace, as that's what the storage throttle queues
+ * requests by. Only a few requests are written at a time: the flush waits for one to complete
+ * before starting another. Spans of requests that fail are counted, not retried.
+ *
+ * <p>The buffer is bounded by span count. When full, the oldest traces are decided early, and
+ * stored as part of the request that filled the buffer. This means a transport that slows down
+ * when storage does, such as Kafka pausing partitions, also slows down when the buffer is full.
+ *
+ * <p>Spans arriving after their trace was decided follow the decision, as long as it's
+ * remembered. Decisions are recorded while holding the same lock as the buffer, so a span never
+ * sees its trace neither buffered nor decided.
+ *
+ * <p>Closing lets a running flush finish, decides all buffered traces and waits for their writes
+ * before closing storage.
+ */
+public final class TailSamplingStorageComponent extends ForwardingStorageComponent {
+  static final Logger LOG = LoggerFactory.getLogger(TailSamplingStorageComponent.class);
+  /** Count of decisions remembered for spans that arrive late. */
+  static final int MAX_DECISIONS = 65536;
+  /** Most spans written to storage in one request. */
+  static final int MAX_SPANS_PER_WRITE = 1000;
+  /** Most requests written to storage at the same time when flushing. */
+  static final int MAX_IN_FLIGHT_WRITES = 4;
+  /** How long close waits for a running flush, then again for writes it started. */
+  static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  final StorageComponent delegate;
+  final long windowNanos, latencyMicros;
+  final int maxSpans;
+  final List<TagRule> keepTags;
+  final CollectorSampler baseRate;
+  final LongSupplier nanoTime;
+  final TraceBufferConsumer spanConsumer = new TraceBufferConsumer();
+  @Nullable final ScheduledExecutorService flusher;
+
+  /** Traces in order of arrival, which is also the order they are due. Guarded by this. */
+  final LinkedHashMap<String, PendingTrace> pending = new LinkedHashMap<>();
+  int bufferedSpans; // guarded by this
+  /** Direct-mapped by trace ID: a new decision replaces whatever shared its slot. */
+  final AtomicReferenceArray<Decision> decisions = new AtomicReferenceArray<>(MAX_DECISIONS);
+  final Semaphore inFlightWrites = new Semaphore(MAX_IN_FLIGHT_WRITES);
+
+  final Counter spansDropped, tracesDropped, spansFailed;
+  final Map<String, Counter> tracesKept = new LinkedHashMap<>();
+
+  public TailSamplingStorageComponent(StorageComponent delegate,
+    ZipkinTailSamplingProperties properties, MeterRegistry registry) {
+    this(delegate, properties, registry, System::nanoTime, true);
+  }
+
+  TailSamplingStorageComponent(StorageComponent delegate, ZipkinTailSamplingProperties properties,
+    MeterRegistry registry, LongSupplier nanoTime, boolean scheduleFlush) {
+    if (properties.getDecisionWindowMillis() <= 0) {
+      throw new IllegalArgumentException("decisionWindowMillis <= 0");
+    }
+    if (properties.getMaxSpans() <= 0) throw new IllegalArgumentException("maxSpans <= 0");
+    if (properties.getLatencyThresholdMillis() < 0) {
+      throw new IllegalArgumentException("latencyThresholdMillis < 0");
+    }
+    this.delegate = Objects.requireNonNull(delegate);
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(properties.getDecisionWindowMillis());
+    this.latencyMicros = TimeUnit.MILLISECONDS.toMicros(properties.getLatencyThresholdMillis());
+    this.maxSpans = properties.getMaxSpans();
+    this.keepTags = properties.getKeepTags().stream().map(TagRule::parse).toList();
+    this.baseRate = CollectorSampler.create(properties.getBaseRate());
+    this.nanoTime = nanoTime;
+
+    String prefix = "zipkin_collector.tail_sampling";
+    Gauge.builder(prefix + ".buffered_spans", this, t -> t.bufferedSpanCount())
+      .description("number of spans buffered waiting for their trace to be decided")
+      .register(registry);
+    spansDropped = Counter.builder(prefix + ".spans_dropped")
+      .description("cumulative amount of spans dropped with their trace")
+      .register(registry);
+    tracesDropped = Counter.builder(prefix + ".traces_dropped")
+      .description("cumulative amount of traces dropped as they were not interesting")
+      .register(registry);
+    spansFailed = Counter.builder(prefix + ".spans_failed")
+      .description("cumulative amount of spans of kept traces lost as storing them failed")
+      .register(registry);
+    for (String reason : List.of("debug", "error", "latency", "tag", "base_rate")) {
+      tracesKept.put(reason, Counter.builder(prefix + ".traces_kept")
+        .description("cumulative amount of traces kept, by the first reason they were kept")
+        .tag("reason", reason)
+        .register(registry));
+    }
+
+    if (scheduleFlush) {
+      flusher = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("zipkin-tail-sampling"));
+      long periodNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(100), windowNanos / 10);
+      flusher.scheduleWithFixedDelay(this::flushDue, periodNanos, periodNanos,
+        TimeUnit.NANOSECONDS);
+    } else {
+      flusher = null;
+    }
+  }
+
+  @Override protected StorageComponent delegate() {
+    return delegate;
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return spanConsumer;
+  }
+
+  /** Reads the count under the lock, as it's updated by collector threads. */
+  synchronized int bufferedSpanCount() {
+    return bufferedSpans;
+  }
+
+  /** Decides and stores traces whose window ended. */
+  void flushDue() {
+    List<List<Span>> writes = List.of();
+    int started = 0;
+    try {
+      long now = nanoTime.getAsLong();
+      List<PendingTrace> kept = new ArrayList<>();
+      synchronized (this) {
+        for (Iterator<PendingTrace> i = pending.values().iterator(); i.hasNext(); ) {
+          PendingTrace trace = i.next();
+          if (now - trace.firstNanos < windowNanos) break; // later traces are also not due
+          i.remove();
+          bufferedSpans -= trace.spans.size();
+          if (decide(trace)) kept.add(trace);
+        }
+      }
+      writes = writes(kept);
+      for (; started < writes.size(); started++) store(writes.get(started));
+    } catch (InterruptedException e) {
+      // close() timed out waiting for this flush, so the rest of its writes are lost
+      Thread.currentThread().interrupt();
+      int lost = 0;
+      for (List<Span> write : writes.subList(started, writes.size())) lost += write.size();
+      spansFailed.increment(lost);
+      LOG.warn("Cannot store {} spans of sampled traces: closed while flushing", lost);
+    } catch (RuntimeException e) {
+      LOG.warn("Unexpected error flushing traces", e); // don't stop the schedule
+    }
+  }
+
+  /**
+   * Records whether to keep a trace, returning true if it should be stored. This is called while
+   * holding the lock that guards {@link #pending}, so that no span of the trace sees it neither
+   * pending nor decided.
+   */
+  boolean decide(PendingTrace trace) {
+    String reason = keepReason(trace);
+    decisions.set(slot(trace.traceId), new Decision(trace.traceId, reason != null));
+    if (reason != null) {
+      tracesKept.get(reason).increment();
+      return true;
+    }
+    tracesDropped.increment();
+    spansDropped.increment(trace.spans.size());
+    return false;
+  }
+
+  /**
+   * Splits the spans of kept traces into writes of at most {@link #MAX_SPANS_PER_WRITE}. Writes
+   * are grouped by the local service of the first span of each trace, as the storage throttle
+   * queues a request by the service of its first span.
+   */
+  static List<List<Span>> writes(List<PendingTrace> traces) {
+    List<List<Span>> result = new ArrayList<>();
+    Map<String, List<Span>> byService = new LinkedHashMap<>();
+    for (PendingTrace trace : traces) {
+      String serviceName = trace.spans.get(0).localServiceName();
+      if (serviceName == null) serviceName = "";
+      for (Span span : trace.spans) {
+        List<Span> write = byService.computeIfAbsent(serviceName, k -> new ArrayList<>());
+        write.add(span);
+        if (write.size() == MAX_SPANS_PER_WRITE) result.add(byService.remove(serviceName));
+      }
+    }
+    result.addAll(byService.values());
+    return result;
+  }
+
+  /** Returns the first reason a trace is interesting, or null if it should be dropped. */
+  @Nullable String keepReason(PendingTrace trace) {
+    for (Span span : trace.spans) {
+      if (Boolean.TRUE.equals(span.debug())) return "debug";
+    }
+    for (Span span : trace.spans) {
+      if (span.tags().containsKey("error")) return "error";
+    }
+    if (latencyMicros > 0) {
+      for (Span span : trace.spans) {
+        if (span.durationAsLong() >= latencyMicros) return "latency";
+      }
+    }
+    for (Span span : trace.spans) {
+      for (TagRule rule : keepTags) {
+        if (rule.matches(span)) return "tag";
+      }
+    }
+    return baseRate.isSampled(trace.traceId, false) ? "base_rate" : null;
+  }
+
+  /** Stores in the background, after waiting until fewer than the maximum writes are running. */
+  void store(List<Span> spans) throws InterruptedException {
+    inFlightWrites.acquire();
+    StoreCallback callback = new StoreCallback(spans.size());
+    try {
+      delegate.spanConsumer().accept(spans).enqueue(callback);
+    } catch (RuntimeException e) { // ex. the throttle rejected the request
+      callback.onError(e);
+    }
+  }
+
+  /** Decides all buffered traces, and waits for them to be written before closing storage. */
+  @Override public void close() throws IOException {
+    if (flusher != null) {
+      flusher.shutdown(); // don't interrupt a running flush, as it already decided its traces
+      try {
+        if (!flusher.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          flusher.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        flusher.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+    List<PendingTrace> kept = new ArrayList<>();
+    synchronized (this) {
+      for (PendingTrace trace : pending.values()) {
+        if (decide(trace)) kept.add(trace);
+      }
+      pending.clear();
+      bufferedSpans = 0;
+    }
+    for (List<Span> write : writes(kept)) {
+      try {
+        delegate.spanConsumer().accept(write).execute();
+      } catch (IOException | RuntimeException e) {
+        spansFailed.increment(write.size());
+        LOG.warn("Cannot store {} spans of sampled traces on close", write.size(), e);
+      }
+    }
+    awaitInFlightWrites();
+    delegate.close();
+  }
+
+  /** Acquires all permits, so that storage isn't closed under writes started by a flush. */
+  void awaitInFlightWrites() {
+    try {
+      long timeout = CLOSE_TIMEOUT_SECONDS;
+      if (inFlightWrites.tryAcquire(MAX_IN_FLIGHT_WRITES, timeout, TimeUnit.SECONDS)) {
+        inFlightWrites.release(MAX_IN_FLIGHT_WRITES);
+      } else {
+        LOG.warn("Closing storage before writes of sampled traces completed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public String toString() {
+    return "TailSampling{" + delegate + "}";
+  }
+
+  int slot(String traceId) {
+    return (traceId.hashCode() & 0x7fffffff) % MAX_DECISIONS;
+  }
+
+  /** Counts spans lost when a write fails, and allows the next write. Runs at most once. */
+  final class StoreCallback implements Callback<Void> {
+    final AtomicBoolean done = new AtomicBoolean();
+    final int spanCount;
+
+    StoreCallback(int spanCount) {
+      this.spanCount = spanCount;
+    }
+
+    @Override public void onSuccess(Void value) {
+      if (done.compareAndSet(false, true)) inFlightWrites.release();
+    }
+
+    @Override public void onError(Throwable t) {
+      if (!done.compareAndSet(false, true)) return;
+      inFlightWrites.release();
+      spansFailed.increment(spanCount);
+      LOG.warn("Cannot store {} spans of sampled traces", spanCount, t);
+    }
+  }
+
+  final class TraceBufferConsumer implements SpanConsumer {
+    /**
+     * Buffers spans of undecided traces. Spans of traces already kept, and of traces decided early
+     * to make room, are returned to store now, so that the caller waits for storage when the
+     * buffer is full.
+     */
+    @Override public Call<Void> accept(List<Span> spans) {
+      List<Span> storeNow = new ArrayList<>();
+      long now = nanoTime.getAsLong();
+      int lateDropped = 0;
+      synchronized (TailSamplingStorageComponent.this) {
+        for (Span span : spans) {
+          PendingTrace trace = pending.get(span.traceId());
+          if (trace == null) {
+            Decision decision = decisions.get(slot(span.traceId()));
+            if (decision != null && decision.traceId.equals(span.traceId())) {
+              if (decision.keep) {
+                storeNow.add(span);
+              } else {
+                lateDropped++;
+              }
+              continue;
+            }
+            trace = new PendingTrace(span.traceId(), now);
+            pending.put(span.traceId(), trace);
+          }
+          trace.spans.add(span);
+          bufferedSpans++;
+        }
+        for (Iterator<PendingTrace> i = pending.values().iterator();
+          bufferedSpans > maxSpans && i.hasNext(); ) {
+          PendingTrace trace = i.next();
+          i.remove();
+          bufferedSpans -= trace.spans.size();
+          if (decide(trace)) storeNow.addAll(trace.spans);
+        }
+      }
+      if (lateDropped > 0) spansDropped.increment(lateDropped);
+      return storeNow.isEmpty() ? Call.create(null) : delegate.spanConsumer().accept(storeNow);
+    }
+
+    @Override public String toString() {
+      return "TailSampling(" + delegate + ")";
+    }
+  }
+
+  /** Spans of a trace that hasn't been decided. */
+  static final class PendingTrace {
+    final String traceId;
+    final long firstNanos;
+    final List<Span> spans = new ArrayList<>();
+
+    PendingTrace(String traceId, long firstNanos) {
+      this.traceId = traceId;
+      this.firstNanos = firstNanos;
+    }
+  }
+
+  /** Whether a trace was kept. */
+  static final class Decision {
+    final String traceId;
+    final boolean keep;
+
+    Decision(String traceId, boolean keep) {
+      this.traceId = traceId;
+      this.keep = keep;
+    }
+  }
+
+  /** Matches spans by tag key, and optionally value, written as "key" or "key=value". */
+  static final class TagRule {
+    static TagRule parse(String rule) {
+      int equals = rule.indexOf('=');
+      if (equals == -1) return new TagRule(rule.trim(), null);
+      return new TagRule(rule.substring(0, equals).trim(), rule.substring(equals + 1).trim());
+    }
+
+    final String key;
+    @Nullable final String value;
+
+    TagRule(String key, @Nullable String value) {
+      if (key.isEmpty()) throw new IllegalArgumentException("keep tag key is empty");
+      this.key = key;
+      this.value = value;
+    }
+
+    boolean matches(Span span) {
+      String spanValue = span.tags().get(key);
+      return spanValue != null && (value == null || value.equals(spanValue));
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.tailsampling;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("zipkin.collector.tail-sampling")
+public final class ZipkinTailSamplingProperties {
+  /** Should spans be buffered by trace ID, and whole traces kept or dropped? */
+  private boolean enabled;
+  /** How long to buffer a trace after its first span arrives, before deciding. */
+  private int decisionWindowMillis = 10_000;
+  /** Maximum spans to buffer. When exceeded, the oldest traces are decided early. */
+  private int maxSpans = 100_000;
+  /** Traces with a span at least this long are kept. 0 disables this. */
+  private int latencyThresholdMillis = 1000;
+  /** Traces with a span tagged with one of these, as "key" or "key=value", are kept. */
+  private List<String> keepTags = new ArrayList<>();
+  /** Rate of other traces to keep. */
+  private float baseRate = 0.1f;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getDecisionWindowMillis() {
+    return decisionWindowMillis;
+  }
+
+  public void setDecisionWindowMillis(int decisionWindowMillis) {
+    this.decisionWindowMillis = decisionWindowMillis;
+  }
+
+  public int getMaxSpans() {
+    return maxSpans;
+  }
+
+  public void setMaxSpans(int maxSpans) {
+    this.maxSpans = maxSpans;
+  }
+
+  public int getLatencyThresholdMillis() {
+    return latencyThresholdMillis;
+  }
+
+  public void setLatencyThresholdMillis(int latencyThresholdMillis) {
+    this.latencyThresholdMillis = latencyThresholdMillis;
+  }
+
+  public List<String> getKeepTags() {
+    return keepTags;
+  }
+
+  public void setKeepTags(List<String> keepTags) {
+    this.keepTags = keepTags;
+  }
+
+  public float getBaseRate() {
+    return baseRate;
+  }
+
+  public void setBaseRate(float baseRate) {
+    this.baseRate = baseRate;
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.throttle;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import zipkin2.internal.Nullable;
+
+import static zipkin2.server.internal.throttle.ThrottledStorageComponent.STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+
+/**
+ * Bounded queue of storage requests, which takes requests round-robin from each key, usually the
+ * local service name of the spans. This prevents one chatty service from filling the queue and
+ * delaying everyone else.
+ *
+ * <p>When full, the newest request of the key with the most queued requests is rejected to make
+ * room, unless that's the key being added to. This sheds overload from the heaviest producers
+ * first. A key can also be capped below the total size.
+ *
+ * <p>Requests are {@link Entry entries}, created by {@link KeyedExecutor}. Others share an empty
+ * key. Evicting a task that isn't a request cancels it when it is a {@link Future}, and otherwise
+ * only counts it in {@link #dropped}, as there's nobody to tell.
+ *
+ * <p>Blocking puts wait until an entry is taken, then retry the same way as {@link #offer}.
+ */
+final class FairQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+  /** Keys beyond this count share {@link #OTHER_KEY}, so that metrics have bounded cardinality. */
+  static final int MAX_KEYS = 256;
+  static final String OTHER_KEY = "other";
+
+  /** A request and the key it is queued under. */
+  static final class Entry implements Runnable {
+    final String key;
+    final Runnable task;
+    @Nullable final ThrottledCall<?>.EnqueueAndAwait request;
+
+    Entry(String key, Runnable task, @Nullable ThrottledCall<?>.EnqueueAndAwait request) {
+      this.key = key;
+      this.task = task;
+      this.request = request;
+    }
+
+    @Override public void run() {
+      task.run();
+    }
+
+    @Override public String toString() {
+      return task.toString();
+    }
+  }
+
+  /**
+   * Queues tasks under a key. Tasks are decorated first, ex. with the current trace context, so
+   * that the key remains visible to the queue.
+   */
+  static final class KeyedExecutor implements Executor {
+    final Executor pool;
+    final String key;
+    final UnaryOperator<Runnable> decorator;
+
+    KeyedExecutor(Executor pool, String key, UnaryOperator<Runnable> decorator) {
+      this.pool = pool;
+      this.key = key;
+      this.decorator = decorator;
+    }
+
+    @Override public void execute(Runnable task) {
+      ThrottledCall<?>.EnqueueAndAwait request =
+        task instanceof ThrottledCall<?>.EnqueueAndAwait e ? e : null;
+      pool.execute(new Entry(key, decorator.apply(task), request));
+    }
+  }
+
+  /** Requests queued for one key. Metrics read fields without locking, so may see stale values. */
+  static final class KeyQueue {
+    final String key;
+    final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    final LongAdder rejected = new LongAdder();
+    int size;
+
+    KeyQueue(String key) {
+      this.key = key;
+    }
+  }
+
+  final int maxSize, maxSizePerKey;
+  final Consumer<KeyQueue> onNewKey;
+  final ReentrantLock lock = new ReentrantLock();
+  final Condition notEmpty = lock.newCondition();
+  /** Signalled when an entry is taken, so that blocked puts can retry. */
+  final Condition notFull = lock.newCondition();
+  final Map<String, KeyQueue> keyQueues = new HashMap<>();
+  /** Keys with queued requests, in the order they'll next be taken from. */
+  final ArrayDeque<KeyQueue> ready = new ArrayDeque<>();
+  /** Evicted tasks that weren't requests, so couldn't be rejected. */
+  final LongAdder dropped = new LongAdder();
+  int size;
+  /** Incremented each time an entry is taken. Blocked puts retry when this changes. */
+  long taken;
+
+  /**
+   * @param maxSizePerKey when positive, requests beyond this count for one key are rejected
+   * @param onNewKey invoked with the queue of a key the first time it is seen, ex. for metrics
+   */
+  FairQueue(int maxSize, int maxSizePerKey, Consumer<KeyQueue> onNewKey) {
+    if (maxSize < 1) throw new IllegalArgumentException("maxSize < 1");
+    if (maxSizePerKey < 0) throw new IllegalArgumentException("maxSizePerKey < 0");
+    this.maxSize = maxSize;
+    this.maxSizePerKey = maxSizePerKey;
+    this.onNewKey = onNewKey;
+  }
+
+  @Override public boolean offer(Runnable runnable) {
+    return offer(entry(runnable), true);
+  }
+
+  static Entry entry(Runnable runnable) {
+    return runnable instanceof Entry e ? e : new Entry("", runnable, null);
+  }
+
+  /** @param countRejected false when the caller will retry, so hasn't given up yet */
+  boolean offer(Entry entry, boolean countRejected) {
+    Entry evicted = null;
+    lock.lock();
+    try {
+      KeyQueue keyQueue = keyQueue(entry.key);
+      if (maxSizePerKey > 0 && keyQueue.size >= maxSizePerKey) {
+        if (countRejected) keyQueue.rejected.increment();
+        return false;
+      }
+      if (size >= maxSize) {
+        KeyQueue heaviest = heaviest();
+        // Only evict when that leaves the heaviest key with at least as many as this one.
+        if (heaviest.size <= keyQueue.size + 1) {
+          if (countRejected) keyQueue.rejected.increment();
+          return false;
+        }
+        evicted = heaviest.entries.pollLast();
+        heaviest.size--;
+        heaviest.rejected.increment();
+        size--;
+      }
+      if (keyQueue.entries.isEmpty()) ready.addLast(keyQueue);
+      keyQueue.entries.addLast(entry);
+      keyQueue.size++;
+      size++;
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+      // Rejecting invokes callbacks, so do it outside the lock.
+      if (evicted != null) evicted(evicted);
+    }
+  }
+
+  void evicted(Entry evicted) {
+    if (evicted.request != null) {
+      evicted.request.reject(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+      return;
+    }
+    dropped.increment();
+    if (evicted.task instanceof Future<?> future) future.cancel(false);
+  }
+
+  KeyQueue keyQueue(String key) {
+    KeyQueue result = keyQueues.get(key);
+    if (result != null) return result;
+    if (keyQueues.size() >= MAX_KEYS) {
+      result = keyQueues.get(OTHER_KEY);
+      if (result != null) return result;
+      key = OTHER_KEY; // fall through to add it
+    }
+    result = new KeyQueue(key);
+    keyQueues.put(key, result);
+    onNewKey.accept(result);
+    return result;
+  }
+
+  /** Only called when full, so there's at least one key with queued requests. */
+  KeyQueue heaviest() {
+    KeyQueue result = null;
+    for (KeyQueue keyQueue : ready) {
+      if (result == null || keyQueue.size > result.size) result = keyQueue;
+    }
+    return result;
+  }
+
+  @Override @Nullable public Runnable poll() {
+    lock.lock();
+    try {
+      return size == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  Entry dequeue() {
+    KeyQueue keyQueue = ready.pollFirst();
+    Entry result = keyQueue.entries.pollFirst();
+    keyQueue.size--;
+    size--;
+    if (!keyQueue.entries.isEmpty()) ready.addLast(keyQueue); // take from the next key next time
+    onTaken();
+    return result;
+  }
+
+  void onTaken() {
+    taken++;
+    notFull.signalAll(); // waiters may be blocked on different keys, so wake them all
+  }
+
+  @Override public Runnable take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) notEmpty.await();
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override @Nullable public Runnable poll(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        if (nanos <= 0L) return null;
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override @Nullable public Runnable peek() {
+    lock.lock();
+    try {
+      return size == 0 ? null : ready.peekFirst().entries.peekFirst();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override public boolean remove(Object o) {
+    if (!(o instanceof Entry entry)) return false;
+    lock.lock();
+    try {
+      KeyQueue keyQueue = keyQueues.get(entry.key);
+      if (keyQueue == null || !keyQueue.entries.remove(entry)) return false;
+      keyQueue.size--;
+      size--;
+      if (keyQueue.entries.isEmpty()) ready.remove(keyQueue);
+      onTaken();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override public void put(Runnable runnable) throws InterruptedException {
+    offer(runnable, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  @Override public boolean offer(Runnable runnable, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    Entry entry = entry(runnable);
+    long nanos = unit.toNanos(timeout);
+    while (true) {
+      long takenBeforeOffer = taken();
+      if (offer(entry, false)) return true;
+      lock.lockInterruptibly();
+      try {
+        // Don't wait if an entry was taken since the offer failed: the signal was already missed.
+        while (taken == takenBeforeOffer) {
+          if (nanos <= 0L) {
+            keyQueue(entry.key).rejected.increment();
+            return false;
+          }
+          nanos = notFull.awaitNanos(nanos);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  long taken() {
+    lock.lock();
+    try {
+      return taken;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override public int remainingCapacity() {
+    return maxSize - size();
+  }
+
+  @Override public int drainTo(Collection<? super Runnable> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override public int drainTo(Collection<? super Runnable> c, int maxElements) {
+    lock.lock();
+    try {
+      int count = 0;
+      while (size > 0 && count < maxElements) {
+        c.add(dequeue());
+        count++;
+      }
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns a snapshot, in no particular order. */
+  @Override public Iterator<Runnable> iterator() {
+    List<Runnable> snapshot = new ArrayList<>();
+    lock.lock();
+    try {
+      for (KeyQueue keyQueue : ready) snapshot.addAll(keyQueue.entries);
+    } finally {
+      lock.unlock();
+    }
+    return snapshot.iterator();
+  }
+}
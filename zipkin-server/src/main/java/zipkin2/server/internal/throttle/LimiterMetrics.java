@@ -13,19 +13,24 @@ final class LimiterMetrics {
   final Counter requests, requestsSucceeded, requestsIgnored, requestsDropped;
 
   LimiterMetrics(MeterRegistry registry) {
-    requests = Counter.builder("zipkin_storage.throttle.requests")
+    this(registry, "zipkin_storage.throttle");
+  }
+
+  /** @param prefix distinguishes the read throttle from the default write throttle */
+  LimiterMetrics(MeterRegistry registry, String prefix) {
+    requests = Counter.builder(prefix + ".requests")
       .description("cumulative amount of limiter requests acquired")
       .register(registry);
-    requestsSucceeded = Counter.builder("zipkin_storage.throttle.requests_succeeded")
+    requestsSucceeded = Counter.builder(prefix + ".requests_succeeded")
       .description("cumulative amount of limiter requests acquired that later succeeded")
       .register(registry);
     requestsDropped =
-      Counter.builder("zipkin_storage.throttle.requests_dropped")
+      Counter.builder(prefix + ".requests_dropped")
         .description(
           "cumulative amount of limiter requests acquired that later dropped due to capacity")
         .register(registry);
     requestsIgnored =
-      Counter.builder("zipkin_storage.throttle.requests_ignored")
+      Counter.builder(prefix + ".requests_ignored")
         .description(
           "cumulative amount of limiter requests acquired that later dropped not due to capacity")
         .register(registry);
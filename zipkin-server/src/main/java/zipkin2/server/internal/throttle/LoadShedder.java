@@ -0,0 +1,86 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.throttle;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import zipkin2.Span;
+import zipkin2.collector.CollectorSampler;
+
+/**
+ * Drops low-value spans before they are queued for storage when the throttle queue fills up, so
+ * that overload loses the least useful data first, instead of whole batches. Spans with an error
+ * tag, debug spans and slow spans are never shed.
+ *
+ * <p>Shedding is in two stages. When the queue is filling up, low-value spans are kept only when
+ * their trace ID is sampled at a secondary rate. As this is consistent, shed traces are dropped
+ * whole, and kept ones are a subset of those kept by the {@link CollectorSampler}. When the queue
+ * is full, all low-value spans are shed.
+ *
+ * <p>Shed spans are counted by the stage that shed them.
+ */
+final class LoadShedder {
+  final BlockingQueue<Runnable> queue;
+  final int pressureSize, fullSize;
+  final long slowSpanMicros;
+  final CollectorSampler sampler;
+  final Counter shedUnsampled, shedQueueFull;
+
+  /**
+   * @param maxQueueSize the capacity of the queue. Like the queue, this is at least one, and so is
+   * the size considered pressure: an empty queue never sheds.
+   */
+  LoadShedder(BlockingQueue<Runnable> queue, int maxQueueSize,
+    ZipkinStorageThrottleProperties properties, MeterRegistry registry) {
+    float queueRatio = properties.getShedQueueRatio();
+    if (queueRatio < 0 || queueRatio > 1) {
+      throw new IllegalArgumentException("shedQueueRatio should be between 0 and 1");
+    }
+    if (properties.getShedSlowSpanMillis() < 0) {
+      throw new IllegalArgumentException("shedSlowSpanMillis < 0");
+    }
+    this.queue = queue;
+    this.fullSize = Math.max(1, maxQueueSize);
+    this.pressureSize = Math.max(1, (int) (fullSize * queueRatio));
+    this.slowSpanMicros = TimeUnit.MILLISECONDS.toMicros(properties.getShedSlowSpanMillis());
+    this.sampler = CollectorSampler.create(properties.getShedSampleRate());
+    shedUnsampled = shedCounter(registry, "unsampled");
+    shedQueueFull = shedCounter(registry, "queue_full");
+  }
+
+  static Counter shedCounter(MeterRegistry registry, String reason) {
+    return Counter.builder("zipkin_storage.throttle.spans_shed")
+      .description("cumulative amount of low-value spans dropped before queuing for storage")
+      .tag("reason", reason)
+      .register(registry);
+  }
+
+  /** Returns the input when there's no pressure, or the spans that are worth queuing. */
+  List<Span> shed(List<Span> spans) {
+    int queued = queue.size();
+    if (queued < pressureSize) return spans;
+    boolean full = queued >= fullSize;
+
+    List<Span> result = new ArrayList<>(spans.size());
+    for (Span span : spans) {
+      if (isHighValue(span) || !full && sampler.isSampled(span.traceId(), false)) {
+        result.add(span);
+      }
+    }
+    int shed = spans.size() - result.size();
+    if (shed > 0) (full ? shedQueueFull : shedUnsampled).increment(shed);
+    return result;
+  }
+
+  boolean isHighValue(Span span) {
+    return Boolean.TRUE.equals(span.debug())
+      || span.tags().containsKey("error")
+      || span.durationAsLong() >= slowSpanMicros && span.durationAsLong() > 0L;
+  }
+}
@@ -5,32 +5,70 @@
 package zipkin2.server.internal.throttle;
 
 import com.netflix.concurrency.limits.limiter.AbstractLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
 import zipkin2.server.internal.MicrometerCollectorMetrics;
 
 /** Follows the same naming convention as {@link MicrometerCollectorMetrics} */
 final class MicrometerThrottleMetrics {
   final MeterRegistry registryInstance;
+  final String prefix;
 
   MicrometerThrottleMetrics(MeterRegistry registryInstance) {
+    this(registryInstance, "zipkin_storage.throttle");
+  }
+
+  /** @param prefix distinguishes the read throttle from the default write throttle */
+  MicrometerThrottleMetrics(MeterRegistry registryInstance, String prefix) {
     this.registryInstance = registryInstance;
+    this.prefix = prefix;
   }
 
   void bind(ThreadPoolExecutor pool) {
-    Gauge.builder("zipkin_storage.throttle.concurrency", pool::getCorePoolSize)
+    Gauge.builder(prefix + ".concurrency", pool::getCorePoolSize)
       .description("number of threads running storage requests")
       .register(registryInstance);
-    Gauge.builder("zipkin_storage.throttle.queue_size", pool.getQueue()::size)
+    Gauge.builder(prefix + ".queue_size", pool.getQueue()::size)
+      .description("number of items queued waiting for access to storage")
+      .register(registryInstance);
+  }
+
+  /** Exports the same gauges as a pool, so dashboards work in either mode. */
+  void bind(VirtualThreadExecutor executor) {
+    Gauge.builder(prefix + ".concurrency", executor::getLimit)
+      .description("number of storage requests allowed to run at the same time")
+      .register(registryInstance);
+    Gauge.builder(prefix + ".queue_size", executor.getQueue()::size)
       .description("number of items queued waiting for access to storage")
       .register(registryInstance);
   }
 
+  /** Called for each service when fair queuing. */
+  void bind(FairQueue.KeyQueue keyQueue) {
+    Gauge.builder(prefix + ".service_queue_size", keyQueue, q -> q.size)
+      .description("number of items of a service queued waiting for access to storage")
+      .tag("service", keyQueue.key)
+      .register(registryInstance);
+    FunctionCounter.builder(prefix + ".service_requests_rejected",
+        keyQueue.rejected, LongAdder::sum)
+      .description("cumulative amount of requests of a service rejected due to queue size")
+      .tag("service", keyQueue.key)
+      .register(registryInstance);
+  }
+
+  void bind(FairQueue queue) {
+    FunctionCounter.builder(prefix + ".tasks_dropped", queue.dropped, LongAdder::sum)
+      .description("cumulative amount of tasks, not storage requests, evicted from the queue")
+      .register(registryInstance);
+  }
+
   void bind(AbstractLimiter limiter) {
     // This value should parallel (zipkin_storage.throttle.queue_size + zipkin_storage.throttle.concurrency)
     // It is tracked to make sure it doesn't perpetually increase.  If it does then we're not resolving LimitListeners.
-    Gauge.builder("zipkin_storage.throttle.in_flight_requests", limiter::getInflight)
+    Gauge.builder(prefix + ".in_flight_requests", limiter::getInflight)
       .description("number of requests the limiter thinks are active")
       .register(registryInstance);
   }
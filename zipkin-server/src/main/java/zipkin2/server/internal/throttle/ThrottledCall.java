@@ -31,7 +31,7 @@ import static com.linecorp.armeria.common.util.Exceptions.clearTrace;
  *
  * @see ThrottledStorageComponent
  */
-final class ThrottledCall extends Call.Base<Void> {
+final class ThrottledCall<V> extends Call.Base<V> {
   /**
    * <p>This reduces allocations when concurrency reached by always returning the same instance.
    * This is only thrown in one location, and a stack trace starting from static initialization
@@ -40,23 +40,24 @@ final class ThrottledCall extends Call.Base<Void> {
   static final RejectedExecutionException STORAGE_THROTTLE_MAX_CONCURRENCY =
     clearTrace(new RejectedExecutionException("STORAGE_THROTTLE_MAX_CONCURRENCY reached"));
 
-  static final Callback<Void> NOOP_CALLBACK = new Callback<Void>() {
-    @Override public void onSuccess(Void value) {
+  static final Callback<Object> NOOP_CALLBACK = new Callback<Object>() {
+    @Override public void onSuccess(Object value) {
     }
 
     @Override public void onError(Throwable t) {
     }
   };
 
-  final Call<Void> delegate;
+  final Call<V> delegate;
   final Executor executor;
   final Limiter<Void> limiter;
   final LimiterMetrics limiterMetrics;
   final Predicate<Throwable> isOverCapacity;
   final CountDownLatch latch = new CountDownLatch(1);
   Throwable throwable; // thread visibility guaranteed by the countdown latch
+  V value; // thread visibility guaranteed by the countdown latch
 
-  ThrottledCall(Call<Void> delegate, Executor executor, Limiter<Void> limiter,
+  ThrottledCall(Call<V> delegate, Executor executor, Limiter<Void> limiter,
     LimiterMetrics limiterMetrics, Predicate<Throwable> isOverCapacity) {
     this.delegate = delegate;
     this.executor = executor;
@@ -70,14 +71,15 @@ final class ThrottledCall extends Call.Base<Void> {
    * is ok because in almost all cases, doing so would imply invoking {@link #enqueue(Callback)}
    * anyway.
    */
-  @Override protected Void doExecute() throws IOException {
+  @SuppressWarnings("unchecked") // NOOP_CALLBACK ignores the value
+  @Override protected V doExecute() throws IOException {
     // Enqueue the call invocation on the executor and block until it completes.
-    doEnqueue(NOOP_CALLBACK);
+    doEnqueue((Callback<V>) NOOP_CALLBACK);
     if (!await(latch)) throw new InterruptedIOException();
 
     // Check if the run resulted in an exception
     Throwable t = this.throwable;
-    if (t == null) return null; // success
+    if (t == null) return value; // success
 
     // Coerce the throwable to the signature of Call.execute()
     if (t instanceof Error error) throw error;
@@ -87,7 +89,7 @@ final class ThrottledCall extends Call.Base<Void> {
   }
 
   // When handling enqueue, we don't block the calling thread. Any exception goes to the callback.
-  @Override protected void doEnqueue(Callback<Void> callback) {
+  @Override protected void doEnqueue(Callback<V> callback) {
     Listener limiterListener =
       limiter.acquire(null).orElseThrow(() -> STORAGE_THROTTLE_MAX_CONCURRENCY);
 
@@ -106,8 +108,8 @@ final class ThrottledCall extends Call.Base<Void> {
     }
   }
 
-  @Override public Call<Void> clone() {
-    return new ThrottledCall(delegate.clone(), executor, limiter, limiterMetrics, isOverCapacity);
+  @Override public Call<V> clone() {
+    return new ThrottledCall<>(delegate.clone(), executor, limiter, limiterMetrics, isOverCapacity);
   }
 
   @Override public String toString() {
@@ -115,11 +117,11 @@ final class ThrottledCall extends Call.Base<Void> {
   }
 
   /** When run, this enqueues a call with a given callback, and awaits its completion. */
-  final class EnqueueAndAwait implements Runnable, Callback<Void> {
-    final Callback<Void> callback;
+  final class EnqueueAndAwait implements Runnable, Callback<V> {
+    final Callback<V> callback;
     final Listener limiterListener;
 
-    EnqueueAndAwait(Callback<Void> callback, Listener limiterListener) {
+    EnqueueAndAwait(Callback<V> callback, Listener limiterListener) {
       this.callback = callback;
       this.limiterListener = limiterListener;
     }
@@ -148,8 +150,9 @@ final class ThrottledCall extends Call.Base<Void> {
       }
     }
 
-    @Override public void onSuccess(Void value) {
+    @Override public void onSuccess(V value) {
       try {
+        ThrottledCall.this.value = value; // in case the invocation is blocking (Call.execute())
         // usually we don't add metrics like this,
         // but for now it is helpful to sanity check acquired vs erred.
         limiterMetrics.requestsSucceeded.increment();
@@ -178,6 +181,20 @@ final class ThrottledCall extends Call.Base<Void> {
       }
     }
 
+    /**
+     * Called when this was queued, but later evicted to make room for another request. Like
+     * executor rejection, this doesn't imply storage is over capacity, so the limit is unaffected.
+     */
+    void reject(Throwable t) {
+      try {
+        throwable = t;
+        limiterListener.onIgnore();
+        callback.onError(t);
+      } finally {
+        latch.countDown();
+      }
+    }
+
     @Override public String toString() {
       return "EnqueueAndAwait{call=" + delegate + ", callback=" + callback + "}";
     }
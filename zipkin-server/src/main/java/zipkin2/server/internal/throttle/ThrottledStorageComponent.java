@@ -20,19 +20,27 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import zipkin2.Call;
+import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.internal.Nullable;
 import zipkin2.server.internal.brave.TracedCall;
+import zipkin2.storage.AutocompleteTags;
 import zipkin2.storage.ForwardingStorageComponent;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.ServiceAndSpanNames;
 import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
 import zipkin2.storage.StorageComponent;
+import zipkin2.storage.Traces;
 
 import static com.linecorp.armeria.common.util.Exceptions.clearTrace;
 
@@ -47,6 +55,12 @@ import static com.linecorp.armeria.common.util.Exceptions.clearTrace;
  * memory from infinitely queueing.</li>
  * </ul>
  *
+ * <p>Queries, such as {@link #spanStore()}, can optionally be limited as well. These use a separate
+ * limit, pool and queue, so that reads and writes don't starve each other.
+ *
+ * <p>Instead of a pool, requests can run on virtual threads, limited by a semaphore. See {@link
+ * VirtualThreadExecutor}.
+ *
  * @see ThrottledSpanConsumer
  */
 public final class ThrottledStorageComponent extends ForwardingStorageComponent {
@@ -61,33 +75,72 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
   final @Nullable Tracer tracer;
   final @Nullable CurrentTraceContext currentTraceContext;
   final AbstractLimiter<Void> limiter;
-  final ThreadPoolExecutor executor;
+  final ExecutorService executor;
+  final boolean fairQueuing;
+  @Nullable final LoadShedder loadShedder;
   final LimiterMetrics limiterMetrics;
+  @Nullable final ReadThrottle reads;
 
   public ThrottledStorageComponent(StorageComponent delegate, MeterRegistry registry,
     @Nullable Tracing tracing, int minConcurrency, int maxConcurrency, int maxQueueSize) {
+    this(delegate, registry, tracing,
+      properties(minConcurrency, maxConcurrency, maxQueueSize));
+  }
+
+  public ThrottledStorageComponent(StorageComponent delegate, MeterRegistry registry,
+    @Nullable Tracing tracing, ZipkinStorageThrottleProperties properties) {
     this.delegate = Objects.requireNonNull(delegate);
     this.tracer = tracing != null ? tracing.tracer() : null;
     this.currentTraceContext = tracing != null ? tracing.currentTraceContext() : null;
+    int minConcurrency = properties.getMinConcurrency();
+    int maxConcurrency = properties.getMaxConcurrency();
+    int maxQueueSize = properties.getMaxQueueSize();
+    MicrometerThrottleMetrics metrics = new MicrometerThrottleMetrics(registry);
 
-    Limit limit = Gradient2Limit.newBuilder()
-      .minLimit(minConcurrency)
-      // Limiter will trend towards min until otherwise necessary so may as well start there
-      .initialLimit(minConcurrency)
-      .maxConcurrency(maxConcurrency)
-      .queueSize(0)
-      .build();
+    Limit limit = newLimit(minConcurrency, maxConcurrency);
     this.limiter = new Builder().limit(limit).build();
+    this.fairQueuing = properties.isFairQueuing();
 
-    // The size of the thread pool is managed by the limiter, so we initialize it with the lower
-    // bound (current limit), and later use change notification to resize it.
-    executor = new ThreadPoolExecutor(
+    BlockingQueue<Runnable> queue = fairQueuing
+      ? createFairQueue(maxQueueSize, properties.getMaxQueueSizePerService(), metrics)
+      : createQueue(maxQueueSize);
+    executor = newExecutor(limit, queue, "zipkin-throttle-pool", properties.isVirtualThreads(),
+      metrics);
+    // Like createQueue, the smallest queue has a size of 1.
+    loadShedder = properties.isShedLowValueSpans()
+      ? new LoadShedder(queue, Math.max(1, maxQueueSize), properties, registry)
+      : null;
+    metrics.bind(limiter);
+
+    limiterMetrics = new LimiterMetrics(registry);
+    reads = properties.isReadEnabled() ? new ReadThrottle(this, registry, properties) : null;
+  }
+
+  static ExecutorService newExecutor(Limit limit, BlockingQueue<Runnable> queue,
+    String threadNamePrefix, boolean virtualThreads, MicrometerThrottleMetrics metrics) {
+    if (virtualThreads) {
+      VirtualThreadExecutor result = new VirtualThreadExecutor(limit, queue, threadNamePrefix);
+      metrics.bind(result);
+      return result;
+    }
+    ThreadPoolExecutor result = newPool(limit, queue, threadNamePrefix);
+    metrics.bind(result);
+    return result;
+  }
+
+  /**
+   * Returns a pool whose size is managed by the limit, so we initialize it with the lower bound
+   * (current limit), and later use change notification to resize it.
+   */
+  static ThreadPoolExecutor newPool(Limit limit, BlockingQueue<Runnable> queue,
+    String threadNamePrefix) {
+    ThreadPoolExecutor result = new ThreadPoolExecutor(
       limit.getLimit(),
       limit.getLimit(),
       0,
       TimeUnit.DAYS,
-      createQueue(maxQueueSize),
-      new NamedThreadFactory("zipkin-throttle-pool") {
+      queue,
+      new NamedThreadFactory(threadNamePrefix) {
         @Override public Thread newThread(Runnable runnable) {
           return super.newThread(new Runnable() {
             @Override public void run() {
@@ -104,13 +157,18 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
       (r, e) -> {
         throw STORAGE_THROTTLE_MAX_QUEUE_SIZE;
       });
-    limit.notifyOnChange(new ThreadPoolExecutorResizer(executor));
-
-    MicrometerThrottleMetrics metrics = new MicrometerThrottleMetrics(registry);
-    metrics.bind(executor);
-    metrics.bind(limiter);
+    limit.notifyOnChange(new ThreadPoolExecutorResizer(result));
+    return result;
+  }
 
-    limiterMetrics = new LimiterMetrics(registry);
+  static Limit newLimit(int minConcurrency, int maxConcurrency) {
+    return Gradient2Limit.newBuilder()
+      .minLimit(minConcurrency)
+      // Limiter will trend towards min until otherwise necessary so may as well start there
+      .initialLimit(minConcurrency)
+      .maxConcurrency(maxConcurrency)
+      .queueSize(0)
+      .build();
   }
 
   @Override protected StorageComponent delegate() {
@@ -121,8 +179,31 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
     return new ThrottledSpanConsumer(this);
   }
 
+  @Override public Traces traces() {
+    return reads != null ? new ThrottledTraces(reads, delegate.traces()) : delegate.traces();
+  }
+
+  @Override public SpanStore spanStore() {
+    return reads != null
+      ? new ThrottledSpanStore(reads, delegate.spanStore())
+      : delegate.spanStore();
+  }
+
+  @Override public AutocompleteTags autocompleteTags() {
+    return reads != null
+      ? new ThrottledAutocompleteTags(reads, delegate.autocompleteTags())
+      : delegate.autocompleteTags();
+  }
+
+  @Override public ServiceAndSpanNames serviceAndSpanNames() {
+    return reads != null
+      ? new ThrottledServiceAndSpanNames(reads, delegate.serviceAndSpanNames())
+      : delegate.serviceAndSpanNames();
+  }
+
   @Override public void close() throws IOException {
     executor.shutdownNow();
+    if (reads != null) reads.executor.shutdownNow();
     delegate.close();
   }
 
@@ -133,6 +214,8 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
   static final class ThrottledSpanConsumer implements SpanConsumer {
     final SpanConsumer delegate;
     final Executor executor;
+    @Nullable final ThrottledStorageComponent fairQueued;
+    @Nullable final LoadShedder loadShedder;
     final Limiter<Void> limiter;
     final LimiterMetrics limiterMetrics;
     final Predicate<Throwable> isOverCapacity;
@@ -143,6 +226,8 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
       this.executor = throttledStorage.currentTraceContext != null
         ? throttledStorage.currentTraceContext.executor(throttledStorage.executor)
         : throttledStorage.executor;
+      this.fairQueued = throttledStorage.fairQueuing ? throttledStorage : null;
+      this.loadShedder = throttledStorage.loadShedder;
       this.limiter = throttledStorage.limiter;
       this.limiterMetrics = throttledStorage.limiterMetrics;
       this.isOverCapacity = throttledStorage::isOverCapacity;
@@ -150,7 +235,17 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
     }
 
     @Override public Call<Void> accept(List<Span> spans) {
-      Call<Void> result = new ThrottledCall(
+      if (loadShedder != null) {
+        spans = loadShedder.shed(spans);
+        if (spans.isEmpty()) return Call.create(null); // all shed, which isn't an error
+      }
+      Executor executor = this.executor;
+      if (fairQueued != null) {
+        CurrentTraceContext current = fairQueued.currentTraceContext;
+        executor = new FairQueue.KeyedExecutor(fairQueued.executor, fairQueueKey(spans),
+          current != null ? current::wrap : UnaryOperator.identity());
+      }
+      Call<Void> result = new ThrottledCall<>(
         delegate.accept(spans), executor, limiter, limiterMetrics, isOverCapacity);
 
       return tracer != null ? new TracedCall<>(tracer, result, "throttled-accept-spans") : result;
@@ -161,6 +256,175 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
     }
   }
 
+  /**
+   * Limits queries separately from writes, with their own limit, pool and queue. This keeps heavy
+   * searches from taking threads or queue slots needed for ingestion, and vice versa.
+   */
+  static final class ReadThrottle {
+    final ExecutorService executor;
+    final Executor tracingExecutor;
+    final AbstractLimiter<Void> limiter;
+    final LimiterMetrics limiterMetrics;
+    final Predicate<Throwable> isOverCapacity;
+    @Nullable final Tracer tracer;
+
+    ReadThrottle(ThrottledStorageComponent throttledStorage, MeterRegistry registry,
+      ZipkinStorageThrottleProperties properties) {
+      Limit limit =
+        newLimit(properties.getReadMinConcurrency(), properties.getReadMaxConcurrency());
+      this.limiter = new Builder().limit(limit).build();
+      MicrometerThrottleMetrics metrics =
+        new MicrometerThrottleMetrics(registry, "zipkin_storage.read_throttle");
+      this.executor = newExecutor(limit, createQueue(properties.getReadMaxQueueSize()),
+        "zipkin-read-throttle-pool", properties.isVirtualThreads(), metrics);
+      this.tracingExecutor = throttledStorage.currentTraceContext != null
+        ? throttledStorage.currentTraceContext.executor(executor)
+        : executor;
+      this.isOverCapacity = throttledStorage::isOverCapacity;
+      this.tracer = throttledStorage.tracer;
+      metrics.bind(limiter);
+      limiterMetrics = new LimiterMetrics(registry, "zipkin_storage.read_throttle");
+    }
+
+    <V> Call<V> throttle(Call<V> call, String name) {
+      Call<V> result =
+        new ThrottledCall<>(call, tracingExecutor, limiter, limiterMetrics, isOverCapacity);
+      return tracer != null ? new TracedCall<>(tracer, result, "throttled-" + name) : result;
+    }
+  }
+
+  static final class ThrottledTraces implements Traces {
+    final ReadThrottle reads;
+    final Traces delegate;
+
+    ThrottledTraces(ReadThrottle reads, Traces delegate) {
+      this.reads = reads;
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<Span>> getTrace(String traceId) {
+      return reads.throttle(delegate.getTrace(traceId), "get-trace");
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(Iterable<String> traceIds) {
+      return reads.throttle(delegate.getTraces(traceIds), "get-traces");
+    }
+
+    @Override public String toString() {
+      return "Throttled(" + delegate + ")";
+    }
+  }
+
+  static final class ThrottledSpanStore implements SpanStore {
+    final ReadThrottle reads;
+    final SpanStore delegate;
+
+    ThrottledSpanStore(ReadThrottle reads, SpanStore delegate) {
+      this.reads = reads;
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return reads.throttle(delegate.getTraces(request), "get-traces");
+    }
+
+    @Override @Deprecated public Call<List<Span>> getTrace(String traceId) {
+      return reads.throttle(delegate.getTrace(traceId), "get-trace");
+    }
+
+    @Override @Deprecated public Call<List<String>> getServiceNames() {
+      return reads.throttle(delegate.getServiceNames(), "get-service-names");
+    }
+
+    @Override @Deprecated public Call<List<String>> getSpanNames(String serviceName) {
+      return reads.throttle(delegate.getSpanNames(serviceName), "get-span-names");
+    }
+
+    @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return reads.throttle(delegate.getDependencies(endTs, lookback), "get-dependencies");
+    }
+
+    @Override public String toString() {
+      return "Throttled(" + delegate + ")";
+    }
+  }
+
+  static final class ThrottledAutocompleteTags implements AutocompleteTags {
+    final ReadThrottle reads;
+    final AutocompleteTags delegate;
+
+    ThrottledAutocompleteTags(ReadThrottle reads, AutocompleteTags delegate) {
+      this.reads = reads;
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<String>> getKeys() {
+      return reads.throttle(delegate.getKeys(), "get-keys");
+    }
+
+    @Override public Call<List<String>> getValues(String key) {
+      return reads.throttle(delegate.getValues(key), "get-values");
+    }
+
+    @Override public String toString() {
+      return "Throttled(" + delegate + ")";
+    }
+  }
+
+  static final class ThrottledServiceAndSpanNames implements ServiceAndSpanNames {
+    final ReadThrottle reads;
+    final ServiceAndSpanNames delegate;
+
+    ThrottledServiceAndSpanNames(ReadThrottle reads, ServiceAndSpanNames delegate) {
+      this.reads = reads;
+      this.delegate = delegate;
+    }
+
+    @Override public Call<List<String>> getServiceNames() {
+      return reads.throttle(delegate.getServiceNames(), "get-service-names");
+    }
+
+    @Override public Call<List<String>> getRemoteServiceNames(String serviceName) {
+      return reads.throttle(delegate.getRemoteServiceNames(serviceName),
+        "get-remote-service-names");
+    }
+
+    @Override public Call<List<String>> getSpanNames(String serviceName) {
+      return reads.throttle(delegate.getSpanNames(serviceName), "get-span-names");
+    }
+
+    @Override public String toString() {
+      return "Throttled(" + delegate + ")";
+    }
+  }
+
+  /**
+   * Requests are queued by the local service name of their first span. Reporters usually send one
+   * service's spans at a time, so this avoids looking at every span.
+   */
+  static String fairQueueKey(List<Span> spans) {
+    String serviceName = spans.isEmpty() ? null : spans.get(0).localServiceName();
+    return serviceName != null ? serviceName : "";
+  }
+
+  static BlockingQueue<Runnable> createFairQueue(int maxSize, int maxSizePerService,
+    MicrometerThrottleMetrics metrics) {
+    if (maxSize < 0) throw new IllegalArgumentException("maxSize < 0");
+    // Like createQueue, 0 means we should be bounded, but the smallest queue has a size of 1.
+    FairQueue result = new FairQueue(Math.max(1, maxSize), maxSizePerService, metrics::bind);
+    metrics.bind(result);
+    return result;
+  }
+
+  static ZipkinStorageThrottleProperties properties(int minConcurrency, int maxConcurrency,
+    int maxQueueSize) {
+    ZipkinStorageThrottleProperties result = new ZipkinStorageThrottleProperties();
+    result.setMinConcurrency(minConcurrency);
+    result.setMaxConcurrency(maxConcurrency);
+    result.setMaxQueueSize(maxQueueSize);
+    return result;
+  }
+
   static BlockingQueue<Runnable> createQueue(int maxSize) {
     if (maxSize < 0) throw new IllegalArgumentException("maxSize < 0");
 
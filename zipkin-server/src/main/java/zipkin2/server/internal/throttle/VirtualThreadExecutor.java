@@ -0,0 +1,202 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.throttle;
+
+import com.linecorp.armeria.common.brave.RequestContextCurrentTraceContext;
+import com.netflix.concurrency.limits.Limit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import static zipkin2.server.internal.throttle.ThrottledStorageComponent.STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+
+/**
+ * Alternative to a {@link ThreadPoolExecutor} sized by a {@link Limit}, which runs each task on a
+ * new virtual thread. Concurrency is enforced with a semaphore, so when the limit changes, only
+ * the count of permits changes: no threads are started or stopped. Tasks waiting for a permit are
+ * held in the same bounded queue a pool would use, so {@link FairQueue} works here, too.
+ *
+ * <p>Like a pool, {@link #shutdown()} still runs queued tasks. {@link #shutdownNow()} fails the
+ * queued requests of a {@link FairQueue}, so that callers blocked on them don't hang.
+ *
+ * <p>This requires JDK 21 or later. On earlier versions, construction fails.
+ */
+final class VirtualThreadExecutor extends AbstractExecutorService {
+  final VirtualThreadTaskExecutor threads;
+  final BlockingQueue<Runnable> queue;
+  final LimitSemaphore permits;
+  final Set<Thread> running = ConcurrentHashMap.newKeySet();
+  /** Counts tasks from before they are handed to a thread until they complete. */
+  final AtomicInteger started = new AtomicInteger();
+  final CountDownLatch terminated = new CountDownLatch(1);
+  volatile boolean shutdown;
+
+  VirtualThreadExecutor(Limit limit, BlockingQueue<Runnable> queue, String threadNamePrefix) {
+    this.threads = new VirtualThreadTaskExecutor(threadNamePrefix + "-");
+    this.queue = queue;
+    this.permits = new LimitSemaphore(limit.getLimit());
+    limit.notifyOnChange(new SemaphoreResizer(this));
+  }
+
+  /** Returns the count of tasks allowed to run at the same time. */
+  int getLimit() {
+    return permits.limit;
+  }
+
+  BlockingQueue<Runnable> getQueue() {
+    return queue;
+  }
+
+  /**
+   * Like {@link ThreadPoolExecutor}, this runs the task immediately when possible, otherwise
+   * queues it, throwing {@link ThrottledStorageComponent#STORAGE_THROTTLE_MAX_QUEUE_SIZE} when
+   * the queue is full or this is shut down.
+   */
+  @Override public void execute(Runnable task) {
+    if (shutdown) throw STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+    if (queue.isEmpty() && permits.tryAcquire()) {
+      start(task);
+      return;
+    }
+    if (!queue.offer(task)) throw STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+    // Like a pool, recheck in case shutdownNow() drained the queue before this was added.
+    if (shutdown && queue.remove(task)) throw STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+    drain();
+  }
+
+  /**
+   * Starts queued tasks while there are permits. Whoever releases a permit calls this after, so
+   * a task queued while permits were exhausted is never left behind. This continues after
+   * shutdown, until the queue is empty.
+   */
+  void drain() {
+    while (!queue.isEmpty() && permits.tryAcquire()) {
+      Runnable next = queue.poll();
+      if (next == null) { // another thread took it
+        permits.release();
+        continue;
+      }
+      start(next);
+    }
+  }
+
+  void start(Runnable task) {
+    started.incrementAndGet(); // before the thread runs, so termination can't be premature
+    try {
+      threads.execute(() -> run(task));
+    } catch (RuntimeException | Error e) {
+      started.decrementAndGet();
+      permits.release();
+      tryTerminate();
+      throw e;
+    }
+  }
+
+  void run(Runnable task) {
+    Thread thread = Thread.currentThread();
+    running.add(thread);
+    try {
+      RequestContextCurrentTraceContext.setCurrentThreadNotRequestThread(true);
+      task.run();
+    } finally {
+      running.remove(thread);
+      started.decrementAndGet();
+      permits.release();
+      drain();
+      tryTerminate();
+    }
+  }
+
+  void tryTerminate() {
+    if (shutdown && started.get() == 0 && queue.isEmpty()) terminated.countDown();
+  }
+
+  /** Like {@link ThreadPoolExecutor#shutdown()}, queued tasks still run. */
+  @Override public void shutdown() {
+    shutdown = true;
+    drain();
+    tryTerminate();
+  }
+
+  /**
+   * Like {@link ThreadPoolExecutor#shutdownNow()}, this interrupts running tasks and returns
+   * queued ones. Queued requests of a {@link FairQueue} are rejected, as nothing will run them.
+   */
+  @Override public List<Runnable> shutdownNow() {
+    shutdown = true;
+    List<Runnable> result = new ArrayList<>();
+    queue.drainTo(result);
+    for (Runnable task : result) {
+      if (task instanceof FairQueue.Entry entry && entry.request != null) {
+        entry.request.reject(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+      }
+    }
+    for (Thread thread : running) thread.interrupt();
+    tryTerminate();
+    return result;
+  }
+
+  @Override public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override public boolean isTerminated() {
+    return terminated.getCount() == 0;
+  }
+
+  @Override public boolean awaitTermination(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  @Override public String toString() {
+    return "VirtualThreadExecutor{limit=" + permits.limit + ", queued=" + queue.size() + "}";
+  }
+
+  /** A semaphore whose count of permits follows a limit, even when they are all acquired. */
+  static final class LimitSemaphore extends Semaphore {
+    volatile int limit;
+
+    LimitSemaphore(int limit) {
+      super(limit);
+      this.limit = limit;
+    }
+
+    /** Acquired permits above a lowered limit are retired as they are released. */
+    void setLimit(int newLimit) {
+      int delta = newLimit - limit;
+      limit = newLimit;
+      if (delta > 0) {
+        release(delta);
+      } else if (delta < 0) {
+        reducePermits(-delta);
+      }
+    }
+  }
+
+  static final class SemaphoreResizer implements Consumer<Integer> {
+    final VirtualThreadExecutor executor;
+
+    SemaphoreResizer(VirtualThreadExecutor executor) {
+      this.executor = executor;
+    }
+
+    /** This is {@code synchronized} so that concurrent changes don't interleave. */
+    @Override public synchronized void accept(Integer newValue) {
+      executor.permits.setLimit(newValue);
+      executor.drain(); // in case the limit increased
+    }
+  }
+}
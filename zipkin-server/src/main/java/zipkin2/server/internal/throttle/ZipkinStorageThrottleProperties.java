@@ -22,6 +22,37 @@ public final class ZipkinStorageThrottleProperties {
    * Maximum number of storage requests to buffer while waiting for open Thread. 0 = no buffering.
    */
   private int maxQueueSize;
+  /**
+   * Should requests be queued per local service name, and taken from each service in turn? When
+   * the queue is full, requests of the service with the most queued are rejected first.
+   */
+  private boolean fairQueuing;
+  /** When fair queuing, maximum number of storage requests to buffer per service. 0 = no limit. */
+  private int maxQueueSizePerService;
+  /**
+   * Should low-value spans be dropped before the queue is full, so that error, debug and slow
+   * spans are more likely to be stored?
+   */
+  private boolean shedLowValueSpans;
+  /** Ratio of the queue size at which low-value spans are shed unless sampled. */
+  private float shedQueueRatio = 0.8f;
+  /** Rate of traces whose low-value spans are kept while shedding, until the queue is full. */
+  private float shedSampleRate = 0.1f;
+  /** Spans at least this long are never shed. */
+  private int shedSlowSpanMillis = 1000;
+  /**
+   * Should requests run on virtual threads, limited by a semaphore, instead of a resized pool?
+   * Requires JDK 21+.
+   */
+  private boolean virtualThreads;
+  /** Should queries, such as trace searches, also be throttled, separately from writes? */
+  private boolean readEnabled;
+  /** Minimum number of storage queries to allow through at a given time. */
+  private int readMinConcurrency;
+  /** Maximum number of storage queries to allow through at a given time. */
+  private int readMaxConcurrency;
+  /** Maximum number of storage queries to buffer while waiting for open Thread. */
+  private int readMaxQueueSize;
 
   public boolean isEnabled() {
     return enabled;
@@ -54,4 +85,92 @@ public final class ZipkinStorageThrottleProperties {
   public void setMaxQueueSize(int maxQueueSize) {
     this.maxQueueSize = maxQueueSize;
   }
+
+  public boolean isFairQueuing() {
+    return fairQueuing;
+  }
+
+  public void setFairQueuing(boolean fairQueuing) {
+    this.fairQueuing = fairQueuing;
+  }
+
+  public int getMaxQueueSizePerService() {
+    return maxQueueSizePerService;
+  }
+
+  public void setMaxQueueSizePerService(int maxQueueSizePerService) {
+    this.maxQueueSizePerService = maxQueueSizePerService;
+  }
+
+  public boolean isShedLowValueSpans() {
+    return shedLowValueSpans;
+  }
+
+  public void setShedLowValueSpans(boolean shedLowValueSpans) {
+    this.shedLowValueSpans = shedLowValueSpans;
+  }
+
+  public float getShedQueueRatio() {
+    return shedQueueRatio;
+  }
+
+  public void setShedQueueRatio(float shedQueueRatio) {
+    this.shedQueueRatio = shedQueueRatio;
+  }
+
+  public float getShedSampleRate() {
+    return shedSampleRate;
+  }
+
+  public void setShedSampleRate(float shedSampleRate) {
+    this.shedSampleRate = shedSampleRate;
+  }
+
+  public int getShedSlowSpanMillis() {
+    return shedSlowSpanMillis;
+  }
+
+  public void setShedSlowSpanMillis(int shedSlowSpanMillis) {
+    this.shedSlowSpanMillis = shedSlowSpanMillis;
+  }
+
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  public void setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  public boolean isReadEnabled() {
+    return readEnabled;
+  }
+
+  public void setReadEnabled(boolean readEnabled) {
+    this.readEnabled = readEnabled;
+  }
+
+  public int getReadMinConcurrency() {
+    return readMinConcurrency;
+  }
+
+  public void setReadMinConcurrency(int readMinConcurrency) {
+    this.readMinConcurrency = readMinConcurrency;
+  }
+
+  public int getReadMaxConcurrency() {
+    return readMaxConcurrency;
+  }
+
+  public void setReadMaxConcurrency(int readMaxConcurrency) {
+    this.readMaxConcurrency = readMaxConcurrency;
+  }
+
+  public int getReadMaxQueueSize() {
+    return readMaxQueueSize;
+  }
+
+  public void setReadMaxQueueSize(int readMaxQueueSize) {
+    this.readMaxQueueSize = readMaxQueueSize;
+  }
 }
@@ -34,6 +34,9 @@ public class ZipkinActiveMQCollectorPropertiesOverrideTest {
       parameters("client-id-prefix", "zipkin-prod", b -> b.connectionFactory.getClientIDPrefix()),
       parameters("queue", "zapkin", b -> b.queue),
       parameters("concurrency", 2, b -> b.concurrency),
+      parameters("batch-size", 100, b -> b.batchSize),
+      parameters("batch-timeout-millis", 500, b -> b.batchTimeoutMillis),
+      parameters("prefetch", 200, b -> b.prefetch),
       parameters("username", "u", b -> b.connectionFactory.getUserName()),
       parameters("password", "p", b -> b.connectionFactory.getPassword())
     );
@@ -36,6 +36,10 @@ public class ZipkinKafkaCollectorPropertiesOverrideTest {
       parameters("group-id", "zapkin", b -> b.properties.getProperty("group.id")),
       parameters("topic", "zapkin", b -> b.topic),
       parameters("streams", 2, b -> b.streams),
+      parameters("max-batch-size", 100, b -> b.maxBatchSize),
+      parameters("commit-after-storage", true, b -> b.commitAfterStorage),
+      parameters("max-pending-spans", 100, b -> b.maxPendingSpans),
+      parameters("decode-threads", 4, b -> b.decodeThreads),
       parameters(
         "overrides.auto.offset.reset",
         "latest",
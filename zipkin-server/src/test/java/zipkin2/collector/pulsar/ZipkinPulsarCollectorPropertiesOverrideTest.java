@@ -35,6 +35,8 @@ public class ZipkinPulsarCollectorPropertiesOverrideTest {
         parameters("service-url", "pulsar://127.0.0.1:6650", b -> b.clientProps.get("serviceUrl")),
         parameters("topic", "zipkin", b -> b.topic),
         parameters("concurrency", 2, b -> b.concurrency),
+        parameters("batch-max-messages", 100, b -> b.batchMaxMessages),
+        parameters("batch-timeout-millis", 50, b -> b.batchTimeoutMillis),
         parameters("clientProps.serviceUrl", "pulsar://127.0.0.1:6650", b -> b.clientProps.get("serviceUrl")),
         parameters("consumerProps.subscriptionName", "zipkin-subscription", b -> b.consumerProps.get("subscriptionName"))
     );
@@ -6,6 +6,7 @@ package zipkin2.server.internal;
 
 import com.linecorp.armeria.server.Server;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -19,6 +20,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import zipkin.server.ZipkinServer;
+import zipkin2.Span;
 import zipkin2.TestObjects;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
@@ -71,20 +73,47 @@ class ITZipkinGrpcCollector {
     callReport(new ListOfSpans.Builder().build());
   }
 
+  @Test void reportStream_storesAllMessages() throws IOException {
+    List<ListOfSpans> messages = new ArrayList<>();
+    for (Span span : TestObjects.TRACE) {
+      messages.add(ListOfSpans.ADAPTER.decode(SpanBytesEncoder.PROTO3.encodeList(List.of(span))));
+    }
+    messages.add(new ListOfSpans.Builder().build()); // empty is ok
+    callReport("ReportStream", messages);
+
+    // The response is only sent after storage, so no need to wait.
+    assertThat(storage.getTraces())
+      .containsExactly(TestObjects.TRACE);
+  }
+
+  @Test void reportStream_malformed() throws IOException {
+    try (Buffer requestBody = new Buffer()) {
+      requestBody.writeByte(0 /* compressedFlag */);
+      requestBody.writeInt(3);
+      requestBody.writeUtf8("foo");
+
+      try (Response response = post("ReportStream", requestBody)) {
+        assertThat(response.header("grpc-status")).isEqualTo("3"); // INVALID_ARGUMENT
+        assertThat(response.header("grpc-message")).endsWith("reading List<Span> from proto3");
+      }
+    }
+  }
+
   void callReport(ListOfSpans spans) throws IOException {
+    callReport("Report", List.of(spans));
+  }
+
+  void callReport(String method, List<ListOfSpans> messages) throws IOException {
     try (Buffer requestBody = new Buffer(); Buffer encodedMessage = new Buffer()) {
-      requestBody.writeByte(0 /* compressedFlag */);
+      for (ListOfSpans spans : messages) {
+        requestBody.writeByte(0 /* compressedFlag */);
 
-      ListOfSpans.ADAPTER.encode(encodedMessage, spans);
-      requestBody.writeInt((int) encodedMessage.size());
-      requestBody.writeAll(encodedMessage);
+        ListOfSpans.ADAPTER.encode(encodedMessage, spans);
+        requestBody.writeInt((int) encodedMessage.size());
+        requestBody.writeAll(encodedMessage);
+      }
 
-      Request request = new Request.Builder()
-        .url(url(server, "/zipkin.proto3.SpanService/Report"))
-        .addHeader("te", "trailers")
-        .post(RequestBody.create(requestBody.snapshot(), MediaType.get("application/grpc")))
-        .build();
-      try (Response response = client.newCall(request).execute();
+      try (Response response = post(method, requestBody);
            BufferedSource responseBody = response.body().source()) {
 
         // We expect this is a valid gRPC over HTTP2 response (Length-Prefixed-Message).
@@ -96,10 +125,20 @@ class ITZipkinGrpcCollector {
         // Now, verify the Length-Prefixed-Message
         assertThat(compressedFlag).isZero(); // server didn't compress
         assertThat(messageLength).isZero(); // there are no fields in ReportResponse
+        assertThat(response.trailers().get("grpc-status")).isEqualTo("0");
       }
     }
   }
 
+  Response post(String method, Buffer requestBody) throws IOException {
+    Request request = new Request.Builder()
+      .url(url(server, "/zipkin.proto3.SpanService/" + method))
+      .addHeader("te", "trailers")
+      .post(RequestBody.create(requestBody.snapshot(), MediaType.get("application/grpc")))
+      .build();
+    return client.newCall(request).execute();
+  }
+
   void awaitSpans() {
     await().untilAsserted(// wait for spans
       () -> assertThat(storage.acceptedSpanCount()).isGreaterThanOrEqualTo(1));
@@ -0,0 +1,170 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import com.github.luben.zstd.Zstd;
+import com.linecorp.armeria.server.Server;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.DeflaterSink;
+import okio.GzipSink;
+import okio.Okio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import zipkin.server.ZipkinServer;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.InMemoryStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+import static zipkin2.server.internal.ITZipkinServer.url;
+
+@SpringBootTest(
+  classes = ZipkinServer.class,
+  webEnvironment = SpringBootTest.WebEnvironment.NONE, // RANDOM_PORT requires spring-web
+  properties = {
+    "server.port=0",
+    "spring.config.name=zipkin-server",
+    "zipkin.collector.http.max-body-size=100000",
+    "zipkin.collector.http.max-batch-size=3"
+  }
+)
+class ITZipkinHttpCollector {
+  static final List<Span> SPANS = List.of(LOTS_OF_SPANS).subList(0, 10);
+
+  @Autowired InMemoryStorage storage;
+  @Autowired Server server;
+
+  OkHttpClient client = new OkHttpClient.Builder().followRedirects(true).build();
+
+  @BeforeEach void init() {
+    storage.clear();
+  }
+
+  @Test void storesSpansInBatches() throws IOException {
+    Response response = post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(SPANS), false);
+    assertThat(response.code()).isEqualTo(202);
+
+    await().untilAsserted(() -> assertThat(storage.getTraces()).flatMap(t -> t)
+      .containsExactlyInAnyOrderElementsOf(SPANS));
+  }
+
+  @Test void storesGzippedSpans() throws IOException {
+    Response response = post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(SPANS), true);
+    assertThat(response.code()).isEqualTo(202);
+
+    await().untilAsserted(() -> assertThat(storage.getTraces()).flatMap(t -> t)
+      .containsExactlyInAnyOrderElementsOf(SPANS));
+  }
+
+  @Test void storesZstdSpans() throws IOException {
+    byte[] zstd = Zstd.compress(SpanBytesEncoder.JSON_V2.encodeList(SPANS));
+    Response response = post("/api/v2/spans", zstd, "zstd");
+    assertThat(response.code()).isEqualTo(202);
+
+    await().untilAsserted(() -> assertThat(storage.getTraces()).flatMap(t -> t)
+      .containsExactlyInAnyOrderElementsOf(SPANS));
+  }
+
+  @Test void storesDeflatedSpans() throws IOException {
+    Buffer deflated = new Buffer();
+    try (BufferedSink sink = Okio.buffer(new DeflaterSink(deflated, new Deflater()))) {
+      sink.write(SpanBytesEncoder.JSON_V2.encodeList(SPANS));
+    }
+    Response response = post("/api/v2/spans", deflated.readByteArray(), "deflate");
+    assertThat(response.code()).isEqualTo(202);
+
+    await().untilAsserted(() -> assertThat(storage.getTraces()).flatMap(t -> t)
+      .containsExactlyInAnyOrderElementsOf(SPANS));
+  }
+
+  @Test void malformedZstd() throws IOException {
+    byte[] zstd = Zstd.compress(SpanBytesEncoder.JSON_V2.encodeList(SPANS));
+    Response response = post("/api/v2/spans", Arrays.copyOf(zstd, zstd.length / 2), "zstd");
+
+    assertThat(response.code()).isEqualTo(400);
+    assertThat(response.body().string()).isEqualTo("Cannot decompress zstd spans");
+  }
+
+  @Test void unsupportedEncoding() throws IOException {
+    Response response =
+      post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(SPANS), "compress");
+
+    assertThat(response.code()).isEqualTo(400);
+    assertThat(response.body().string()).isEqualTo("Unsupported Content-Encoding: compress");
+  }
+
+  @Test void emptyList() throws IOException {
+    Response response = post("/api/v2/spans", new byte[] {'[', ']'}, false);
+    assertThat(response.code()).isEqualTo(202);
+  }
+
+  @Test void malformedGzip() throws IOException {
+    Response response = client.newCall(new Request.Builder()
+      .url(url(server, "/api/v2/spans"))
+      .header("Content-Encoding", "gzip")
+      .post(RequestBody.create(SpanBytesEncoder.JSON_V2.encodeList(SPANS)))
+      .build()).execute();
+
+    assertThat(response.code()).isEqualTo(400);
+    assertThat(response.body().string()).isEqualTo("Cannot gunzip spans");
+  }
+
+  @Test void wrongFormat() throws IOException {
+    Response response = post("/api/v2/spans", SpanBytesEncoder.JSON_V1.encodeList(SPANS), false);
+
+    assertThat(response.code()).isEqualTo(400);
+    assertThat(response.body().string())
+      .isEqualTo("Expected a JSON_V2 encoded list, but received: JSON_V1");
+  }
+
+  @Test void bodyTooLarge() throws IOException {
+    byte[] json = SpanBytesEncoder.JSON_V2.encodeList(List.of(LOTS_OF_SPANS).subList(0, 1000));
+    assertThat(json.length).isGreaterThan(100000);
+
+    // Compressed data is still checked after decompression
+    assertThat(post("/api/v2/spans", json, true).code()).isEqualTo(413);
+    assertThat(post("/api/v2/spans", json, false).code()).isEqualTo(413);
+  }
+
+  @Test void bodyTooLarge_thrift() throws IOException {
+    // Thrift bodies are buffered until complete, so the limit also bounds that buffer.
+    byte[] thrift = SpanBytesEncoder.THRIFT.encodeList(List.of(LOTS_OF_SPANS).subList(0, 1000));
+    assertThat(thrift.length).isGreaterThan(100000);
+
+    Request request = new Request.Builder().url(url(server, "/api/v1/spans"))
+      .post(RequestBody.create(thrift, MediaType.get("application/x-thrift"))).build();
+    assertThat(client.newCall(request).execute().code()).isEqualTo(413);
+  }
+
+  Response post(String path, byte[] body, boolean gzip) throws IOException {
+    if (!gzip) return post(path, body, null);
+    Buffer sink = new Buffer();
+    try (BufferedSink gzipSink = Okio.buffer(new GzipSink(sink))) {
+      gzipSink.write(body);
+    }
+    return post(path, sink.readByteArray(), "gzip");
+  }
+
+  Response post(String path, byte[] body, String contentEncoding) throws IOException {
+    Request.Builder request = new Request.Builder().url(url(server, path))
+      .post(RequestBody.create(body, MediaType.get("application/json")));
+    if (contentEncoding != null) request.header("Content-Encoding", contentEncoding);
+    return client.newCall(request.build()).execute();
+  }
+}
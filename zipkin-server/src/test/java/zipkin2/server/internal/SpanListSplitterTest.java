@@ -0,0 +1,127 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+import static zipkin2.TestObjects.UTF_8;
+
+class SpanListSplitterTest {
+  List<Span> spans = List.of(LOTS_OF_SPANS).subList(0, 10);
+  List<Span> decoded = new ArrayList<>();
+  List<Integer> batchSizes = new ArrayList<>();
+
+  @Test void json_splitsIntoBatches() {
+    splitsIntoBatches(SpanBytesEncoder.JSON_V2, SpanBytesDecoder.JSON_V2);
+  }
+
+  @Test void proto3_splitsIntoBatches() {
+    splitsIntoBatches(SpanBytesEncoder.PROTO3, SpanBytesDecoder.PROTO3);
+  }
+
+  void splitsIntoBatches(SpanBytesEncoder encoder, SpanBytesDecoder decoder) {
+    SpanListSplitter splitter = SpanListSplitter.create(decoder, 3);
+
+    writeInChunks(splitter, encoder.encodeList(spans), 7, decodeInto(decoder));
+
+    assertThat(decoded).isEqualTo(spans);
+    assertThat(batchSizes).containsExactly(3, 3, 3, 1);
+  }
+
+  @Test void thrift_buffersEntireList() {
+    SpanListSplitter splitter = SpanListSplitter.create(SpanBytesDecoder.THRIFT, 3);
+
+    writeInChunks(splitter, SpanBytesEncoder.THRIFT.encodeList(spans), 7,
+      decodeInto(SpanBytesDecoder.THRIFT));
+
+    assertThat(decoded).isEqualTo(spans);
+    assertThat(batchSizes).containsExactly(10);
+  }
+
+  @Test void json_ignoresBracketsInStrings() {
+    Span span = spans.get(0).toBuilder().name("}]{[\\\"").build();
+    SpanListSplitter splitter = SpanListSplitter.create(SpanBytesDecoder.JSON_V2, 1);
+
+    writeInChunks(splitter, SpanBytesEncoder.JSON_V2.encodeList(List.of(span, span)), 1,
+      decodeInto(SpanBytesDecoder.JSON_V2));
+
+    assertThat(decoded).containsExactly(span, span);
+    assertThat(batchSizes).containsExactly(1, 1);
+  }
+
+  @Test void json_emptyList() {
+    SpanListSplitter splitter = SpanListSplitter.create(SpanBytesDecoder.JSON_V2, 3);
+
+    writeInChunks(splitter, "[ ]".getBytes(UTF_8), 1, decodeInto(SpanBytesDecoder.JSON_V2));
+
+    assertThat(batchSizes).isEmpty();
+  }
+
+  @Test void json_truncated() {
+    SpanListSplitter splitter = SpanListSplitter.create(SpanBytesDecoder.JSON_V2, 1);
+    byte[] json = SpanBytesEncoder.JSON_V2.encodeList(spans);
+
+    splitter.write(ByteBuffer.wrap(json, 0, json.length - 1),
+      decodeInto(SpanBytesDecoder.JSON_V2));
+    assertThatThrownBy(() -> splitter.finish(decodeInto(SpanBytesDecoder.JSON_V2)))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessageContaining("reading List<Span> from json");
+  }
+
+  @Test void json_notAList() {
+    SpanListSplitter splitter = SpanListSplitter.create(SpanBytesDecoder.JSON_V2, 1);
+
+    ByteBuffer proto3 = ByteBuffer.wrap(SpanBytesEncoder.PROTO3.encodeList(spans));
+    assertThatThrownBy(() -> splitter.write(proto3, decodeInto(SpanBytesDecoder.JSON_V2)))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Expected a JSON_V2 encoded list");
+  }
+
+  @Test void proto3_truncated() {
+    SpanListSplitter splitter = SpanListSplitter.create(SpanBytesDecoder.PROTO3, 100);
+    byte[] proto3 = SpanBytesEncoder.PROTO3.encodeList(spans);
+
+    splitter.write(ByteBuffer.wrap(proto3, 0, proto3.length - 1),
+      decodeInto(SpanBytesDecoder.PROTO3));
+    assertThatThrownBy(() -> splitter.finish(decodeInto(SpanBytesDecoder.PROTO3)))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessageContaining("reading List<Span> from proto3");
+  }
+
+  @Test void proto3_malformed() {
+    SpanListSplitter splitter = SpanListSplitter.create(SpanBytesDecoder.PROTO3, 100);
+
+    ByteBuffer json = ByteBuffer.wrap(SpanBytesEncoder.JSON_V2.encodeList(spans));
+    assertThatThrownBy(() -> splitter.write(json, decodeInto(SpanBytesDecoder.PROTO3)))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Malformed reading List<Span> from proto3");
+  }
+
+  Consumer<ByteBuffer> decodeInto(SpanBytesDecoder decoder) {
+    return batch -> {
+      List<Span> spans = decoder.decodeList(batch);
+      batchSizes.add(spans.size());
+      decoded.addAll(spans);
+    };
+  }
+
+  static void writeInChunks(SpanListSplitter splitter, byte[] bytes, int chunkSize,
+    Consumer<ByteBuffer> batches) {
+    for (int i = 0; i < bytes.length; i += chunkSize) {
+      splitter.write(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)), batches);
+    }
+    splitter.finish(batches);
+  }
+}
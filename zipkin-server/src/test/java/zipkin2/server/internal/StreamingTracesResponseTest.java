@@ -0,0 +1,70 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.MediaType;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TRACE;
+
+class StreamingTracesResponseTest {
+  List<Span> otherTrace = List.of(CLIENT_SPAN.toBuilder().traceId("1").build());
+
+  @Test void empty() {
+    AggregatedHttpResponse response = stream(List.of()).aggregate().join();
+
+    assertThat(response.contentType()).isEqualTo(MediaType.JSON);
+    assertThat(response.contentUtf8()).isEqualTo("[]");
+  }
+
+  @Test void oneTrace() {
+    AggregatedHttpResponse response = stream(List.of(TRACE)).aggregate().join();
+
+    assertThat(response.contentUtf8())
+      .isEqualTo("[" + new String(SpanBytesEncoder.JSON_V2.encodeList(TRACE)) + "]");
+  }
+
+  @Test void oneChunkPerTrace() {
+    List<HttpObject> objects =
+      stream(List.of(TRACE, otherTrace, List.of())).collect().join();
+
+    List<String> chunks = objects.stream()
+      .filter(HttpData.class::isInstance)
+      .map(o -> ((HttpData) o).toStringUtf8())
+      .collect(Collectors.toList());
+    assertThat(chunks).hasSize(3);
+    assertThat(chunks.get(0)).startsWith("[[");
+    assertThat(chunks.get(1)).startsWith(",[");
+    assertThat(chunks.get(2)).isEqualTo(",[]]");
+
+    byte[] json = String.join("", chunks).getBytes();
+    assertThat(json).isEqualTo(expected(TRACE, otherTrace, List.of()));
+  }
+
+  static HttpResponse stream(List<List<Span>> traces) {
+    return StreamingTracesResponse.create(SpanBytesEncoder.JSON_V2, traces,
+      ByteBufAllocator.DEFAULT, Runnable::run);
+  }
+
+  @SafeVarargs static byte[] expected(List<Span>... traces) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < traces.length; i++) {
+      if (i > 0) json.append(',');
+      json.append(new String(SpanBytesEncoder.JSON_V2.encodeList(traces[i])));
+    }
+    return json.append(']').toString().getBytes();
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+class TraceResponseCacheTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  long endMillis = CLIENT_SPAN.timestampAsLong() / 1000 + CLIENT_SPAN.durationAsLong() / 1000;
+  long now = endMillis + 1000L;
+  TraceResponseCache cache = new TraceResponseCache(10, 1000L, 5000L, registry, () -> now);
+  List<Span> trace = List.of(CLIENT_SPAN);
+
+  @Test void cachesSettledTrace() {
+    cache.maybePut("a", trace, new byte[] {1, 2});
+
+    assertThat(cache.get("a")).containsExactly(1, 2);
+    assertThat(cache.get("b")).isNull();
+    assertThat(requests("hit")).isEqualTo(1.0);
+    assertThat(requests("miss")).isEqualTo(1.0);
+    assertThat(cache.bytes()).isEqualTo(2);
+  }
+
+  @Test void expiresAfterTtl() {
+    cache.maybePut("a", trace, new byte[] {1, 2});
+
+    now += 4999L;
+    assertThat(cache.get("a")).containsExactly(1, 2);
+
+    now++;
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.responses).isEmpty();
+    assertThat(cache.bytes()).isZero();
+  }
+
+  @Test void skipsTraceThatMayChange() {
+    now--;
+    cache.maybePut("a", trace, new byte[1]);
+
+    assertThat(cache.get("a")).isNull();
+  }
+
+  @Test void skipsTraceWithoutTimestamps() {
+    cache.maybePut("a", List.of(CLIENT_SPAN.toBuilder().timestamp(0L).build()), new byte[1]);
+
+    assertThat(cache.get("a")).isNull();
+  }
+
+  @Test void skipsResponseLargerThanCache() {
+    cache.maybePut("a", trace, new byte[11]);
+
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.bytes()).isZero();
+  }
+
+  @Test void evictsLeastRecentlyUsed() {
+    cache.maybePut("a", trace, new byte[4]);
+    cache.maybePut("b", trace, new byte[4]);
+    cache.get("a");
+    cache.maybePut("c", trace, new byte[4]);
+
+    assertThat(cache.responses).containsOnlyKeys("a", "c");
+    assertThat(cache.bytes()).isEqualTo(8);
+    assertThat(registry.get("zipkin_query.trace_cache.evictions").counter().count())
+      .isEqualTo(1.0);
+  }
+
+  @Test void replacingResponseUpdatesBytes() {
+    cache.maybePut("a", trace, new byte[4]);
+    cache.maybePut("a", trace, new byte[6]);
+
+    assertThat(cache.bytes()).isEqualTo(6);
+  }
+
+  double requests(String result) {
+    return registry.get("zipkin_query.trace_cache.requests").tag("result", result)
+      .counter().count();
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.kafka;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MicrometerKafkaCollectorMetricsTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  MicrometerKafkaCollectorMetrics metrics = new MicrometerKafkaCollectorMetrics(registry);
+  TopicPartition zero = new TopicPartition("zipkin", 0);
+
+  @Test void recordPoll() {
+    metrics.recordPoll(10, 1000, TimeUnit.MILLISECONDS.toNanos(5));
+    metrics.recordPoll(20, 3000, TimeUnit.MILLISECONDS.toNanos(15));
+
+    assertThat(registry.get("zipkin_collector.poll_records").summary().mean()).isEqualTo(15.0);
+    assertThat(registry.get("zipkin_collector.poll_bytes").summary().totalAmount())
+      .isEqualTo(4000.0);
+    assertThat(registry.get("zipkin_collector.poll").timer().totalTime(TimeUnit.MILLISECONDS))
+      .isEqualTo(20.0);
+  }
+
+  @Test void recordLag_perPartition() {
+    metrics.recordLag(zero, 5);
+    metrics.recordLag(zero, 3);
+    metrics.recordLag(new TopicPartition("zipkin", 1), 7);
+
+    assertThat(registry.get("zipkin_collector.lag").tag("partition", "0").gauge().value())
+      .isEqualTo(3.0);
+    assertThat(registry.get("zipkin_collector.lag").tag("partition", "1").gauge().value())
+      .isEqualTo(7.0);
+  }
+
+  @Test void removeLag_removesGauge() {
+    metrics.recordLag(zero, 5);
+    metrics.removeLag(zero);
+
+    assertThat(registry.find("zipkin_collector.lag").gauges()).isEmpty();
+    metrics.removeLag(zero); // idempotent
+  }
+}
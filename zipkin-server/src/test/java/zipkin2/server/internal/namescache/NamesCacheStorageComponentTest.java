@@ -0,0 +1,129 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.namescache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.StorageComponent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+class NamesCacheStorageComponentTest {
+  InMemoryStorage delegate = InMemoryStorage.newBuilder().build();
+  ZipkinNamesCacheProperties properties = new ZipkinNamesCacheProperties();
+  long nanoTime;
+
+  Span backendSpan = CLIENT_SPAN.toBuilder().id("3").localEndpoint(BACKEND).name("query")
+    .remoteEndpoint(null).build();
+
+  @Test void servesCachedNamesUntilStale() throws IOException {
+    delegate.accept(List.of(CLIENT_SPAN)).execute();
+    NamesCacheStorageComponent storage = storage();
+
+    assertThat(storage.serviceAndSpanNames().getServiceNames().execute())
+      .containsExactly("frontend");
+
+    delegate.accept(List.of(backendSpan)).execute(); // not through the cache
+    assertThat(storage.serviceAndSpanNames().getServiceNames().execute())
+      .containsExactly("frontend");
+
+    advance(properties.getRefreshMillis());
+    assertThat(storage.serviceAndSpanNames().getServiceNames().execute())
+      .containsExactly("backend", "frontend");
+  }
+
+  @Test void refreshRemovesNamesNoLongerStored() throws IOException {
+    delegate.accept(List.of(CLIENT_SPAN)).execute();
+    NamesCacheStorageComponent storage = storage();
+    storage.serviceAndSpanNames().getSpanNames("frontend").execute();
+
+    delegate.clear();
+    advance(properties.getRefreshMillis());
+
+    assertThat(storage.serviceAndSpanNames().getSpanNames("frontend").execute()).isEmpty();
+  }
+
+  @Test void addsNamesOfSpansAsTheyAreWritten() throws IOException {
+    NamesCacheStorageComponent storage = storage();
+    ServiceAndSpanNames names = storage.serviceAndSpanNames();
+    assertThat(names.getServiceNames().execute()).isEmpty();
+    assertThat(names.getSpanNames("frontend").execute()).isEmpty();
+    assertThat(names.getRemoteServiceNames("frontend").execute()).isEmpty();
+
+    storage.spanConsumer().accept(List.of(CLIENT_SPAN)).execute();
+
+    assertThat(names.getServiceNames().execute()).containsExactly("frontend");
+    assertThat(names.getSpanNames("frontend").execute()).containsExactly("get");
+    assertThat(names.getRemoteServiceNames("frontend").execute()).containsExactly("backend");
+    assertThat(delegate.getTraces()).containsExactly(List.of(CLIENT_SPAN));
+  }
+
+  @Test void writesDontCacheNamesNotYetRequested() throws IOException {
+    NamesCacheStorageComponent storage = storage();
+    storage.spanConsumer().accept(List.of(CLIENT_SPAN)).execute();
+
+    assertThat(storage.spanNames.byKey).isEmpty();
+    assertThat(storage.serviceNames.byKey).isEmpty();
+  }
+
+  @Test void servesStaleNamesWhenRefreshFails() throws IOException {
+    StorageComponent failing = mock(StorageComponent.class);
+    ServiceAndSpanNames names = mock(ServiceAndSpanNames.class);
+    when(failing.serviceAndSpanNames()).thenReturn(names);
+    when(names.getServiceNames()).thenReturn(Call.create(new ArrayList<>(List.of("frontend"))))
+      .thenReturn(Call.create(null).map(v -> {
+        throw new IllegalStateException("storage is down");
+      }));
+    NamesCacheStorageComponent storage =
+      new NamesCacheStorageComponent(failing, properties, () -> nanoTime);
+
+    storage.serviceAndSpanNames().getServiceNames().execute();
+    advance(properties.getRefreshMillis());
+
+    assertThat(storage.serviceAndSpanNames().getServiceNames().execute())
+      .containsExactly("frontend");
+    assertThat(storage.serviceNames.byKey.get("").refreshing).isFalse();
+    verify(names, times(2)).getServiceNames();
+  }
+
+  @Test void boundsServices() throws IOException {
+    properties.setMaxServices(1);
+    NamesCacheStorageComponent storage = storage();
+
+    storage.serviceAndSpanNames().getSpanNames("frontend").execute();
+    storage.serviceAndSpanNames().getSpanNames("backend").execute();
+
+    assertThat(storage.spanNames.byKey).containsOnlyKeys("frontend");
+  }
+
+  @Test void serviceNamesAreCaseInsensitive() throws IOException {
+    NamesCacheStorageComponent storage = storage();
+
+    storage.serviceAndSpanNames().getSpanNames("FrontEnd").execute();
+
+    assertThat(storage.spanNames.byKey).containsOnlyKeys("frontend");
+  }
+
+  NamesCacheStorageComponent storage() {
+    return new NamesCacheStorageComponent(delegate, properties, () -> nanoTime);
+  }
+
+  void advance(long millis) {
+    nanoTime += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
@@ -141,6 +141,7 @@ class ITZipkinMetrics {
       , "counter.zipkin_collector.spans.grpc"
       , "counter.zipkin_collector.messages_dropped.grpc"
       , "counter.zipkin_collector.spans_dropped.grpc"
+      , "gauge.zipkin_collector.streams.grpc"
       , "gauge.zipkin_collector.message_spans.http"
       , "gauge.zipkin_collector.message_bytes.http"
       , "counter.zipkin_collector.messages.http"
@@ -0,0 +1,113 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.spanlimits;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+import zipkin2.storage.InMemoryStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+class SpanLimitsStorageComponentTest {
+  InMemoryStorage delegate = InMemoryStorage.newBuilder().build();
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  ZipkinSpanLimitsProperties properties = new ZipkinSpanLimitsProperties();
+
+  @Test void spanWithinLimitsIsUnchanged() {
+    assertThat(storage().limit(CLIENT_SPAN)).isSameAs(CLIENT_SPAN);
+  }
+
+  @Test void truncatesTagValues() {
+    properties.setMaxTagValueLength(3);
+
+    Span span = storage().limit(CLIENT_SPAN.toBuilder().clearTags()
+      .putTag("a", "abcdef").putTag("b", "ab").build());
+
+    assertThat(span.tags()).containsExactly(entry("a", "abc"), entry("b", "ab"));
+    assertThat(limited("tag_value_length")).isEqualTo(1.0);
+  }
+
+  @Test void truncatesTagValues_withoutSplittingSurrogatePair() {
+    properties.setMaxTagValueLength(3);
+
+    Span span = storage().limit(CLIENT_SPAN.toBuilder().clearTags()
+      .putTag("a", "ab\uD83D\uDE00c").build()); // a smiley is two chars
+
+    assertThat(span.tags()).containsExactly(entry("a", "ab"));
+  }
+
+  @Test void removesTagsOverLimit_keepingError() {
+    properties.setMaxTags(1);
+
+    Span span = storage().limit(CLIENT_SPAN.toBuilder().clearTags()
+      .putTag("a", "1").putTag("b", "2").putTag("error", "").build());
+
+    assertThat(span.tags()).containsOnlyKeys("a", "error");
+    assertThat(limited("tags")).isEqualTo(1.0);
+  }
+
+  @Test void removesAnnotationsOverLimit() {
+    properties.setMaxAnnotations(1);
+
+    Span span = storage().limit(CLIENT_SPAN.toBuilder()
+      .addAnnotation(CLIENT_SPAN.annotations().get(0).timestamp() + 1, "bar").build());
+
+    assertThat(span.annotations()).containsExactlyElementsOf(CLIENT_SPAN.annotations());
+    assertThat(limited("annotations")).isEqualTo(1.0);
+  }
+
+  @Test void dropsSpanTooLarge() throws Exception {
+    properties.setMaxTagValueLength(0);
+    properties.setMaxSpanBytes(1024);
+    Span huge = CLIENT_SPAN.toBuilder().putTag("sql", "x".repeat(1024)).build();
+
+    SpanLimitsStorageComponent storage = storage();
+    storage.spanConsumer().accept(List.of(huge, CLIENT_SPAN)).execute();
+
+    assertThat(delegate.getTraces()).containsExactly(List.of(CLIENT_SPAN));
+    assertThat(limited("span_bytes")).isEqualTo(1.0);
+  }
+
+  @Test void truncatesBeforeCheckingSize() throws Exception {
+    properties.setMaxTagValueLength(10);
+    properties.setMaxSpanBytes(1024);
+    Span huge = CLIENT_SPAN.toBuilder().putTag("sql", "x".repeat(1024)).build();
+
+    SpanLimitsStorageComponent storage = storage();
+    storage.spanConsumer().accept(List.of(huge)).execute();
+
+    assertThat(delegate.getTraces().get(0).get(0).tags()).containsEntry("sql", "x".repeat(10));
+    assertThat(limited("span_bytes")).isZero();
+  }
+
+  @Test void zeroDisablesLimits() {
+    properties.setMaxTagValueLength(0);
+    properties.setMaxTags(0);
+    properties.setMaxAnnotations(0);
+    properties.setMaxSpanBytes(0);
+    Span huge = CLIENT_SPAN.toBuilder().putTag("sql", "x".repeat(100_000)).build();
+
+    assertThat(storage().limit(huge)).isSameAs(huge);
+  }
+
+  @Test void negativeLimitsAreInvalid() {
+    properties.setMaxTags(-1);
+
+    assertThrows(IllegalArgumentException.class, this::storage);
+  }
+
+  SpanLimitsStorageComponent storage() {
+    return new SpanLimitsStorageComponent(delegate, properties, registry);
+  }
+
+  double limited(String rule) {
+    return registry.get("zipkin_collector.spans_limited").tag("rule", rule).counter().count();
+  }
+}
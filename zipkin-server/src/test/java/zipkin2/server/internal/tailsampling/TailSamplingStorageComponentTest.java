@@ -0,0 +1,264 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.tailsampling;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.server.internal.tailsampling.TailSamplingStorageComponent.PendingTrace;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.StorageComponent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.server.internal.tailsampling.TailSamplingStorageComponent.MAX_IN_FLIGHT_WRITES;
+import static zipkin2.server.internal.tailsampling.TailSamplingStorageComponent.MAX_SPANS_PER_WRITE;
+
+class TailSamplingStorageComponentTest {
+  InMemoryStorage delegate = InMemoryStorage.newBuilder().build();
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  ZipkinTailSamplingProperties properties = new ZipkinTailSamplingProperties();
+  long nanoTime;
+  TailSamplingStorageComponent storage;
+
+  // Neither slow nor tagged: the base rate of 0.1 keeps "lucky", the lowest trace ID, but not
+  // "boring", the highest.
+  Span boring = CLIENT_SPAN.toBuilder().traceId("7fffffffffffffff").clearTags().build();
+  Span lucky = boring.toBuilder().traceId("0000000000000001").build();
+  Span error = boring.toBuilder().traceId("0000000000000002").putTag("error", "").build();
+
+  @AfterEach void close() throws Exception {
+    if (storage != null) storage.close();
+  }
+
+  @Test void buffersUntilWindowEnds() throws Exception {
+    storage().spanConsumer().accept(List.of(error)).execute();
+    assertThat(delegate.getTraces()).isEmpty();
+
+    advance(9_999);
+    storage.flushDue();
+    assertThat(delegate.getTraces()).isEmpty();
+
+    assertThat(registry.get("zipkin_collector.tail_sampling.buffered_spans").gauge().value())
+      .isEqualTo(1.0);
+
+    advance(1);
+    storage.flushDue();
+    assertThat(delegate.getTraces()).containsExactly(List.of(error));
+    assertThat(storage.bufferedSpans).isZero();
+  }
+
+  @Test void keepsWholeTraceWhenAnySpanIsInteresting() throws Exception {
+    Span slow = boring.toBuilder().id("2").duration(2_000_000L).build();
+    storage().spanConsumer().accept(List.of(boring)).execute();
+    storage.spanConsumer().accept(List.of(slow)).execute();
+
+    advance(10_000);
+    storage.flushDue();
+
+    assertThat(delegate.getTraces()).hasSize(1);
+    assertThat(delegate.getTraces().get(0)).containsExactlyInAnyOrder(boring, slow);
+    assertThat(kept("latency")).isEqualTo(1.0);
+  }
+
+  @Test void keepsByReason() throws Exception {
+    properties.setKeepTags(List.of("tenant=vip", "retry"));
+    storage();
+
+    accept(boring.toBuilder().traceId("7ffffffffffffff2").debug(true).build());
+    accept(boring.toBuilder().traceId("7ffffffffffffff3").putTag("error", "").build());
+    accept(boring.toBuilder().traceId("7ffffffffffffff4").putTag("tenant", "vip").build());
+    accept(boring.toBuilder().traceId("7ffffffffffffff5").putTag("retry", "2").build());
+    accept(boring.toBuilder().traceId("7ffffffffffffff6").putTag("tenant", "other").build());
+    accept(lucky);
+
+    advance(10_000);
+    storage.flushDue();
+
+    assertThat(delegate.getTraces()).hasSize(5);
+    assertThat(kept("debug")).isEqualTo(1.0);
+    assertThat(kept("error")).isEqualTo(1.0);
+    assertThat(kept("tag")).isEqualTo(2.0);
+    assertThat(kept("base_rate")).isEqualTo(1.0);
+    assertThat(registry.get("zipkin_collector.tail_sampling.traces_dropped").counter().count())
+      .isEqualTo(1.0);
+  }
+
+  @Test void dropsBoringTraces() throws Exception {
+    storage().spanConsumer().accept(List.of(boring)).execute();
+
+    advance(10_000);
+    storage.flushDue();
+
+    assertThat(delegate.getTraces()).isEmpty();
+    assertThat(registry.get("zipkin_collector.tail_sampling.spans_dropped").counter().count())
+      .isEqualTo(1.0);
+  }
+
+  @Test void lateSpansFollowDecision() throws Exception {
+    storage().spanConsumer().accept(List.of(error, boring)).execute();
+    advance(10_000);
+    storage.flushDue();
+
+    Span lateKept = error.toBuilder().id("2").clearTags().build();
+    Span lateDropped = boring.toBuilder().id("2").build();
+    storage.spanConsumer().accept(List.of(lateKept, lateDropped)).execute();
+
+    assertThat(delegate.getTraces()).hasSize(1);
+    assertThat(delegate.getTraces().get(0)).containsExactlyInAnyOrder(error, lateKept);
+    assertThat(storage.bufferedSpans).isZero();
+  }
+
+  @Test void decidesOldestTracesEarlyWhenFull() throws Exception {
+    properties.setMaxSpans(1);
+    storage().spanConsumer().accept(List.of(error)).execute();
+
+    // The trace decided early is stored by the call that filled the buffer, so callers wait.
+    Call<Void> call = storage.spanConsumer().accept(List.of(boring));
+    assertThat(delegate.getTraces()).isEmpty();
+    assertThat(storage.pending).containsOnlyKeys(boring.traceId());
+
+    call.execute();
+    assertThat(delegate.getTraces()).containsExactly(List.of(error));
+  }
+
+  @Test void writesAreBoundedAndGroupedByService() {
+    PendingTrace frontend = new PendingTrace(error.traceId(), 0L);
+    for (int i = 1; i <= MAX_SPANS_PER_WRITE + 1; i++) {
+      frontend.spans.add(error.toBuilder().id(i).build());
+    }
+    PendingTrace backend = new PendingTrace(lucky.traceId(), 0L);
+    backend.spans.add(lucky.toBuilder().localEndpoint(BACKEND).build());
+
+    List<List<Span>> writes = TailSamplingStorageComponent.writes(List.of(frontend, backend));
+
+    assertThat(writes).extracting(List::size).containsExactly(MAX_SPANS_PER_WRITE, 1, 1);
+    assertThat(writes.get(1)).extracting(Span::localServiceName).containsExactly("frontend");
+    assertThat(writes.get(2)).extracting(Span::localServiceName).containsExactly("backend");
+  }
+
+  @Test void countsSpansOfFailedWrites() throws Exception {
+    StorageComponent failing = mock(StorageComponent.class);
+    SpanConsumer spanConsumer = mock(SpanConsumer.class);
+    when(failing.spanConsumer()).thenReturn(spanConsumer);
+    when(spanConsumer.accept(any())).thenReturn(Call.<Void>create(null).map(v -> {
+      throw new IllegalStateException("storage is down");
+    }));
+    storage =
+      new TailSamplingStorageComponent(failing, properties, registry, () -> nanoTime, false);
+    accept(error);
+
+    advance(10_000);
+    storage.flushDue();
+
+    assertThat(registry.get("zipkin_collector.tail_sampling.spans_failed").counter().count())
+      .isEqualTo(1.0);
+    assertThat(storage.inFlightWrites.availablePermits()).isEqualTo(MAX_IN_FLIGHT_WRITES);
+  }
+
+  @Test void close_decidesBufferedTraces() throws Exception {
+    storage().spanConsumer().accept(List.of(error)).execute();
+
+    storage.close();
+
+    assertThat(delegate.getTraces()).containsExactly(List.of(error));
+    storage = null;
+  }
+
+  @Test void close_letsFlushBlockedOnSlowStorageFinish() throws Exception {
+    // Writes complete only when the test runs them.
+    BlockingQueue<Runnable> writes = new LinkedBlockingQueue<>();
+    List<Span> stored = new CopyOnWriteArrayList<>();
+    StorageComponent slow = mock(StorageComponent.class);
+    SpanConsumer spanConsumer = mock(SpanConsumer.class);
+    when(slow.spanConsumer()).thenReturn(spanConsumer);
+    when(spanConsumer.accept(any())).then(accept -> {
+      List<Span> spans = accept.getArgument(0);
+      Call<Void> call = mock(Call.class);
+      doAnswer(enqueue -> {
+        Callback<Void> callback = enqueue.getArgument(0);
+        return writes.add(() -> {
+          stored.addAll(spans);
+          callback.onSuccess(null);
+        });
+      }).when(call).enqueue(any());
+      return call;
+    });
+    properties.setDecisionWindowMillis(1_000); // so that the flush is scheduled every 100ms
+    storage = new TailSamplingStorageComponent(slow, properties, registry, () -> nanoTime, true);
+
+    // Each trace is a different service, so is a separate write.
+    int traceCount = MAX_IN_FLIGHT_WRITES + 1;
+    for (int i = 1; i <= traceCount; i++) {
+      accept(error.toBuilder().traceId(0L, i)
+        .localEndpoint(Endpoint.newBuilder().serviceName("service" + i).build()).build());
+    }
+    advance(1_000);
+
+    // The flush is blocked until a write completes.
+    await().until(() -> writes.size() == MAX_IN_FLIGHT_WRITES);
+
+    Thread closer = new Thread(() -> {
+      try {
+        storage.close();
+      } catch (Exception e) {
+        throw new AssertionError(e);
+      }
+    });
+    closer.setDaemon(true);
+    closer.start();
+    await().until(() -> closer.getState() == Thread.State.TIMED_WAITING);
+    verify(slow, never()).close();
+
+    await().until(() -> {
+      Runnable write = writes.poll();
+      if (write != null) write.run();
+      return stored.size() == traceCount;
+    });
+    closer.join(TimeUnit.SECONDS.toMillis(10));
+
+    assertThat(closer.isAlive()).isFalse();
+    verify(slow).close();
+    assertThat(registry.get("zipkin_collector.tail_sampling.spans_failed").counter().count())
+      .isZero();
+    storage = null;
+  }
+
+  TailSamplingStorageComponent storage() {
+    return storage =
+      new TailSamplingStorageComponent(delegate, properties, registry, () -> nanoTime, false);
+  }
+
+  void accept(Span span) throws Exception {
+    storage.spanConsumer().accept(List.of(span)).execute();
+  }
+
+  void advance(long millis) {
+    nanoTime += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  double kept(String reason) {
+    return registry.get("zipkin_collector.tail_sampling.traces_kept").tag("reason", reason)
+      .counter().count();
+  }
+}
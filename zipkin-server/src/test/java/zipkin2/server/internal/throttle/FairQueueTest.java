@@ -0,0 +1,182 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.throttle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import zipkin2.server.internal.throttle.FairQueue.Entry;
+import zipkin2.server.internal.throttle.FairQueue.KeyQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class FairQueueTest {
+  Map<String, KeyQueue> keys = new LinkedHashMap<>();
+  FairQueue queue = new FairQueue(4, 0, keyQueue -> keys.put(keyQueue.key, keyQueue));
+
+  @Test void takesFromEachKeyInTurn() {
+    queue.offer(entry("chatty", "1"));
+    queue.offer(entry("chatty", "2"));
+    queue.offer(entry("chatty", "3"));
+    queue.offer(entry("quiet", "4"));
+
+    assertThat(drain()).containsExactly("1", "4", "2", "3");
+  }
+
+  @Test void full_evictsNewestOfHeaviestKey() {
+    queue.offer(entry("chatty", "1"));
+    queue.offer(entry("chatty", "2"));
+    queue.offer(entry("chatty", "3"));
+    queue.offer(entry("other", "4"));
+
+    assertThat(queue.offer(entry("quiet", "5"))).isTrue();
+
+    assertThat(queue).hasSize(4);
+    assertThat(keys.get("chatty").rejected.sum()).isEqualTo(1);
+    assertThat(drain()).containsExactly("1", "4", "5", "2");
+  }
+
+  @Test void full_rejectsHeaviestKey() {
+    queue.offer(entry("chatty", "1"));
+    queue.offer(entry("chatty", "2"));
+    queue.offer(entry("chatty", "3"));
+    queue.offer(entry("quiet", "4"));
+
+    assertThat(queue.offer(entry("chatty", "5"))).isFalse();
+
+    assertThat(keys.get("chatty").rejected.sum()).isEqualTo(1);
+    assertThat(drain()).containsExactly("1", "4", "2", "3");
+  }
+
+  @Test void full_rejectsWhenBalanced() {
+    queue.offer(entry("a", "1"));
+    queue.offer(entry("a", "2"));
+    queue.offer(entry("b", "3"));
+    queue.offer(entry("b", "4"));
+
+    assertThat(queue.offer(entry("c", "5"))).isTrue(); // evicts "2"
+    // Evicting from "b" would leave it with fewer than "c"
+    assertThat(queue.offer(entry("c", "6"))).isFalse();
+  }
+
+  @Test void maxSizePerKey() {
+    queue = new FairQueue(4, 2, keyQueue -> keys.put(keyQueue.key, keyQueue));
+
+    assertThat(queue.offer(entry("chatty", "1"))).isTrue();
+    assertThat(queue.offer(entry("chatty", "2"))).isTrue();
+    assertThat(queue.offer(entry("chatty", "3"))).isFalse();
+    assertThat(queue.offer(entry("quiet", "4"))).isTrue();
+
+    assertThat(keys.get("chatty").size).isEqualTo(2);
+    assertThat(keys.get("chatty").rejected.sum()).isEqualTo(1);
+  }
+
+  @Test void limitsKeyCardinality() {
+    queue = new FairQueue(FairQueue.MAX_KEYS * 2, 0, keyQueue -> keys.put(keyQueue.key, keyQueue));
+
+    for (int i = 0; i < FairQueue.MAX_KEYS + 1; i++) {
+      queue.offer(entry("service" + i, String.valueOf(i)));
+    }
+
+    assertThat(keys).hasSize(FairQueue.MAX_KEYS + 1)
+      .containsKey(FairQueue.OTHER_KEY)
+      .doesNotContainKey("service" + FairQueue.MAX_KEYS);
+  }
+
+  @Test void full_evictedTaskIsCountedAndCancelled() {
+    FutureTask<Void> task = new FutureTask<>(() -> null);
+    queue.offer(new Entry("chatty", task, null));
+    queue.offer(entry("chatty", "2"));
+    queue.offer(entry("chatty", "3"));
+    FutureTask<Void> evicted = new FutureTask<>(() -> null);
+    queue.offer(new Entry("chatty", evicted, null));
+
+    queue.offer(entry("quiet", "5"));
+
+    assertThat(queue.dropped.sum()).isEqualTo(1);
+    assertThat(evicted).isCancelled();
+    assertThat(task).isNotCancelled();
+  }
+
+  @Test void offerWithTimeout_waitsForRoom() throws Exception {
+    fillWithOneKey();
+
+    assertThat(queue.offer(entry("chatty", "5"), 1, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(keys.get("chatty").rejected.sum()).isEqualTo(1); // not once per retry
+
+    CompletableFuture<Boolean> offered = CompletableFuture.supplyAsync(() -> {
+      try {
+        return queue.offer(entry("chatty", "6"), 10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    });
+    Thread.sleep(10);
+    assertThat(offered).isNotDone();
+
+    queue.poll();
+
+    assertThat(offered.get(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(drain()).containsExactly("2", "3", "4", "6");
+  }
+
+  @Test void put_blocksUntilRoom() throws Exception {
+    fillWithOneKey();
+
+    Thread putter = new Thread(() -> {
+      try {
+        queue.put(entry("chatty", "5"));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    putter.setDaemon(true);
+    putter.start();
+    await().until(() -> putter.getState() == Thread.State.TIMED_WAITING);
+
+    queue.take();
+
+    putter.join(10_000L);
+    assertThat(drain()).containsExactly("2", "3", "4", "5");
+  }
+
+  @Test void remove() {
+    Entry entry = entry("chatty", "1");
+    queue.offer(entry);
+
+    assertThat(queue.remove(entry)).isTrue();
+    assertThat(queue).isEmpty();
+    assertThat(queue.poll()).isNull();
+  }
+
+  void fillWithOneKey() {
+    for (int i = 1; i <= 4; i++) queue.offer(entry("chatty", String.valueOf(i)));
+  }
+
+  List<String> drain() {
+    List<Runnable> drained = new ArrayList<>();
+    queue.drainTo(drained);
+    List<String> result = new ArrayList<>();
+    for (Runnable runnable : drained) result.add(runnable.toString());
+    return result;
+  }
+
+  static Entry entry(String key, String name) {
+    return new Entry(key, new Runnable() {
+      @Override public void run() {
+      }
+
+      @Override public String toString() {
+        return name;
+      }
+    }, null);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.throttle;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+import zipkin2.TestObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoadShedderTest {
+  LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(10);
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  ZipkinStorageThrottleProperties properties = new ZipkinStorageThrottleProperties();
+
+  // Trace IDs are sampled by the absolute value of their lower 64 bits.
+  Span sampled = span("0000000000000001", 1000L);
+  Span unsampled = span("7fffffffffffffff", 1000L);
+
+  @Test void keepsAllSpans_withoutPressure() {
+    LoadShedder shedder = shedder();
+    fillQueue(7); // below 0.8 of 10
+
+    List<Span> spans = List.of(sampled, unsampled);
+    assertThat(shedder.shed(spans)).isSameAs(spans);
+  }
+
+  @Test void shedsUnsampledLowValueSpans_underPressure() {
+    LoadShedder shedder = shedder();
+    fillQueue(8);
+
+    assertThat(shedder.shed(List.of(sampled, unsampled))).containsExactly(sampled);
+    assertThat(shedCount("unsampled")).isEqualTo(1.0);
+    assertThat(shedCount("queue_full")).isZero();
+  }
+
+  @Test void shedsAllLowValueSpans_whenFull() {
+    LoadShedder shedder = shedder();
+    fillQueue(10);
+
+    assertThat(shedder.shed(List.of(sampled, unsampled))).isEmpty();
+    assertThat(shedCount("queue_full")).isEqualTo(2.0);
+  }
+
+  @Test void keepsHighValueSpans_whenFull() {
+    LoadShedder shedder = shedder();
+    fillQueue(10);
+
+    Span error = unsampled.toBuilder().putTag("error", "").build();
+    Span debug = unsampled.toBuilder().debug(true).build();
+    Span slow = unsampled.toBuilder().duration(1_000_000L).build();
+
+    assertThat(shedder.shed(List.of(error, debug, slow, unsampled)))
+      .containsExactly(error, debug, slow);
+  }
+
+  @Test void spanWithoutDuration_isNotSlow() {
+    properties.setShedSlowSpanMillis(0);
+    LoadShedder shedder = shedder();
+
+    assertThat(shedder.isHighValue(unsampled.toBuilder().duration(0L).build())).isFalse();
+  }
+
+  @Test void queueSizeZero_sizedLikeOne() {
+    queue = new LinkedBlockingQueue<>(1);
+    LoadShedder shedder = shedder(0);
+
+    List<Span> spans = List.of(sampled, unsampled);
+    assertThat(shedder.shed(spans)).isSameAs(spans);
+
+    fillQueue(1);
+    assertThat(shedder.shed(spans)).isEmpty();
+  }
+
+  @Test void queueSizeOne_emptyQueueDoesntShed() {
+    queue = new LinkedBlockingQueue<>(1);
+    LoadShedder shedder = shedder(1);
+
+    List<Span> spans = List.of(sampled, unsampled);
+    assertThat(shedder.shed(spans)).isSameAs(spans);
+    assertThat(shedCount("unsampled")).isZero();
+
+    fillQueue(1);
+    assertThat(shedder.shed(spans)).isEmpty();
+    assertThat(shedCount("queue_full")).isEqualTo(2.0);
+  }
+
+  @Test void invalidQueueRatio() {
+    properties.setShedQueueRatio(1.5f);
+
+    assertThatThrownBy(this::shedder)
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("shedQueueRatio should be between 0 and 1");
+  }
+
+  LoadShedder shedder() {
+    return shedder(10);
+  }
+
+  LoadShedder shedder(int maxQueueSize) {
+    return new LoadShedder(queue, maxQueueSize, properties, registry);
+  }
+
+  void fillQueue(int count) {
+    for (int i = 0; i < count; i++) queue.add(() -> {
+    });
+  }
+
+  double shedCount(String reason) {
+    return registry.get("zipkin_storage.throttle.spans_shed").tag("reason", reason).counter()
+      .count();
+  }
+
+  static Span span(String traceId, long duration) {
+    return TestObjects.CLIENT_SPAN.toBuilder()
+      .traceId(traceId)
+      .debug(null)
+      .clearTags()
+      .duration(duration)
+      .build();
+  }
+}
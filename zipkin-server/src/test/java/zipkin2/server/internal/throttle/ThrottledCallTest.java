@@ -36,7 +36,6 @@ import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static zipkin2.server.internal.throttle.ThrottledCall.NOOP_CALLBACK;
 import static zipkin2.server.internal.throttle.ThrottledCall.STORAGE_THROTTLE_MAX_CONCURRENCY;
 import static zipkin2.server.internal.throttle.ThrottledStorageComponent.STORAGE_THROTTLE_MAX_QUEUE_SIZE;
 
@@ -57,7 +56,7 @@ class ThrottledCallTest {
     Call<Void> delegate = mock(Call.class);
     when(delegate.toString()).thenReturn("StoreSpansCall{}");
 
-    assertThat(new ThrottledCall(delegate, executor, limiter, limiterMetrics, isOverCapacity))
+    assertThat(new ThrottledCall<>(delegate, executor, limiter, limiterMetrics, isOverCapacity))
       .hasToString("Throttled(StoreSpansCall{})");
   }
 
@@ -69,7 +68,7 @@ class ThrottledCallTest {
     Semaphore startLock = new Semaphore(numThreads);
     Semaphore waitLock = new Semaphore(totalTasks);
     Semaphore failLock = new Semaphore(1);
-    ThrottledCall throttled = throttle(new LockedCall(startLock, waitLock));
+    ThrottledCall<Void> throttled = throttle(new LockedCall(startLock, waitLock));
 
     // Step 1: drain appropriate locks
     startLock.drainPermits();
@@ -121,8 +120,8 @@ class ThrottledCallTest {
     FakeCall call = new FakeCall();
     call.overCapacity = true;
 
-    ThrottledCall throttle =
-      new ThrottledCall(call, executor, mockLimiter(listener), limiterMetrics, isOverCapacity);
+    ThrottledCall<Void> throttle =
+      new ThrottledCall<>(call, executor, mockLimiter(listener), limiterMetrics, isOverCapacity);
 
     try {
       throttle.execute();
@@ -135,7 +134,7 @@ class ThrottledCallTest {
   @Test void execute_ignoresLimit_whenPoolFull() throws Exception {
     Listener listener = mock(Listener.class);
 
-    ThrottledCall throttle = new ThrottledCall(new FakeCall(), mockExhaustedPool(),
+    ThrottledCall<Void> throttle = new ThrottledCall<>(new FakeCall(), mockExhaustedPool(),
       mockLimiter(listener), limiterMetrics, isOverCapacity);
 
     try {
@@ -153,7 +152,7 @@ class ThrottledCallTest {
 
     Semaphore startLock = new Semaphore(numThreads);
     Semaphore waitLock = new Semaphore(totalTasks);
-    ThrottledCall throttle = throttle(new LockedCall(startLock, waitLock));
+    ThrottledCall<Void> throttle = throttle(new LockedCall(startLock, waitLock));
 
     // Step 1: drain appropriate locks
     startLock.drainPermits();
@@ -178,8 +177,8 @@ class ThrottledCallTest {
     FakeCall call = new FakeCall();
     call.overCapacity = true;
 
-    ThrottledCall throttle =
-      new ThrottledCall(call, executor, mockLimiter(listener), limiterMetrics, isOverCapacity);
+    ThrottledCall<Void> throttle =
+      new ThrottledCall<>(call, executor, mockLimiter(listener), limiterMetrics, isOverCapacity);
 
     final CountDownLatch countDown = new CountDownLatch(1);
     final AtomicReference<Throwable> throwable = new AtomicReference<>();
@@ -204,17 +203,17 @@ class ThrottledCallTest {
   @Test void enqueue_ignoresLimit_whenPoolFull() {
     Listener listener = mock(Listener.class);
 
-    ThrottledCall throttle = new ThrottledCall(new FakeCall(), mockExhaustedPool(),
+    ThrottledCall<Void> throttle = new ThrottledCall<>(new FakeCall(), mockExhaustedPool(),
       mockLimiter(listener), limiterMetrics, isOverCapacity);
 
-    assertThatThrownBy(() -> throttle.enqueue(NOOP_CALLBACK))
+    assertThatThrownBy(() -> throttle.enqueue(mock(Callback.class)))
       .isEqualTo(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
 
     verify(listener).onIgnore();
   }
 
-  ThrottledCall throttle(Call<Void> delegate) {
-    return new ThrottledCall(delegate, executor, limiter, limiterMetrics, isOverCapacity);
+  ThrottledCall<Void> throttle(Call<Void> delegate) {
+    return new ThrottledCall<>(delegate, executor, limiter, limiterMetrics, isOverCapacity);
   }
 
   static final class LockedCall extends Call.Base<Void> {
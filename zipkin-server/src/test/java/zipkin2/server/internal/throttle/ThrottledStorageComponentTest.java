@@ -6,11 +6,24 @@ package zipkin2.server.internal.throttle;
 
 import brave.Tracing;
 import com.linecorp.armeria.common.metric.NoopMeterRegistry;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
 import zipkin2.Component;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.TestObjects;
 import zipkin2.internal.Nullable;
 import zipkin2.server.internal.throttle.ThrottledStorageComponent.ThrottledSpanConsumer;
+import zipkin2.storage.ForwardingStorageComponent;
 import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -32,6 +45,110 @@ class ThrottledStorageComponentTest {
       .isSameAs(throttle.spanConsumer().getClass());
   }
 
+  @Test void fairQueuing_evictsFromHeaviestService() throws Exception {
+    CountDownLatch blockStorage = new CountDownLatch(1);
+    StorageComponent blocking = new ForwardingStorageComponent() {
+      @Override protected StorageComponent delegate() {
+        return delegate;
+      }
+
+      @Override public SpanConsumer spanConsumer() {
+        return spans -> Call.<Void>create(null).map(v -> {
+          try {
+            blockStorage.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return v;
+        });
+      }
+    };
+    ZipkinStorageThrottleProperties properties = ThrottledStorageComponent.properties(1, 1, 2);
+    properties.setFairQueuing(true);
+
+    try (ThrottledStorageComponent throttle =
+           new ThrottledStorageComponent(blocking, registry, tracing, properties)) {
+      assertThat(((ThreadPoolExecutor) throttle.executor).getQueue())
+        .isInstanceOf(FairQueue.class);
+
+      LinkedBlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+      Callback<Void> callback = new Callback<>() {
+        @Override public void onSuccess(Void value) {
+        }
+
+        @Override public void onError(Throwable t) {
+          errors.add(t);
+        }
+      };
+      SpanConsumer consumer = throttle.spanConsumer();
+      consumer.accept(List.of(TestObjects.CLIENT_SPAN)).enqueue(callback); // blocks the thread
+      consumer.accept(List.of(TestObjects.CLIENT_SPAN)).enqueue(callback); // queued
+      consumer.accept(List.of(TestObjects.CLIENT_SPAN)).enqueue(callback); // queued, then evicted
+
+      Span quiet = TestObjects.CLIENT_SPAN.toBuilder()
+        .localEndpoint(Endpoint.newBuilder().serviceName("quiet").build())
+        .build();
+      consumer.accept(List.of(quiet)).enqueue(callback);
+
+      assertThat(errors.poll(1, TimeUnit.SECONDS))
+        .isSameAs(ThrottledStorageComponent.STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+      blockStorage.countDown();
+    }
+  }
+
+  @Test void reads_notThrottledByDefault() {
+    ThrottledStorageComponent throttle =
+      new ThrottledStorageComponent(delegate, registry, tracing, 1, 2, 1);
+
+    assertThat(throttle.spanStore()).isSameAs(delegate.spanStore());
+    assertThat(throttle.traces()).isSameAs(delegate.traces());
+    assertThat(throttle.serviceAndSpanNames()).isSameAs(delegate.serviceAndSpanNames());
+    assertThat(throttle.autocompleteTags()).isSameAs(delegate.autocompleteTags());
+  }
+
+  @Test void reads_throttledSeparately() throws Exception {
+    ZipkinStorageThrottleProperties properties = ThrottledStorageComponent.properties(1, 2, 1);
+    properties.setReadEnabled(true);
+    properties.setReadMinConcurrency(1);
+    properties.setReadMaxConcurrency(2);
+    properties.setReadMaxQueueSize(1);
+
+    try (ThrottledStorageComponent throttle =
+           new ThrottledStorageComponent(delegate, registry, tracing, properties)) {
+      assertThat(throttle.reads.executor).isNotSameAs(throttle.executor);
+
+      throttle.spanConsumer().accept(List.of(TestObjects.CLIENT_SPAN)).execute();
+
+      assertThat(throttle.traces().getTrace(TestObjects.CLIENT_SPAN.traceId()).execute())
+        .containsExactly(TestObjects.CLIENT_SPAN);
+      assertThat(throttle.serviceAndSpanNames().getServiceNames().execute())
+        .contains(TestObjects.CLIENT_SPAN.localServiceName());
+      assertThat(throttle.spanStore().getTraces(QueryRequest.newBuilder()
+        .endTs(TestObjects.TODAY + 1000).lookback(86400000L).limit(10).build()).execute())
+        .hasSize(1);
+      assertThat(((ThreadPoolExecutor) throttle.reads.executor).getTaskCount()).isEqualTo(3);
+    }
+  }
+
+  @Test void virtualThreads() throws Exception {
+    ZipkinStorageThrottleProperties properties = ThrottledStorageComponent.properties(1, 2, 1);
+    properties.setVirtualThreads(true);
+    properties.setReadEnabled(true);
+    properties.setReadMinConcurrency(1);
+    properties.setReadMaxConcurrency(2);
+
+    try (ThrottledStorageComponent throttle =
+           new ThrottledStorageComponent(delegate, registry, tracing, properties)) {
+      assertThat(throttle.executor).isInstanceOf(VirtualThreadExecutor.class);
+      assertThat(throttle.reads.executor).isInstanceOf(VirtualThreadExecutor.class);
+
+      throttle.spanConsumer().accept(List.of(TestObjects.CLIENT_SPAN)).execute();
+
+      assertThat(throttle.traces().getTrace(TestObjects.CLIENT_SPAN.traceId()).execute())
+        .containsExactly(TestObjects.CLIENT_SPAN);
+    }
+  }
+
   @Test void createComponent_withZeroSizedQueue() {
     int queueSize = 0;
     new ThrottledStorageComponent(delegate, registry, tracing, 1, 2, queueSize);
@@ -0,0 +1,155 @@
+/*
+ * Copyright The OpenZipkin Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package zipkin2.server.internal.throttle;
+
+import com.linecorp.armeria.common.metric.NoopMeterRegistry;
+import com.netflix.concurrency.limits.limit.SettableLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.server.internal.throttle.FairQueue.KeyedExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static zipkin2.server.internal.throttle.ThrottledStorageComponent.STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+
+class VirtualThreadExecutorTest {
+  SettableLimit limit = new SettableLimit(1);
+  VirtualThreadExecutor executor =
+    new VirtualThreadExecutor(limit, new LinkedBlockingQueue<>(1), "test");
+  CountDownLatch block = new CountDownLatch(1);
+  AtomicInteger completed = new AtomicInteger();
+
+  @AfterEach void shutdown() {
+    block.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test void runsOnVirtualThreads() throws Exception {
+    LinkedBlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+    executor.execute(() -> threads.add(Thread.currentThread()));
+
+    Thread thread = threads.poll(1, TimeUnit.SECONDS);
+    assertThat(thread.getClass().getSimpleName()).isEqualTo("VirtualThread");
+    assertThat(thread.getName()).startsWith("test-");
+  }
+
+  @Test void queuesBeyondLimit() throws Exception {
+    executor.execute(this::blockThenComplete);
+    executor.execute(this::blockThenComplete);
+    assertThat(executor.getQueue()).hasSize(1);
+
+    block.countDown();
+    awaitCompleted(2);
+    assertThat(executor.getQueue()).isEmpty();
+  }
+
+  @Test void rejectsWhenQueueFull() {
+    executor.execute(this::blockThenComplete);
+    executor.execute(this::blockThenComplete);
+
+    assertThatThrownBy(() -> executor.execute(this::blockThenComplete))
+      .isSameAs(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+  }
+
+  @Test void increasingLimit_startsQueued() throws Exception {
+    executor.execute(this::blockThenComplete);
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(started::countDown);
+
+    limit.setLimit(2);
+
+    assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(executor.getLimit()).isEqualTo(2);
+  }
+
+  @Test void decreasingLimit_appliesAsTasksComplete() throws Exception {
+    limit.setLimit(2);
+    executor.execute(this::blockThenComplete);
+    executor.execute(this::blockThenComplete);
+
+    limit.setLimit(1);
+    block.countDown();
+    awaitCompleted(2);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (executor.permits.availablePermits() < 1 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(executor.permits.availablePermits()).isEqualTo(1);
+  }
+
+  @Test void shutdownNow_interruptsRunning() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    executor.execute(() -> {
+      try {
+        block.await();
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+    });
+    while (executor.running.isEmpty()) Thread.sleep(10);
+
+    executor.shutdownNow();
+
+    assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(executor.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+    assertThatThrownBy(() -> executor.execute(() -> {
+    })).isSameAs(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+  }
+
+  @Test void shutdown_runsQueued() throws Exception {
+    executor.execute(this::blockThenComplete);
+    executor.execute(this::blockThenComplete);
+
+    executor.shutdown();
+    assertThat(executor.isTerminated()).isFalse();
+
+    block.countDown();
+    awaitCompleted(2);
+    assertThat(executor.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test void shutdownNow_rejectsQueuedRequests() {
+    executor = new VirtualThreadExecutor(limit, new FairQueue(1, 0, keyQueue -> {
+    }), "test");
+    executor.execute(this::blockThenComplete);
+    SettableLimit callLimit = new SettableLimit(2);
+    ThrottledCall<Void> call = new ThrottledCall<>(mock(Call.class),
+      new KeyedExecutor(executor, "frontend", task -> task),
+      SimpleLimiter.newBuilder().limit(callLimit).build(),
+      new LimiterMetrics(NoopMeterRegistry.get()), RejectedExecutionException.class::isInstance);
+    Callback<Void> callback = mock(Callback.class);
+    call.enqueue(callback);
+
+    assertThat(executor.shutdownNow()).hasSize(1);
+
+    verify(callback).onError(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+  }
+
+  void blockThenComplete() {
+    try {
+      block.await();
+      completed.incrementAndGet();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void awaitCompleted(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (completed.get() < count && System.nanoTime() < deadline) Thread.sleep(10);
+    assertThat(completed).hasValue(count);
+  }
+}
@@ -111,11 +111,11 @@ public enum SpanBytesDecoder implements BytesDecoder<Span> {
     }
 
     @Override public boolean decodeList(byte[] spans, Collection<Span> out) { // ex getTrace
-      return JsonCodec.readList(new V2SpanReader(), ReadBuffer.wrap(spans), out);
+      return JsonCodec.readList(new V2SpanReader(true), ReadBuffer.wrap(spans), out);
     }
 
     @Override public boolean decodeList(ByteBuffer spans, Collection<Span> out) {
-      return JsonCodec.readList(new V2SpanReader(), ReadBuffer.wrapUnsafe(spans), out);
+      return JsonCodec.readList(new V2SpanReader(true), ReadBuffer.wrapUnsafe(spans), out);
     }
 
     @Override @Nullable public Span decodeOne(byte[] span) {
@@ -210,7 +210,18 @@ public final class JsonCodec {
     b.writeByte(']');
   }
 
+  /**
+   * Raised when a field only present in a different model version is read. Ex. "binaryAnnotations"
+   * while reading v2 json. Detecting this while decoding avoids scanning the input separately.
+   */
+  static final class UnexpectedFormatException extends IllegalArgumentException {
+    UnexpectedFormatException(String expected, String received) {
+      super("Expected a " + expected + " encoded list, but received: " + received);
+    }
+  }
+
   static IllegalArgumentException exceptionReading(String type, Exception e) {
+    if (e instanceof UnexpectedFormatException) return (UnexpectedFormatException) e;
     String cause = e.getMessage() == null ? "Error" : e.getMessage();
     if (cause.contains("Expected BEGIN_OBJECT")
       || cause.contains("Expected BEGIN_ARRAY")
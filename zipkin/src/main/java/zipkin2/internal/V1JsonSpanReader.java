@@ -10,6 +10,7 @@ import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.JsonCodec.JsonReader;
 import zipkin2.internal.JsonCodec.JsonReaderAdapter;
+import zipkin2.internal.JsonCodec.UnexpectedFormatException;
 import zipkin2.v1.V1Span;
 import zipkin2.v1.V1SpanConverter;
 
@@ -28,7 +29,7 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
       reader.beginArray();
       if (!reader.hasNext()) return false;
       while (reader.hasNext()) {
-        V1Span result = fromJson(reader);
+        V1Span result = fromJson(reader, true);
         converter.convert(result, out);
       }
       reader.endArray();
@@ -39,6 +40,14 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
   }
 
   @Override public V1Span fromJson(JsonReader reader) throws IOException {
+    return fromJson(reader, false);
+  }
+
+  /**
+   * @param listMessage when true, fields only in the v2 model raise an error, as that is what
+   * clients mistakenly post to the v1 endpoint.
+   */
+  V1Span fromJson(JsonReader reader, boolean listMessage) throws IOException {
     if (builder == null) {
       builder = V1Span.newBuilder();
     } else {
@@ -53,6 +62,9 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
       } else if (nextName.equals("id")) {
         builder.id(reader.nextString());
         continue;
+      } else if (listMessage && (nextName.equals("localEndpoint")
+        || nextName.equals("remoteEndpoint") || nextName.equals("tags"))) {
+        throw new UnexpectedFormatException("JSON_V1", "JSON_V2");
       } else if (reader.peekNull()) {
         reader.skipValue();
         continue;
@@ -9,10 +9,24 @@ import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.JsonCodec.JsonReader;
 import zipkin2.internal.JsonCodec.JsonReaderAdapter;
+import zipkin2.internal.JsonCodec.UnexpectedFormatException;
 
 public final class V2SpanReader implements JsonReaderAdapter<Span> {
+  final boolean listMessage;
   Span.Builder builder;
 
+  public V2SpanReader() {
+    this(false);
+  }
+
+  /**
+   * @param listMessage when true, fields only in the v1 model raise an error, as that is what
+   * clients mistakenly post to the v2 endpoint.
+   */
+  public V2SpanReader(boolean listMessage) {
+    this.listMessage = listMessage;
+  }
+
   @Override public Span fromJson(JsonReader reader) throws IOException {
     if (builder == null) {
       builder = Span.newBuilder();
@@ -28,6 +42,8 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
       } else if (nextName.equals("id")) {
         builder.id(reader.nextString());
         continue;
+      } else if (listMessage && nextName.equals("binaryAnnotations")) {
+        throw new UnexpectedFormatException("JSON_V2", "JSON_V1");
       } else if (reader.peekNull()) {
         reader.skipValue();
         continue;
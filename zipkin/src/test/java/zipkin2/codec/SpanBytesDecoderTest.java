@@ -324,6 +324,14 @@ class SpanBytesDecoderTest {
         .traceId("48485a3953bb61246b221d5bc9e6496c").build());
   }
 
+  @Test void rejectsV1Fields() {
+    byte[] v1 = SpanBytesEncoder.JSON_V1.encodeList(TRACE);
+
+    assertThatThrownBy(() -> SpanBytesDecoder.JSON_V2.decodeList(v1))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Expected a JSON_V2 encoded list, but received: JSON_V1");
+  }
+
   @Test void ignoresNull_topLevelFields() {
     String json = """
       {
@@ -275,6 +275,44 @@ class V1SpanBytesDecoderTest {
           .build());
   }
 
+  @Test void rejectsV2Fields() {
+    byte[] v2 = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+
+    IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+      () -> SpanBytesDecoder.JSON_V1.decodeList(v2));
+    assertThat(exception)
+      .hasMessage("Expected a JSON_V1 encoded list, but received: JSON_V2");
+  }
+
+  /** Previously, a binary annotation key of "tags" was mistaken for v2 json. */
+  @Test void readsBinaryAnnotationNamedTags() {
+    String json = """
+      {
+        "traceId": "6b221d5bc9e6496c",
+        "id": "6b221d5bc9e6496c",
+        "binaryAnnotations": [{"key": "tags", "value": "a,b"}]
+      }
+      """;
+
+    assertThat(SpanBytesDecoder.JSON_V1.decodeOne(json.getBytes(UTF_8)).tags())
+      .containsEntry("tags", "a,b");
+  }
+
+  /** The list reader is the one rejecting v2 fields, so check it doesn't reject this either. */
+  @Test void readsBinaryAnnotationNamedTags_list() {
+    String json = """
+      [{
+        "traceId": "6b221d5bc9e6496c",
+        "id": "6b221d5bc9e6496c",
+        "binaryAnnotations": [{"key": "tags", "value": "a,b"}]
+      }]
+      """;
+
+    List<Span> spans = SpanBytesDecoder.JSON_V1.decodeList(json.getBytes(UTF_8));
+    assertThat(spans).hasSize(1);
+    assertThat(spans.get(0).tags()).containsEntry("tags", "a,b");
+  }
+
   @Test void ignoresNull_topLevelFields() {
     String json =
         """